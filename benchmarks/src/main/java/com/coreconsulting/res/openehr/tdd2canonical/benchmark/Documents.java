@@ -0,0 +1,128 @@
+package com.coreconsulting.res.openehr.tdd2canonical.benchmark;
+
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class provides the inputs shared by the benchmarks: synthetic TDDs of increasing size and an isolated cache
+ * folder. The benchmarks are expected to run from the root of the main project, as the default properties, TDS and
+ * cache are resolved relative to it.
+ * The synthetic TDDs are instances of the same template (CN4-INTEROP.xsd) built from the sample TDD, repeating each
+ * content section (every child of the composition after the context) a number of times, so they stay valid against
+ * the TDS while their size grows linearly.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+public class Documents {
+
+    /**
+     * Path to the sample TDD, overridable through the "tdd" system property.
+     */
+    public static final String TDD_PATH = System.getProperty("tdd",
+            "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml");
+    /**
+     * Path to the TDS of the sample TDD, overridable through the "tds" system property.
+     */
+    public static final String TDS_PATH = System.getProperty("tds", "./src/main/resources/templates/CN4-INTEROP.xsd");
+    /**
+     * {@literal @template_id} of the sample TDD.
+     */
+    public static final String TEMPLATE_ID = "Registro de Atendimento Clínico v1.0";
+
+    /**
+     * Generates a synthetic TDD repeating each content section of the sample TDD.
+     *
+     * @param copies number of copies of each content section
+     * @return the synthetic TDD
+     * @throws Exception when the sample TDD can't be read or the synthetic one written
+     */
+    public static byte[] generate(int copies) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(false);
+        Document document = factory.newDocumentBuilder().parse(new File(TDD_PATH));
+
+        List<Element> sections = new ArrayList<>();
+        boolean content = false;
+        for (Node child = document.getDocumentElement().getFirstChild(); child != null;
+             child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            if (content)
+                sections.add((Element) child);
+            else if (child.getNodeName().equals("context"))
+                content = true;
+        }
+        for (Element section : sections) {
+            Node next = section.getNextSibling();
+            for (int i = 1; i < copies; i++)
+                section.getParentNode().insertBefore(section.cloneNode(true), next);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Generates a synthetic TDD into a temporary file, deleted when the JVM exits.
+     *
+     * @param copies number of copies of each content section
+     * @return the temporary file holding the synthetic TDD
+     * @throws Exception when the synthetic TDD can't be generated or written
+     */
+    public static File generateFile(int copies) throws Exception {
+        File file = File.createTempFile("tdd-" + copies + "-", ".xml");
+        file.deleteOnExit();
+        try (OutputStream stream = new FileOutputStream(file)) {
+            stream.write(generate(copies));
+        }
+        return file;
+    }
+
+    /**
+     * Points the cache folder to a temporary copy of the current one, so benchmarks writing into the cache don't
+     * touch the project's. It must be called before the properties are first read.
+     *
+     * @return the temporary cache folder
+     * @throws IOException when the properties or the cache can't be copied
+     */
+    public static File isolateCache() throws IOException {
+        java.util.Properties properties = new java.util.Properties();
+        String path = System.getProperty("properties", "./src/main/resources/properties.xml");
+        try (InputStream stream = new FileInputStream(path)) {
+            properties.loadFromXML(stream);
+        }
+        File cache = Files.createTempDirectory("tds-cache").toFile();
+        File original = new File(properties.getProperty(Properties.CACHE_FOLDER), TEMPLATE_ID);
+        if (original.isFile())
+            Files.copy(original.toPath(), new File(cache, TEMPLATE_ID).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        properties.setProperty(Properties.CACHE_FOLDER, cache.getPath());
+
+        File isolated = File.createTempFile("properties", ".xml");
+        isolated.deleteOnExit();
+        try (OutputStream stream = new FileOutputStream(isolated)) {
+            properties.storeToXML(stream, null);
+        }
+        System.setProperty("properties", isolated.getPath());
+        return cache;
+    }
+
+}
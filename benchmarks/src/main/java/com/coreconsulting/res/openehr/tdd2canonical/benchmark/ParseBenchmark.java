@@ -0,0 +1,65 @@
+package com.coreconsulting.res.openehr.tdd2canonical.benchmark;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks parsing a TDD from the local filesystem (see
+ * {@link com.coreconsulting.res.openehr.tdd2canonical.util.XML#XML(File)}).
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    /**
+     * Number of copies of each content section in the synthetic TDD.
+     */
+    @Param({"1", "10", "100"})
+    public int copies;
+
+    /**
+     * Synthetic TDD.
+     */
+    protected File file;
+
+    /**
+     * Generates the synthetic TDD.
+     *
+     * @throws Exception when the synthetic TDD can't be generated
+     */
+    @Setup
+    public void setup() throws Exception {
+        file = Documents.generateFile(copies);
+    }
+
+    /**
+     * Parses the synthetic TDD.
+     *
+     * @return the parsed document
+     */
+    @Benchmark
+    public Document parse() {
+        return new TDD(file).getXml();
+    }
+
+}
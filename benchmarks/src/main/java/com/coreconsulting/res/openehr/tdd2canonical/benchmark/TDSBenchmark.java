@@ -0,0 +1,158 @@
+package com.coreconsulting.res.openehr.tdd2canonical.benchmark;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDS;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSCache;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the TDS lifecycle: compiling the descriptors from the XML Schema, either parsing it (cold) or
+ * from an already parsed one (warm), preloading it into the cache ({@link TDS#loadNodeCache()}), reading it back from
+ * the cache ({@link TDSCache}) and loading it into the registry from the cache ({@link TDSRegistry}).
+ * The cache folder is pointed to a temporary copy (see {@link Documents#isolateCache()}).
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TDSBenchmark {
+
+    /**
+     * This class exposes the compilation of the descriptors, which {@link TDS} only runs once per instance.
+     */
+    public static class CompilingTDS extends TDS {
+
+        /**
+         * Creates a TDS from a XML Schema available on the local filesystem.
+         *
+         * @param file XML Schema available on the local filesystem
+         */
+        public CompilingTDS(File file) {
+            super(file);
+        }
+
+        /**
+         * Compiles the descriptors from the parsed XML Schema, regardless of previous compilations (so no descriptor
+         * is reused).
+         *
+         * @return descriptor of the root element definition
+         */
+        public TDSNode compile() {
+            Element composition = (Element) getXPathAsNodeList("/schema[1]/element[1]").item(0);
+            Map<Element, Long> hashes = new IdentityHashMap<>();
+            hashSubtree(composition, hashes);
+            return compileNode(composition, new IdentityHashMap<>(), hashes, Collections.emptyMap());
+        }
+
+    }
+
+    /**
+     * TDS parsed once, for warm compilations.
+     */
+    protected CompilingTDS tds;
+    /**
+     * Cache file of the TDS.
+     */
+    protected File cache;
+
+    /**
+     * Isolates the cache folder and parses the TDS.
+     *
+     * @throws IOException when the cache can't be isolated
+     */
+    @Setup
+    public void setup() throws IOException {
+        File folder = Documents.isolateCache();
+        tds = new CompilingTDS(new File(Documents.TDS_PATH));
+        tds.loadNodeCache();
+        cache = new File(folder, tds.getTemplateId());
+    }
+
+    /**
+     * Parses the XML Schema and compiles the descriptors.
+     *
+     * @return descriptor of the root element definition
+     */
+    @Benchmark
+    public TDSNode compileCold() {
+        return new TDS(new File(Documents.TDS_PATH)).getRootNode();
+    }
+
+    /**
+     * Compiles the descriptors from the parsed XML Schema.
+     *
+     * @return descriptor of the root element definition
+     */
+    @Benchmark
+    public TDSNode compileWarm() {
+        return tds.compile();
+    }
+
+    /**
+     * Parses the XML Schema, compiles the descriptors and writes them into the cache.
+     *
+     * @return the TDS
+     */
+    @Benchmark
+    public TDS loadNodeCacheCold() {
+        TDS cold = new TDS(new File(Documents.TDS_PATH));
+        cold.loadNodeCache();
+        return cold;
+    }
+
+    /**
+     * Writes the descriptors of an already compiled TDS into the cache.
+     *
+     * @return the TDS
+     */
+    @Benchmark
+    public TDS loadNodeCacheWarm() {
+        tds.loadNodeCache();
+        return tds;
+    }
+
+    /**
+     * Reads the TDS from the cache file.
+     *
+     * @return the TDS
+     * @throws IOException when the cache can't be read
+     */
+    @Benchmark
+    public TDS readCache() throws IOException {
+        return TDSCache.read(cache);
+    }
+
+    /**
+     * Loads the TDS into the registry from the cache.
+     *
+     * @return the TDS
+     */
+    @Benchmark
+    public TDS registryFromCache() {
+        TDSRegistry.invalidate(Documents.TEMPLATE_ID);
+        return TDSRegistry.fromTemplateId(Documents.TEMPLATE_ID);
+    }
+
+}
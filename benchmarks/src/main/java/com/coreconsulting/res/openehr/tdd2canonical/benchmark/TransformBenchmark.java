@@ -0,0 +1,133 @@
+package com.coreconsulting.res.openehr.tdd2canonical.benchmark;
+
+import com.coreconsulting.res.openehr.tdd2canonical.CanonicalOptions;
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XML;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the end to end transformation of a parsed TDD ({@link TDD#toCanonical()}, which clones the
+ * document and walks it through {@code TDD.transformNode}), the parsing and transformation of a TDD either cloned or
+ * in place (see {@link CanonicalOptions#isInPlace()}) and the serialization of the resulting composition
+ * ({@link XML#toString(Document)}, or {@link XMLSerializer} into a reused buffer).
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    /**
+     * Number of copies of each content section in the synthetic TDD.
+     */
+    @Param({"1", "10", "100"})
+    public int copies;
+
+    /**
+     * Synthetic TDD, serialized.
+     */
+    protected byte[] bytes;
+    /**
+     * Synthetic TDD, parsed once.
+     */
+    protected TDD tdd;
+    /**
+     * Composition transformed once from the synthetic TDD.
+     */
+    protected Document composition;
+    /**
+     * Buffer the composition is written into, reset before every invocation.
+     */
+    protected final ByteArrayOutputStream output = new ByteArrayOutputStream(1024 * 1024);
+
+    /**
+     * Parses the synthetic TDD, resolves its TDS and transforms it once.
+     *
+     * @throws Exception when the synthetic TDD can't be generated or transformed
+     */
+    @Setup
+    public void setup() throws Exception {
+        bytes = Documents.generate(copies);
+        tdd = new TDD(new ByteArrayInputStream(bytes));
+        composition = tdd.toCanonical();
+    }
+
+    /**
+     * Transforms the synthetic TDD into a composition.
+     *
+     * @return the composition
+     * @throws UnsupportedTypeException when the TDD has a type that isn't supported
+     */
+    @Benchmark
+    public Document toCanonical() throws UnsupportedTypeException {
+        return tdd.toCanonical();
+    }
+
+    /**
+     * Parses the synthetic TDD and transforms a clone of it into a composition.
+     *
+     * @return the composition
+     * @throws UnsupportedTypeException when the TDD has a type that isn't supported
+     */
+    @Benchmark
+    public Document parseAndTransform() throws UnsupportedTypeException {
+        return new TDD(new ByteArrayInputStream(bytes)).toCanonical();
+    }
+
+    /**
+     * Parses the synthetic TDD and transforms it into a composition in place.
+     *
+     * @return the composition
+     * @throws UnsupportedTypeException when the TDD has a type that isn't supported
+     */
+    @Benchmark
+    public Document parseAndTransformInPlace() throws UnsupportedTypeException {
+        return new TDD(new ByteArrayInputStream(bytes)).toCanonical(CanonicalOptions.IN_PLACE);
+    }
+
+    /**
+     * Serializes the composition into text.
+     *
+     * @return textual representation of the composition
+     */
+    @Benchmark
+    public String serialize() {
+        return XML.toString(composition);
+    }
+
+    /**
+     * Writes the composition into a buffer in compact mode.
+     *
+     * @return number of bytes written
+     * @throws IOException never, as the buffer is in memory
+     */
+    @Benchmark
+    public int serializeCompact() throws IOException {
+        output.reset();
+        XMLSerializer.write(composition, output);
+        return output.size();
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.coreconsulting.res.openehr.tdd2canonical.benchmark;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
+import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.LocatableTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks each {@link AbstractTransformer} in isolation. The input of each transformer is captured
+ * from the sample TDD right before the transformer is applied to the first element of its type, and every invocation
+ * copies it into a fresh document before transforming it, so {@link #copy()} is the baseline to subtract.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+
+    /**
+     * This class transforms a TDD as {@link TDD#toCanonical()} does, capturing the input of each transformer.
+     */
+    public static class CapturingTDD extends TDD {
+
+        /**
+         * Copies of the first element of each type, right before its transformer is applied, indexed by type.
+         */
+        protected final Map<String, Element> elements = new HashMap<>();
+        /**
+         * Descriptors of the captured elements, indexed by type.
+         */
+        protected final Map<String, TDSNode> nodes = new HashMap<>();
+
+        /**
+         * Creates a TDD from an {@link InputStream}.
+         *
+         * @param stream {@link InputStream} providing the XML document
+         */
+        public CapturingTDD(InputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        protected void transformNode(Node node, TDSNode tdsNode) throws UnsupportedTypeException {
+            if (tdsNode == null || tdsNode.isLocatable() == false)
+                return;
+            for (Element child : getChildElements(node))
+                transformNode(child, tdsNode.getChild(child.getNodeName()));
+
+            Element element = (Element) node;
+            capture(LocatableTransformer.type, element, tdsNode);
+            TransformerFactory.getTransformer("LOCATABLE").transformElement(this, element, tdsNode.getNodeId(),
+                    tdsNode.getType(), tdsNode);
+            if (tdsNode.getTransformer() != null) {
+                capture(tdsNode.getType(), element, tdsNode);
+                tdsNode.getTransformer().transformElement(this, element, tdsNode.getNodeId(), tdsNode.getType(),
+                        tdsNode);
+            }
+        }
+
+        /**
+         * Copies an element as the input of a type, unless one was captured already.
+         *
+         * @param type type of the transformer
+         * @param element element about to be transformed
+         * @param tdsNode descriptor of the element
+         */
+        protected void capture(String type, Element element, TDSNode tdsNode) {
+            if (elements.containsKey(type) == false) {
+                elements.put(type, (Element) element.cloneNode(true));
+                nodes.put(type, tdsNode);
+            }
+        }
+
+    }
+
+    /**
+     * Type handled by the transformer being benchmarked. INTERVAL_EVENT is left out as the sample TDD has none.
+     */
+    @Param({"ACTION", "ACTIVITY", "ADMIN_ENTRY", "CLUSTER", "COMPOSITION", "ELEMENT", "EVALUATION", "INSTRUCTION",
+            "ITEM_TREE", "LOCATABLE", "OBSERVATION", "POINT_EVENT", "SECTION"})
+    public String type;
+
+    /**
+     * TDD providing the context of the transformation.
+     */
+    protected TDD tdd;
+    /**
+     * Input of the transformer.
+     */
+    protected Element element;
+    /**
+     * Descriptor of the input.
+     */
+    protected TDSNode tdsNode;
+    /**
+     * Transformer being benchmarked.
+     */
+    protected AbstractTransformer transformer;
+    /**
+     * Builder of the documents holding the copies of the input.
+     */
+    protected DocumentBuilder builder;
+
+    /**
+     * Transforms the sample TDD, capturing the input of the transformer.
+     *
+     * @throws Exception when the sample TDD can't be transformed or has no element of the type
+     */
+    @Setup
+    public void setup() throws Exception {
+        CapturingTDD capturing = new CapturingTDD(new ByteArrayInputStream(Documents.generate(1)));
+        capturing.toCanonical();
+        element = capturing.elements.get(type);
+        tdsNode = capturing.nodes.get(type);
+        if (element == null)
+            throw new IllegalStateException("the sample TDD has no element of type " + type);
+        tdd = capturing;
+        transformer = TransformerFactory.getTransformer(type);
+        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    /**
+     * Copies the input into a fresh document, the baseline of {@link #transform()}.
+     *
+     * @return the copy
+     */
+    @Benchmark
+    public Element copy() {
+        Document document = builder.newDocument();
+        Element copy = (Element) document.importNode(element, true);
+        document.appendChild(copy);
+        return copy;
+    }
+
+    /**
+     * Copies the input into a fresh document and transforms it.
+     *
+     * @return the transformed copy
+     */
+    @Benchmark
+    public Element transform() {
+        Element copy = copy();
+        transformer.transformElement(tdd, copy, tdsNode.getNodeId(), tdsNode.getType(), tdsNode);
+        return copy;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import lombok.Getter;
+
+/**
+ * This class implements an immutable, parsed openEHR archetype identifier, as found in the @archetype_node_id of the
+ * archetype roots of a TDS (e.g. "openEHR-EHR-OBSERVATION.blood_pressure.v2"), which has the form
+ * {@code publisher-package-class.concept.version}:
+ * <ul>
+ *     <li>the Reference Model publisher (e.g. "openEHR");</li>
+ *     <li>the Reference Model package (e.g. "EHR");</li>
+ *     <li>the Reference Model class (e.g. "OBSERVATION"), which is the type of the archetype root;</li>
+ *     <li>the concept, including any specialisation (e.g. "blood_pressure", "procedure-HAOC");</li>
+ *     <li>the version, without the leading "v" (e.g. "2", "02"), which may be absent.</li>
+ * </ul>
+ * Identifiers are parsed once per {@link TDSNode}, when compiled or read from the cache, without regular expressions.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Getter
+public class ArchetypeId {
+
+    /**
+     * Reference Model publisher, e.g. "openEHR".
+     */
+    protected final String rmPublisher;
+    /**
+     * Reference Model package, e.g. "EHR".
+     */
+    protected final String rmPackage;
+    /**
+     * Reference Model class, e.g. "OBSERVATION".
+     */
+    protected final String rmClass;
+    /**
+     * Concept, including any specialisation, e.g. "blood_pressure".
+     */
+    protected final String concept;
+    /**
+     * Version without the leading "v", e.g. "2", or null if absent.
+     */
+    protected final String version;
+    /**
+     * The identifier as parsed.
+     */
+    protected final String value;
+
+    /**
+     * Creates an archetype identifier from its parts.
+     *
+     * @param rmPublisher Reference Model publisher
+     * @param rmPackage Reference Model package
+     * @param rmClass Reference Model class
+     * @param concept concept, including any specialisation
+     * @param version version without the leading "v", or null if absent
+     * @param value the identifier as parsed
+     */
+    public ArchetypeId(String rmPublisher, String rmPackage, String rmClass, String concept, String version,
+                       String value) {
+        this.rmPublisher = rmPublisher;
+        this.rmPackage = rmPackage;
+        this.rmClass = rmClass;
+        this.concept = concept;
+        this.version = version;
+        this.value = value;
+    }
+
+    /**
+     * Parses an archetype identifier.
+     *
+     * @param value the identifier to be parsed, e.g. an @archetype_node_id
+     * @return the parsed identifier, or null if the value isn't an archetype identifier (e.g. "at0001")
+     */
+    public static ArchetypeId parse(String value) {
+        if (value == null)
+            return null;
+        int conceptStart = value.indexOf('.');
+        if (conceptStart < 0)
+            return null;
+        int packageStart = value.indexOf('-') + 1;
+        if (packageStart <= 1 || packageStart > conceptStart)
+            return null;
+        int classStart = value.indexOf('-', packageStart) + 1;
+        if (classStart <= packageStart + 1 || classStart >= conceptStart)
+            return null;
+        int versionStart = value.indexOf('.', conceptStart + 1);
+        if (versionStart == conceptStart + 1 || conceptStart + 1 == value.length())
+            return null;
+        String concept = versionStart < 0 ? value.substring(conceptStart + 1) :
+                value.substring(conceptStart + 1, versionStart);
+        String version = null;
+        if (versionStart >= 0 && value.startsWith("v", versionStart + 1))
+            version = value.substring(versionStart + 2);
+        return new ArchetypeId(value.substring(0, packageStart - 1), value.substring(packageStart, classStart - 1),
+                value.substring(classStart, conceptStart), concept, version, value);
+    }
+
+    /**
+     * Returns the identifier as parsed.
+     *
+     * @return the identifier as parsed
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * This class holds the options of the transformation of a TDD into a composition (see
+ * {@link TDD#toCanonical(CanonicalOptions)}), built through {@link #builder()}:
+ * <ul>
+ *     <li>{@code inPlace}: transforms the document parsed into the TDD itself, instead of a deep clone of it. It
+ *     saves a copy of the whole document per transformation, for callers that never look at the TDD again (e.g.
+ *     ingestion), but leaves the TDD holding the composition, so it can only be transformed once.</li>
+ * </ul>
+ * Instances are immutable, so they can be shared across threads.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Getter
+public class CanonicalOptions {
+
+    /**
+     * Default options, transforming a clone of the TDD.
+     */
+    public static final CanonicalOptions DEFAULT = CanonicalOptions.builder().build();
+    /**
+     * Options transforming the TDD in place.
+     */
+    public static final CanonicalOptions IN_PLACE = CanonicalOptions.builder().inPlace(true).build();
+
+    /**
+     * Whether the TDD document is transformed in place, rather than cloned.
+     */
+    protected final boolean inPlace;
+
+    /**
+     * Creates the options. Every parameter is optional.
+     *
+     * @param inPlace whether to transform the TDD document in place, rather than a clone of it, false by default
+     */
+    @Builder
+    public CanonicalOptions(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
+}
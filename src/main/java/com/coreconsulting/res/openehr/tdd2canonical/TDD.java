@@ -1,21 +1,25 @@
 package com.coreconsulting.res.openehr.tdd2canonical;
 
 import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.Metrics;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer;
 import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
 import com.coreconsulting.res.openehr.tdd2canonical.util.RegEx;
 import com.coreconsulting.res.openehr.tdd2canonical.util.XML;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLProvider;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
+import java.io.InputStream;
 import java.net.URI;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 
 
 /**
@@ -51,6 +55,12 @@ public class TDD extends XML {
      * {@literal @xsi:schemaLocation} relating {@link #OPENEHR_NS} to {@link #OPENEHR_NS_LOCATION}.
      */
     public static final String OPENEHR_XSI_LOCATION = OPENEHR_NS + " " + OPENEHR_NS_LOCATION;
+    /**
+     * {@literal @xsi:schemaLocation} of a TDD, capturing the TDS location mapped to Ocean's Template Designer default
+     * namespace (http://schemas.oceanehr.com/templates). Compiled once.
+     */
+    protected static final Pattern TDS_LOCATION =
+            Pattern.compile("http:\\/\\/schemas\\.oceanehr\\.com\\/templates ([^\\s]*)");
 
     /**
      * TDS which this TDD complies to. Parsed from the @template_id through local cache or a remote URI.
@@ -60,6 +70,15 @@ public class TDD extends XML {
      * {@literal @template_id} attribute. Parsed from the TDD.
      */
     protected String templateId;
+    /**
+     * Number of LOCATABLE elements visited by the transformation in progress, reported to {@link Metrics}.
+     */
+    protected int visited;
+    /**
+     * Whether the TDD document was transformed in place (see {@link CanonicalOptions#isInPlace()}), and so holds a
+     * composition rather than the TDD.
+     */
+    protected boolean transformedInPlace;
 
     /**
      * Default constructor, not used but kept for serialization purposes.
@@ -87,6 +106,27 @@ public class TDD extends XML {
         log.trace("TDD({})", () -> string);
     }
 
+    /**
+     * Creates a TDD from an {@link InputStream}, expected to provide the XML document. The stream is not closed.
+     *
+     * @param stream {@link InputStream} providing the XML document
+     */
+    public TDD(InputStream stream) {
+        super(stream);
+        log.trace("TDD({})", () -> "...");
+    }
+
+    /**
+     * Creates a TDD from the remaining bytes of a {@link ByteBuffer}, expected to hold the encoded XML document (e.g. a
+     * memory-mapped file or a message payload), without copying it (see {@link XML#XML(ByteBuffer)}).
+     *
+     * @param buffer {@link ByteBuffer} holding the XML document
+     */
+    public TDD(ByteBuffer buffer) {
+        super(buffer);
+        log.trace("TDD({})", () -> buffer);
+    }
+
     /**
      * Creates a TDD from a {@link URI}, expected to be a reachable remote instance of the XML document.
      *
@@ -150,7 +190,20 @@ public class TDD extends XML {
         log.trace("getTDSLocation({})", () -> "");
         String schemaLocation = getXPathAsString("/*[1]/@schemaLocation");
         log.debug("parsed schemaLocation={}", () -> schemaLocation);
-        String tdsLocation = RegEx.getFirstMatch(schemaLocation, "http:\\/\\/schemas\\.oceanehr\\.com\\/templates ([^\\s]*)");
+        return parseTDSLocation(schemaLocation);
+    }
+
+    /**
+     * Parses the TDS schema location from a @xsi:schemaLocation value by matching the entry of Ocean's Template
+     * Designer default namespace (http://schemas.oceanehr.com/templates).
+     *
+     * @param schemaLocation {@literal @xsi:schemaLocation} value, or null if the TDD has none
+     * @return TDS schema location, or null if there is none
+     */
+    public static String parseTDSLocation(String schemaLocation) {
+        if (schemaLocation == null)
+            return null;
+        String tdsLocation = RegEx.getFirstMatch(schemaLocation, TDS_LOCATION);
         log.debug("parsed TDS location={}", () -> tdsLocation);
         return tdsLocation;
     }
@@ -191,6 +244,25 @@ public class TDD extends XML {
         return tds;
     }
 
+    /**
+     * Resolves the TDS which this TDD complies to without blocking the calling thread, the same way as
+     * {@link #getTDS()}: the local cache is looked up first (see {@link TDSRegistry#fromTemplateIdAsync(String,
+     * Executor)}), then the {@literal @xsi:schemaLocation} is retrieved, both on an {@link Executor}. Once resolved,
+     * it is stored as a field, so {@link #getTDS()} and {@link #toCanonical()} no longer block on it.
+     *
+     * @param executor {@link Executor} to load or retrieve the TDS on, if it isn't in memory
+     * @return future of the TDS which this TDD complies to, completed with null if it is unavailable
+     */
+    public CompletableFuture<TDS> getTDSAsync(Executor executor) {
+        log.trace("getTDSAsync({})", () -> "");
+        if (tds != null)
+            return CompletableFuture.completedFuture(tds);
+        return TDSRegistry.fromTemplateIdAsync(getTemplateId(), executor)
+                .thenCompose(cached -> cached != null ? CompletableFuture.completedFuture(cached) :
+                        CompletableFuture.supplyAsync(() -> TDSRegistry.fromTDSLocation(getTDSLocation()), executor))
+                .thenApply(resolved -> tds = resolved);
+    }
+
     /**
      * Generic node transformation method that inserts a name as the first child of a specific element. Used for
      * cases in which the TDD and TDS don't specify a name but the openEHR Reference Model requires one.
@@ -231,74 +303,102 @@ public class TDD extends XML {
      *
      * @return openEHR Reference Model composition generated from the TDD
      * @throws UnsupportedTypeException when transforming a TDD with a type that isn't supported
+     * @throws IllegalStateException when no TDS is available for the TDD
      */
     public Document toCanonical() throws UnsupportedTypeException {
-        log.trace("toCanonical({})", () -> "");
-        DocumentBuilder builder;
-        try {
-            builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        return toCanonical(CanonicalOptions.DEFAULT);
+    }
 
+    /**
+     * Transforms the TDD document into a openEHR Reference Model composition, parsing the document from the root
+     * element. By default, a clone of the TDD document is transformed, so the TDD is kept intact. When transformed in
+     * place (see {@link CanonicalOptions#isInPlace()}), the TDD document itself becomes the composition, so the TDD
+     * can't be transformed again, and anything outside the root element (e.g. comments) is kept.
+     *
+     * @param options options of the transformation
+     * @return openEHR Reference Model composition generated from the TDD
+     * @throws UnsupportedTypeException when transforming a TDD with a type that isn't supported
+     * @throws IllegalStateException when the TDD was already transformed in place or no TDS is available for it
+     */
+    public Document toCanonical(CanonicalOptions options) throws UnsupportedTypeException {
+        log.trace("toCanonical({})", () -> options.isInPlace());
+        if (transformedInPlace)
+            throw new IllegalStateException("the TDD was already transformed in place");
+        if (getTDS() == null)
+            throw new IllegalStateException("no TDS available for @template_id=" + getTemplateId());
+        Document rm;
+        Node root;
+        if (options.isInPlace()) {
+            // Resolve everything read from the TDD root before it is transformed
+            getNamespacePrefix();
+            getTDS();
+            rm = xml;
+            root = rm.getDocumentElement();
+            transformedInPlace = true;
+            log.debug("{}", () -> "transforming the TDD object in place");
+        } else {
             // Clone the TDD document se we keep the original one intact
-            Document rm = builder.newDocument();
-            Node root = rm.importNode(xml.getDocumentElement(), true);
+            rm = XMLProvider.getBuilder().newDocument();
+            root = rm.importNode(xml.getDocumentElement(), true);
             rm.appendChild(root);
             log.debug("{}", () -> "cloned the TDD object into a RM object");
+        }
 
-            // Transform the clone starting from the root node
-            transformNode(root, new StringBuilder("/schema[1]/element[1]"));
-            log.debug("{}", () -> "transformed the TDD into a COMPOSITION");
+        // Transform the composition starting from the root node
+        TDSNode rootNode = getTDS().getRootNode();
+        long start = System.nanoTime();
+        visited = 0;
+        transformNode(root, rootNode);
+        if (Metrics.isEnabled())
+            Metrics.getListener().converted(getTemplateId(), visited, System.nanoTime() - start);
+        log.debug("{}", () -> "transformed the TDD into a COMPOSITION");
 
-            return rm;
-        } catch (ParserConfigurationException e) {
-            log.error("error creating the DOM builder", e);
-            return null;
-        }
+        return rm;
     }
 
     /**
      * Transforms a node from the TDD into the standardized representation from the openEHR Reference Model.
      * The algorithm is a postorder tree traversal, so it recursively traverses all descendants and then applies any
-     * transformations. The XPath expression to look up the definition of the TDD element in the related TDS is also
-     * built recursively through node introspection.
+     * transformations. The definition of the TDD element in the related TDS is tracked by descending the compiled
+     * {@link TDSNode} descriptors in lockstep with the DOM.
      *
      * @param node current node being traversed
-     * @param xsdXPath XPath expression that matches the current node in the associated TDS
+     * @param tdsNode descriptor of the definition of the current node in the associated TDS
      * @throws UnsupportedTypeException when trying to transform a node of a type with no transformation available
      * (see {@link TransformerFactory})
      */
-    protected void transformNode(Node node, StringBuilder xsdXPath) throws UnsupportedTypeException {
-        log.trace("transformNode({}, {})", () -> node.getNodeName(), () -> xsdXPath);
-        // Look up the @archetype_node_id in the TDS, as it is optional in the TDD
-        String nodeId = getTDS().getCachedXPathAsString(xsdXPath + "/complexType[1]/attribute[@name='archetype_node_id'][1" +
-                "]/@fixed");
+    protected void transformNode(Node node, TDSNode tdsNode) throws UnsupportedTypeException {
+        log.trace("transformNode({}, {})", () -> node.getNodeName(), () -> tdsNode == null ? null : tdsNode.getName());
         // If we reach something that is not LOCATABLE, we don't need to descend from this node
-        if (nodeId == null)
+        if (tdsNode == null || tdsNode.isLocatable() == false)
             return;
+        String nodeId = tdsNode.getNodeId();
+        visited++;
 
         // Postorder tree traversal
-        List<Element> children = getChildElements(node);
-        for (Element child : children) {
-            // Create copies of the XDS Xpath so siblings don't interfere with each other
-            transformNode(child,
-                    new StringBuilder("(").append(xsdXPath).append("//element[@name='").append(child.getNodeName()).append("'])[1]"));
+        for (Element child = getFirstChildElement(node); child != null; ) {
+            // Look up the next sibling first, as the child is transformed (and may be renamed)
+            Element next = getNextElementSibling(child);
+            transformNode(child, tdsNode.getChild(child.getNodeName()));
+            child = next;
         }
 
-        // Look up the @type (from archetype root or attribute type) to find out which transformations are required
-        String type = RegEx.getFirstMatch(nodeId, "openEHR\\-\\w+\\-([^\\.]+).*");
-        if (type == null)
-            type = getTDS().getCachedXPathAsString(xsdXPath + "/complexType[1]/attribute[@name='type'][1]/@fixed");
-
-        String _type = type;
+        // The @type (from archetype root or attribute type) was resolved when compiling the TDS
+        String type = tdsNode.getType();
         log.debug("transforming node={} [@nodeId={}, @type={}]", () -> node.getNodeName(), () -> nodeId,
-                () -> _type);
-
-        // Apply the general LOCATABLE transformation that applies to any element at this point
-        Element element = (Element) node;
-        TransformerFactory.getTransformer("LOCATABLE").transformElement(this, element, nodeId, type, xsdXPath);
+                () -> type);
 
-        // Apply specific additional transformations according to the type
-        if (type != null) {
-            TransformerFactory.getTransformer(type).transformElement(this, element, nodeId, type, xsdXPath);
+        // Apply the general LOCATABLE transformation followed by the one specific to the type, resolved when compiling
+        AbstractTransformer dispatch = tdsNode.getDispatch();
+        // Unsupported types are left unresolved, so the current policy applies (failing or passing them through)
+        if (dispatch == null)
+            dispatch = TransformerFactory.getUnsupportedDispatch(type);
+        if (Metrics.isEnabled()) {
+            long start = System.nanoTime();
+            dispatch.transformElement(this, (Element) node, nodeId, type, tdsNode);
+            Metrics.getListener().transformed(dispatch.getType(), System.nanoTime() - start);
+        } else {
+            dispatch.transformElement(this, (Element) node, nodeId, type, tdsNode);
         }
     }
 
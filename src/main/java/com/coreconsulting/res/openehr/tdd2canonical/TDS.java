@@ -1,35 +1,102 @@
 package com.coreconsulting.res.openehr.tdd2canonical;
 
-import com.coreconsulting.res.openehr.tdd2canonical.util.Serializer;
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.Metrics;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
 import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
 import com.coreconsulting.res.openehr.tdd2canonical.util.XML;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLProvider;
 import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.net.URI;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class implements functionality related to TDS handling, such as deserializing it from a XML instance, preloading
- * the XPath expressions relevant to {@link TDD} transformation and resolving the @template_id.
+ * This class implements functionality related to TDS handling, such as deserializing it from a XML instance, compiling
+ * the element definitions relevant to {@link TDD} transformation and resolving the @template_id.
+ * Once compiled (see {@link #loadNodeCache()}), or when read from the cache, a TDS holds its XML document only through
+ * a {@link SoftReference}, so the garbage collector can reclaim it under memory pressure. The document is parsed
+ * again from the {@link #source} whenever it is needed after that (i.e. for the first lookup of a XPath expression
+ * missing from the {@link #nodeCache}), which is counted along with the misses (see {@link #getFallbackCount()} and
+ * {@link #getReloadCount()}).
+ * A TDS read from a file records the SHA-256 of its content and its modification time, so a compiled instance can tell
+ * whether the file changed since (see {@link #isStale()}). Its replacement can then be compiled reusing the
+ * descriptors of every element definition that didn't change (see {@link #compile(TDS)}).
  *
  * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
  */
 @Log4j2
-public class TDS extends XML implements Serializable {
+public class TDS extends XML {
 
     /**
-     * Cache of relevant XPath expressions preloaded in this TDS
+     * Cache of the XPath expressions looked up in this TDS (see {@link #getCachedXPathAsString(String)}), filled as
+     * they are first evaluated
      */
-    protected Map<String, String> nodeCache = new HashMap<>();
+    protected Map<String, String> nodeCache = Collections.synchronizedMap(new HashMap<>());
     /**
      * {@literal @template_id} attribute. Parsed from the TDS.
      */
     protected String templateId;
+    /**
+     * Location (file path or URI) the TDS was read from, or null if it was read from a {@link String}.
+     */
+    protected String source;
+    /**
+     * Root of the element definition descriptors compiled from this TDS, either compiled on demand (see
+     * {@link #getRootNode()}) or read from the cache (see {@link TDSCache}).
+     */
+    protected volatile TDSNode rootNode;
+    /**
+     * Number of element definitions compiled into {@link #rootNode}.
+     */
+    protected int nodeCount;
+    /**
+     * XML document released by {@link #releaseXml()} or parsed again by {@link #getXml()}, which may be reclaimed by
+     * the garbage collector.
+     */
+    protected volatile SoftReference<Document> softXml;
+    /**
+     * Hex-encoded SHA-256 of the {@link #source} file content, or null if the TDS wasn't read from a file.
+     */
+    protected String sourceHash;
+    /**
+     * Modification time of the {@link #source} file when {@link #sourceHash} was computed (or last confirmed).
+     */
+    protected volatile long sourceModified;
+    /**
+     * Number of lookups that missed the {@link #nodeCache} and were evaluated through XPath, across every TDS instance.
+     */
+    protected static final AtomicLong fallbacks = new AtomicLong();
+    /**
+     * Number of times a released XML document was parsed again, across every TDS instance.
+     */
+    protected static final AtomicLong reloads = new AtomicLong();
+    /**
+     * FNV-1a 64-bit offset basis, used to hash element definition subtrees.
+     */
+    protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /**
+     * FNV-1a 64-bit prime, used to hash element definition subtrees.
+     */
+    protected static final long FNV_PRIME = 0x100000001b3L;
 
     /**
      * Default constructor. Not used, but kept for serialization purposes.
@@ -38,6 +105,42 @@ public class TDS extends XML implements Serializable {
         super();
     }
 
+    /**
+     * Creates a TDS from descriptors previously compiled and read from the cache (see {@link TDSCache}), without the
+     * XML document.
+     *
+     * @param templateId {@literal @template_id} of the TDS
+     * @param source location the TDS was originally read from
+     * @param rootNode descriptor of the root element definition
+     * @param nodeCount number of element definitions compiled
+     */
+    public TDS(String templateId, String source, TDSNode rootNode, int nodeCount) {
+        this(templateId, source, null, 0, rootNode, nodeCount);
+    }
+
+    /**
+     * Creates a TDS from descriptors previously compiled and read from the cache (see {@link TDSCache}), without the
+     * XML document, along with the state of its source file when compiled.
+     *
+     * @param templateId {@literal @template_id} of the TDS
+     * @param source location the TDS was originally read from
+     * @param sourceHash hex-encoded SHA-256 of the source file content, or null if unknown
+     * @param sourceModified modification time of the source file
+     * @param rootNode descriptor of the root element definition
+     * @param nodeCount number of element definitions compiled
+     */
+    public TDS(String templateId, String source, String sourceHash, long sourceModified, TDSNode rootNode,
+               int nodeCount) {
+        super();
+        log.trace("TDS({}, {})", () -> templateId, () -> source);
+        this.templateId = templateId;
+        this.source = source;
+        this.sourceHash = sourceHash;
+        this.sourceModified = sourceModified;
+        this.rootNode = rootNode;
+        this.nodeCount = nodeCount;
+    }
+
     /**
      * Creates a TDS from a {@link File} object, expected to be a XML document available on the local filesystem.
      *
@@ -46,6 +149,11 @@ public class TDS extends XML implements Serializable {
     public TDS(File file) {
         super(file);
         log.trace("TDS({})", () -> file.getAbsolutePath());
+        source = file.getPath();
+        if (xml != null) {
+            sourceModified = file.lastModified();
+            sourceHash = digest(file);
+        }
     }
 
     /**
@@ -67,102 +175,499 @@ public class TDS extends XML implements Serializable {
     public TDS(URI uri) {
         super(uri);
         log.trace("TDS({})", () -> uri);
+        source = uri.toString();
     }
 
     /**
-     * Preloads all relevant XPath expressions from the TDS into {@link #nodeCache}, which acts as an in-memory
-     * cache, greatly optimizing node introspection/lookup during {@link TDD} transformation.
+     * Compiles the element definition descriptors (see {@link #getRootNode()}), writing them into the cache (see
+     * {@link TDSCache}) so other instances of the application can load them without parsing the TDS. The transformation
+     * descends the descriptors, so no XPath expression is evaluated (see {@link #getCachedXPathAsString(String)}).
      */
     public void loadNodeCache() {
         log.trace("loadNodeCache({})", () -> "");
-        // Preload the paths starting from the root node
-        Element composition = (Element) getXPathAsNodeList("/schema[1]/element[1]").item(0);
-        loadElementPaths(composition, new StringBuilder("/schema[1]/element[1]"), new StringBuilder("/schema[1]/element[1]"));
+        getRootNode();
+        writeCache();
+        releaseXml();
+    }
+
+    /**
+     * Compiles the element definition descriptors reusing the unchanged ones from a previous version of the same
+     * template (see {@link #compile(TDS)}), and writes them into the cache (see {@link TDSCache}).
+     *
+     * @param previous previous version of the TDS, or null to compile every element definition
+     */
+    public void loadNodeCache(TDS previous) {
+        log.trace("loadNodeCache({})", () -> previous == null ? null : previous.getTemplateId());
+        compile(previous);
+        writeCache();
+        releaseXml();
+    }
+
+    /**
+     * Writes the compiled descriptors into the cache, so other instances of the application (or this one, after
+     * restarting) don't have to compile them again.
+     */
+    protected void writeCache() {
         try {
-            // Serialize the node cache into disk so we don't have to preload it again after GC/restarting
             File cache = new File(Properties.getProperty(Properties.CACHE_FOLDER) + "/" + getTemplateId());
-            FileOutputStream stream = new FileOutputStream(cache);
-            Serializer.write(stream, this);
+            TDSCache.write(this, cache);
             log.info("loaded TDS with @template_id={} into cache", () -> getTemplateId());
-        } catch (FileNotFoundException e) {
+        } catch (IOException | RuntimeException e) {
+            // The cache is best-effort, so the compiled descriptors are still served from memory
             log.error("failed to write TDS into cache", e);
         }
+    }
 
+    /**
+     * Returns whether the {@link #source} file changed since this TDS was compiled. The modification time is checked
+     * first, and the content hash only when it differs, so touching the file without changing it doesn't make the TDS
+     * stale. TDS instances not read from a file (or whose file is gone) are never stale.
+     *
+     * @return true if the source file content changed, false otherwise
+     */
+    public boolean isStale() {
+        log.trace("isStale({})", () -> templateId);
+        if (sourceHash == null)
+            return false;
+        File file = new File(source);
+        if (file.isFile() == false)
+            return false;
+        long modified = file.lastModified();
+        if (modified == sourceModified)
+            return false;
+        String hash = digest(file);
+        if (hash == null || hash.equals(sourceHash)) {
+            sourceModified = modified;
+            return false;
+        }
+        log.info("TDS with @template_id={} changed in {}", () -> templateId, () -> source);
+        return true;
     }
 
     /**
-     * Load relevant XPath expressions from an element into {@link #nodeCache}, which acts as an in-memory cache,
-     * greatly optimizing node introspection/lookup during {@link TDD} transformation.
-     * The algorithm is a postorder tree traversal, so it recursively traverses all descendants using the same path
-     * building scheme as the TDD transformation (see {@link TDD#transformNode(Node, StringBuilder)}, so it loads any
-     * relevant attributes (@archetype_node_id, @type, @valueType) for every element that can be transformed.
-     *
-     * @param element current element being traversed
-     * @param nodeXPath generic XPath for the current node in the TDS
-     * @param xsdXPath XPath for the current node used during TDD transformation to look up a definition in the TDS
-     */
-    public void loadElementPaths(Element element, StringBuilder nodeXPath, StringBuilder xsdXPath) {
-        log.trace("loadElementPaths({}, {}, {}, {})", () -> getTemplateId(), () -> element.getNodeName() +
-                "[@name='" + element.getAttribute("name") + "']", () -> nodeXPath, () -> xsdXPath);
-
-        // Postorder tree traversal
-        List<Element> children = getChildElements(element);
-        for (int i = 0; i < children.size(); i++) {
-            Element child = children.get(i);
-            // Due to the TDS being more complex, we maintain a dedicated/more generic recursive path tracking
-            StringBuilder childNodeXPath = new StringBuilder(nodeXPath).append("/*[" + (i + 1) + "]");
-            StringBuilder childXsdXPath;
-            if (child.getNodeName().equals("xs:element") == true) {
-                // If we reach an element definition, we append it to the path to be used during TDD transformation
-                childXsdXPath =
-                        new StringBuilder("(").append(xsdXPath).append("//element[@name='").append(child.getAttribute(
-                                "name")).append("'])[1]");
-            } else {
-                // Otherwise, non-element nodes in the TDS don't affect the path
-                childXsdXPath = new StringBuilder(xsdXPath);
-            }
-            loadElementPaths(child, childNodeXPath, childXsdXPath);
+     * Computes the hex-encoded SHA-256 of a file content.
+     *
+     * @param file file to be hashed
+     * @return hex-encoded SHA-256 of the file content, or null if it can't be read
+     */
+    protected static String digest(File file) {
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath())));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn("failed to hash " + file.getPath(), e);
+            return null;
         }
+    }
 
-        // Non-element nodes are not LOCATABLE, so no need to cache
-        if (element.getNodeName().equals("xs:element") == false)
+    /**
+     * Encodes a hash into hexadecimal, as in {@link #getSourceHash()}.
+     *
+     * @param hash hash to be encoded
+     * @return hex-encoded hash
+     */
+    protected static String hex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    /**
+     * Releases the XML document into a {@link SoftReference}, as everything the transformation needs is compiled.
+     * Documents that can't be parsed again (i.e. read from a {@link String}) are kept.
+     */
+    public void releaseXml() {
+        log.trace("releaseXml({})", () -> getTemplateId());
+        if (source == null || xml == null)
             return;
+        softXml = new SoftReference<>(xml);
+        xml = null;
+    }
 
-        log.debug("loading TDS element with @name={} into cache", () -> element.getAttribute("name"));
-        // Cache @archetype_node_id
-        String nodeIdKey = xsdXPath + "/complexType[1]/attribute[@name='archetype_node_id'][1]/@fixed";
-        String nodeId = getXPathAsString(nodeIdKey);
-        nodeCache.put(nodeIdKey, nodeId);
-        log.trace("cached key={}, value={}", () -> nodeIdKey, () -> nodeId);
-        // Cache @type
-        String typeKey = xsdXPath + "/complexType[1]/attribute[@name='type'][1]/@fixed";
-        String type = getXPathAsString(typeKey);
-        nodeCache.put(typeKey, type);
-        log.trace("cached key={}, value={}", () -> typeKey, () -> type);
-        // Cache @valueType
-        String valueTypeKey = xsdXPath + "/complexType[1]/attribute[@name='valueType'][1]/@fixed";
-        String valueType = getXPathAsString(valueTypeKey);
-        nodeCache.put(valueTypeKey, valueType);
-        log.trace("cached key={}, value={}", () -> valueTypeKey, () -> valueType);
+    /**
+     * Returns the XML document of the TDS, parsing it again from the {@link #source} if it was released and reclaimed
+     * by the garbage collector (or never parsed, when read from the cache).
+     *
+     * @return the XML document, or null if it can't be parsed
+     */
+    @Override
+    public Document getXml() {
+        Document document = xml;
+        if (document != null)
+            return document;
+        SoftReference<Document> reference = softXml;
+        document = reference == null ? null : reference.get();
+        return document != null ? document : reloadXml();
     }
 
     /**
-     * Runs a XPath expression on the TDS. Attempts to get the result from the {@link #nodeCache}, in which it should
-     * be preloaded, but evaluates it with a performance warning otherwise.
+     * Parses the XML document again from the {@link #source}, keeping it through a {@link SoftReference}.
+     * Synchronized so concurrent callers parse it once.
+     *
+     * @return the XML document, or null if it can't be parsed
+     */
+    protected synchronized Document reloadXml() {
+        SoftReference<Document> reference = softXml;
+        Document document = reference == null ? null : reference.get();
+        // Only documents released (or never parsed, when read from the cache) are parsed again, not failed ones
+        if (document != null || source == null || (reference == null && rootNode == null))
+            return document;
+        log.info("parsing TDS with @template_id={} again from {}", () -> templateId, () -> source);
+        reloads.incrementAndGet();
+        try {
+            File file = new File(source);
+            document = file.isFile() ? XMLProvider.getBuilder().parse(file) : XMLProvider.getBuilder().parse(source);
+            softXml = new SoftReference<>(document);
+            return document;
+        } catch (Exception e) {
+            log.error("error parsing the TDS again from " + source, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that missed the {@link #nodeCache} and fell back to XPath, across every TDS
+     * instance.
+     *
+     * @return number of fallback lookups
+     */
+    public static long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    /**
+     * Returns the number of times a released XML document was parsed again, across every TDS instance.
+     *
+     * @return number of XML documents parsed again
+     */
+    public static long getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * Runs a XPath expression on the TDS. Attempts to get the result from the {@link #nodeCache}, and evaluates it
+     * with a performance warning otherwise, keeping the result in the {@link #nodeCache} so only the first lookup of
+     * each expression is counted as a fallback (see {@link #getFallbackCount()}).
      *
      * @param xpath XPath expression to be evaluated
      * @return the result of the XPath evaluation, either from the {@link #nodeCache} or evaluted online
      */
     public String getCachedXPathAsString(String xpath) {
         log.trace("getCachedXpathAsString({})", () -> xpath);
-        if (nodeCache == null || nodeCache.containsKey(xpath) == false) {
-            log.warn("failed to lookup {} from the node cache, running XPath online with degraded performance");
-            return getXPathAsString(xpath);
+        if (nodeCache.containsKey(xpath) == false) {
+            fallbacks.incrementAndGet();
+            if (Metrics.isEnabled())
+                Metrics.getListener().fallback(templateId, xpath);
+            if (getXml() == null) {
+                log.warn("failed to lookup {} from the node cache and there is no XML document to run it", () -> xpath);
+                return null;
+            }
+            log.warn("failed to lookup {} from the node cache, running XPath online with degraded performance",
+                    () -> xpath);
+            String value = getXPathAsString(xpath);
+            nodeCache.put(xpath, value);
+            return value;
         }
         String value = nodeCache.get(xpath);
         return value;
     }
 
+    /**
+     * Returns the root of the element definition descriptors compiled from this TDS, compiling them once when first
+     * requested.
+     *
+     * @return descriptor of the root element definition (the COMPOSITION)
+     */
+    public TDSNode getRootNode() {
+        log.trace("getRootNode({})", () -> "");
+        if (rootNode == null) {
+            synchronized (this) {
+                if (rootNode == null)
+                    compileRootNode(Collections.emptyMap());
+            }
+        }
+        return rootNode;
+    }
+
+    /**
+     * Compiles the element definition descriptors from this TDS, reusing the descriptors of a previous version of the
+     * same template whenever an element definition subtree is identical to the one they were compiled from (matched
+     * by a 64-bit hash of the subtree, see {@link TDSNode#getHash()}). Only the definitions that changed, and their
+     * ancestors, are compiled again, and the previous version is left untouched, so it can keep serving until this
+     * one replaces it. Does nothing if the descriptors are already compiled.
+     *
+     * @param previous previous version of the TDS, or null to compile every element definition
+     * @return descriptor of the root element definition (the COMPOSITION)
+     */
+    public TDSNode compile(TDS previous) {
+        log.trace("compile({})", () -> previous == null ? null : previous.getTemplateId());
+        synchronized (this) {
+            if (rootNode == null) {
+                Map<Long, TDSNode> reusable = new HashMap<>();
+                if (previous != null)
+                    indexHashes(previous.getRootNode(), reusable);
+                compileRootNode(reusable);
+            }
+        }
+        return rootNode;
+    }
+
+    /**
+     * Compiles the element definition descriptors from this TDS into {@link #rootNode}, counting them into
+     * {@link #nodeCount}.
+     *
+     * @param reusable descriptors compiled from a previous version, indexed by subtree hash
+     */
+    protected void compileRootNode(Map<Long, TDSNode> reusable) {
+        Element composition = (Element) getXPathAsNodeList("/schema[1]/element[1]").item(0);
+        Map<Element, Long> hashes = new IdentityHashMap<>();
+        hashSubtree(composition, hashes);
+        Map<Element, TDSNode> compiled = new IdentityHashMap<>();
+        TDSNode root = compileNode(composition, compiled, hashes, reusable);
+        // Reused descriptors aren't in the compiled map, so count every descriptor reachable from the root
+        List<TDSNode> nodes = new ArrayList<>();
+        TDSCache.index(root, new IdentityHashMap<>(), nodes);
+        nodeCount = nodes.size();
+        rootNode = root;
+        log.info("compiled TDS with @template_id={} into {} node descriptors ({} reused)", () -> getTemplateId(),
+                () -> nodeCount, () -> nodeCount - compiled.size());
+    }
+
+    /**
+     * Indexes the descriptors reachable from a node by their subtree hash, skipping those with no hash.
+     *
+     * @param node descriptor being traversed
+     * @param index {@link Map} of subtree hashes to descriptors
+     */
+    protected static void indexHashes(TDSNode node, Map<Long, TDSNode> index) {
+        if (node.getHash() != 0 && index.putIfAbsent(node.getHash(), node) != null)
+            return;
+        for (TDSNode child : node.getChildren().values())
+            indexHashes(child, index);
+    }
+
+    /**
+     * Hashes a node subtree (element names, attributes, non-blank text and descendants, in document order) with
+     * FNV-1a, recording the hash of every element definition within it.
+     *
+     * @param node node which subtree is to be hashed
+     * @param hashes {@link Map} of element definitions to their subtree hashes
+     * @return hash of the subtree, never 0
+     */
+    protected static long hashSubtree(Node node, Map<Element, Long> hashes) {
+        long hash = hash(FNV_OFFSET, node.getNodeName());
+        if (node.hasAttributes()) {
+            for (int i = 0; i < node.getAttributes().getLength(); i++) {
+                Node attribute = node.getAttributes().item(i);
+                hash = hash(hash(hash, attribute.getNodeName()), attribute.getNodeValue());
+            }
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                hash = hash(hash, hashSubtree(child, hashes));
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                String text = child.getNodeValue().trim();
+                if (text.isEmpty() == false)
+                    hash = hash(hash, text);
+            }
+        }
+        if (hash == 0)
+            hash = 1;
+        if (getLocalName(node).equals("element"))
+            hashes.put((Element) node, hash);
+        return hash;
+    }
+
+    /**
+     * Mixes a string into a FNV-1a hash, followed by a separator so consecutive strings don't run into each other.
+     *
+     * @param hash hash so far
+     * @param string string to be mixed
+     * @return the resulting hash
+     */
+    protected static long hash(long hash, String string) {
+        for (int i = 0; i < string.length(); i++)
+            hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+        return (hash ^ 0xffff) * FNV_PRIME;
+    }
+
+    /**
+     * Mixes a long into a FNV-1a hash, byte by byte.
+     *
+     * @param hash hash so far
+     * @param value value to be mixed
+     * @return the resulting hash
+     */
+    protected static long hash(long hash, long value) {
+        for (int i = 0; i < Long.BYTES; i++)
+            hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * Returns the number of element definitions compiled from this TDS, used to weigh it in memory.
+     *
+     * @return number of compiled element definitions
+     */
+    public int getNodeCount() {
+        getRootNode();
+        return nodeCount;
+    }
+
+    /**
+     * Compiles an element definition into a {@link TDSNode}, reading the @archetype_node_id, @type and @valueType
+     * directly from the DOM and, for LOCATABLE definitions, recursively compiling the first definition of each @name
+     * among its descendants (the same definition matched by {@code (xsdXPath//element[@name='...'])[1]}).
+     *
+     * Definitions identical to one compiled in a previous version of the template reuse its descriptor instead. As the
+     * subtree hashes may collide, a descriptor is only reused if its @name, @archetype_node_id, @type, @valueType and
+     * the @name of its children match the definition too (see {@link #isReusable(TDSNode, String, String, String,
+     * String, Map)}).
+     *
+     * @param element element definition being compiled
+     * @param compiled descriptors already compiled, as a definition may be reachable from several ancestors
+     * @param hashes {@link Map} of element definitions to their subtree hashes
+     * @param reusable descriptors compiled from a previous version, indexed by subtree hash
+     * @return descriptor of the element definition
+     */
+    protected TDSNode compileNode(Element element, Map<Element, TDSNode> compiled, Map<Element, Long> hashes,
+                                  Map<Long, TDSNode> reusable) {
+        TDSNode node = compiled.get(element);
+        if (node != null)
+            return node;
+
+        String name = element.getAttribute("name");
+        String nodeId = getFixedAttribute(element, "archetype_node_id");
+        Map<String, Element> descendants = new LinkedHashMap<>();
+        String type = null;
+        String valueType = null;
+        if (nodeId != null) {
+            // Look up the type from the archetype root or from the attribute definition
+            ArchetypeId archetypeId = ArchetypeId.parse(nodeId);
+            if (archetypeId != null)
+                type = archetypeId.getRmClass();
+            else
+                type = getFixedAttribute(element, "type");
+            valueType = getFixedAttribute(element, "valueType");
+            indexDescendants(element, descendants);
+        }
+
+        long hash = hashes.getOrDefault(element, 0L);
+        node = reusable.get(hash);
+        if (node != null) {
+            if (isReusable(node, name, nodeId, type, valueType, descendants))
+                return node;
+            log.warn("subtree hash of TDS element with @name={} collides with a different definition, compiling it",
+                    () -> name);
+        }
+
+        AbstractTransformer transformer = type == null ? null : TransformerFactory.findTransformer(type);
+        Map<String, TDSNode> children = new HashMap<>();
+        for (Map.Entry<String, Element> descendant : descendants.entrySet())
+            children.put(descendant.getKey(), compileNode(descendant.getValue(), compiled, hashes, reusable));
+
+        String _type = type;
+        log.trace("compiled TDS element with @name={} [@nodeId={}, @type={}]", () -> name, () -> nodeId, () -> _type);
+        node = new TDSNode(name, nodeId, type, valueType, transformer, children, hash);
+        compiled.put(element, node);
+        return node;
+    }
+
+    /**
+     * Checks whether a descriptor compiled from a previous version, which subtree hash matches an element definition,
+     * describes that definition, comparing its @name, @archetype_node_id, @type, @valueType and children @name.
+     *
+     * @param node descriptor compiled from a previous version
+     * @param name {@literal @name} of the element definition
+     * @param nodeId {@literal @archetype_node_id} of the element definition
+     * @param type {@literal @type} of the element definition
+     * @param valueType {@literal @valueType} of the element definition
+     * @param descendants {@link Map} of @name to the element definitions compiled as children of the definition
+     * @return true if the descriptor can be reused for the element definition, false otherwise
+     */
+    protected static boolean isReusable(TDSNode node, String name, String nodeId, String type, String valueType,
+                                        Map<String, Element> descendants) {
+        return Objects.equals(node.getName(), name) && Objects.equals(node.getNodeId(), nodeId)
+                && Objects.equals(node.getType(), type) && Objects.equals(node.getValueType(), valueType)
+                && node.getChildren().keySet().equals(descendants.keySet());
+    }
+
+    /**
+     * Indexes the element definitions among the descendants of a node by @name, keeping only the first one in
+     * document order for each @name.
+     *
+     * @param node node which descendants are to be indexed
+     * @param index {@link Map} of @name to the first element definition with such name
+     */
+    protected void indexDescendants(Node node, Map<String, Element> index) {
+        for (Element child = getFirstChildElement(node); child != null; child = getNextElementSibling(child)) {
+            if (getLocalName(child).equals("element"))
+                index.putIfAbsent(child.getAttribute("name"), child);
+            indexDescendants(child, index);
+        }
+    }
+
+    /**
+     * Returns the @fixed value of an attribute definition of an element definition, equivalent to
+     * {@code complexType[1]/attribute[@name='...'][1]/@fixed}.
+     *
+     * @param element element definition
+     * @param name {@literal @name} of the attribute definition
+     * @return {@literal @fixed} value of the attribute definition, or null if absent
+     */
+    protected String getFixedAttribute(Element element, String name) {
+        for (Element complexType = getFirstChildElement(element); complexType != null;
+             complexType = getNextElementSibling(complexType)) {
+            if (getLocalName(complexType).equals("complexType") == false)
+                continue;
+            for (Element attribute = getFirstChildElement(complexType); attribute != null;
+                 attribute = getNextElementSibling(attribute)) {
+                if (getLocalName(attribute).equals("attribute") && attribute.getAttribute("name").equals(name))
+                    return attribute.hasAttribute("fixed") ? attribute.getAttribute("fixed") : null;
+            }
+            break;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of a node without its namespace prefix, as the TDS is parsed without namespace awareness.
+     *
+     * @param node node which name is to be returned
+     * @return name of the node without the namespace prefix
+     */
+    protected static String getLocalName(Node node) {
+        String nodeName = node.getNodeName();
+        return nodeName.substring(nodeName.indexOf(':') + 1);
+    }
+
+    /**
+     * Returns the location (file path or URI) the TDS was read from.
+     *
+     * @return location the TDS was read from, or null if it was read from a {@link String}
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 of the source file content, as of the compilation of this TDS.
+     *
+     * @return hash of the source file content, or null if the TDS wasn't read from a file
+     */
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
+    /**
+     * Returns the modification time of the source file, as of the compilation of this TDS (or its last check).
+     *
+     * @return modification time of the source file, or 0 if the TDS wasn't read from a file
+     */
+    public long getSourceModified() {
+        return sourceModified;
+    }
+
     /**
      * Parses the @template_id from the TDS attribute definition. Once parsed, it is stored as a field for future use.
      *
@@ -0,0 +1,278 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements the binary format used to cache compiled TDS instances on disk. Instead of the whole TDS
+ * (including the DOM of the XML Schema), it stores only the compiled {@link TDSNode} descriptors, so it can be loaded
+ * from a memory-mapped file without touching the XSD.
+ * The format is versioned and checksummed:
+ * <pre>
+ * header: magic (int, "TDSC"), version (short), reserved (short), CRC32 of the body (int), body length (int)
+ * body:   string count (int), strings (length-prefixed UTF-8, each one stored once and referenced by index),
+ *         {@literal @template_id} (string index), source location (string index), source SHA-256 (string index),
+ *         source modification time (long), node count (int), nodes (name, @archetype_node_id, type and @valueType
+ *         string indexes, subtree hash (long), child count, child @name string index and node index pairs),
+ *         root (node index)
+ * </pre>
+ * Nodes are written in postorder, so the descriptors reachable from a node are always decoded before it. A null
+ * string is represented by the index -1.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSCache {
+
+    /**
+     * Magic number identifying the format ("TDSC").
+     */
+    public static final int MAGIC = 0x54445343;
+    /**
+     * Version of the format, to be increased whenever it changes.
+     */
+    public static final short VERSION = 2;
+    /**
+     * Length of the header in bytes.
+     */
+    protected static final int HEADER_LENGTH = 16;
+
+    /**
+     * Writes a compiled TDS into a cache file. The file is written to a temporary sibling of its own and then moved,
+     * so concurrent readers never see it partially written.
+     *
+     * @param tds TDS to be written
+     * @param file cache file
+     * @throws IOException when the file can't be written
+     */
+    public static void write(TDS tds, File file) throws IOException {
+        log.trace("write({}, {})", () -> tds.getTemplateId(), () -> file.getPath());
+        TDSNode root = tds.getRootNode();
+
+        // Number the descriptors in postorder and intern the strings
+        List<TDSNode> nodes = new ArrayList<>();
+        index(root, new IdentityHashMap<>(), nodes);
+        Map<TDSNode, Integer> nodeIndex = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++)
+            nodeIndex.put(nodes.get(i), i);
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+        DataOutputStream nodeOutput = new DataOutputStream(nodeBytes);
+        nodeOutput.writeInt(intern(tds.getTemplateId(), stringIndex, strings));
+        nodeOutput.writeInt(intern(tds.getSource(), stringIndex, strings));
+        nodeOutput.writeInt(intern(tds.getSourceHash(), stringIndex, strings));
+        nodeOutput.writeLong(tds.getSourceModified());
+        nodeOutput.writeInt(nodes.size());
+        for (TDSNode node : nodes) {
+            nodeOutput.writeInt(intern(node.getName(), stringIndex, strings));
+            nodeOutput.writeInt(intern(node.getNodeId(), stringIndex, strings));
+            nodeOutput.writeInt(intern(node.getType(), stringIndex, strings));
+            nodeOutput.writeInt(intern(node.getValueType(), stringIndex, strings));
+            nodeOutput.writeLong(node.getHash());
+            nodeOutput.writeInt(node.getChildren().size());
+            for (Map.Entry<String, TDSNode> child : node.getChildren().entrySet()) {
+                nodeOutput.writeInt(intern(child.getKey(), stringIndex, strings));
+                nodeOutput.writeInt(nodeIndex.get(child.getValue()));
+            }
+        }
+        nodeOutput.writeInt(nodeIndex.get(root));
+        nodeOutput.flush();
+
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.writeInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            body.writeInt(bytes.length);
+            body.write(bytes);
+        }
+        nodeBytes.writeTo(body);
+        body.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes.toByteArray());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt((int) crc.getValue())
+                .putInt(bodyBytes.size());
+        header.flip();
+
+        Path target = toPath(file);
+        // Each writer gets its own temporary file, so concurrent writers of the same template don't mix their bytes
+        Path temporary = Files.createTempFile(target.toAbsolutePath().getParent(), "tds", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.write(header);
+                channel.write(ByteBuffer.wrap(bodyBytes.toByteArray()));
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        log.debug("wrote {} descriptors and {} strings into {}", () -> nodes.size(), () -> strings.size(),
+                () -> file.getPath());
+    }
+
+    /**
+     * Converts a cache file into a {@link Path}. Cache files are named after the @template_id, which may hold
+     * characters the platform can't encode in file names (e.g. accented letters under the POSIX locale), in which
+     * case the cache is unavailable rather than failing the conversion.
+     *
+     * @param file cache file
+     * @return path of the cache file
+     * @throws IOException when the file name can't be encoded on this platform
+     */
+    protected static Path toPath(File file) throws IOException {
+        try {
+            return file.toPath();
+        } catch (InvalidPathException e) {
+            throw new IOException("cache file name can't be encoded on this platform: " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Reads a compiled TDS from a cache file, mapping it into memory.
+     *
+     * @param file cache file
+     * @return TDS holding the compiled descriptors, or null if the file is not a valid cache of the current version
+     * @throws IOException when the file can't be read
+     */
+    public static TDS read(File file) throws IOException {
+        log.trace("read({})", () -> file.getPath());
+        try (FileChannel channel = FileChannel.open(toPath(file), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Reads a compiled TDS from a buffer holding a cache file.
+     *
+     * @param buffer buffer holding the cache file
+     * @return TDS holding the compiled descriptors, or null if the buffer is not a valid cache of the current version
+     */
+    public static TDS read(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+            log.warn("{}", () -> "cache file is not a compiled TDS");
+            return null;
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            log.warn("cache file version={} doesn't match the current version={}", () -> version, () -> VERSION);
+            return null;
+        }
+        buffer.getShort();
+        int checksum = buffer.getInt();
+        int length = buffer.getInt();
+        if (buffer.remaining() != length) {
+            log.warn("{}", () -> "cache file is truncated");
+            return null;
+        }
+        ByteBuffer body = buffer.slice();
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[length];
+        body.duplicate().get(bytes);
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) {
+            log.warn("{}", () -> "cache file checksum doesn't match");
+            return null;
+        }
+
+        String[] strings = new String[body.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] string = new byte[body.getInt()];
+            body.get(string);
+            strings[i] = new String(string, StandardCharsets.UTF_8);
+        }
+        String templateId = string(strings, body.getInt());
+        String source = string(strings, body.getInt());
+        String sourceHash = string(strings, body.getInt());
+        long sourceModified = body.getLong();
+        TDSNode[] nodes = new TDSNode[body.getInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            String name = string(strings, body.getInt());
+            String nodeId = string(strings, body.getInt());
+            String type = string(strings, body.getInt());
+            String valueType = string(strings, body.getInt());
+            long hash = body.getLong();
+            int childCount = body.getInt();
+            Map<String, TDSNode> children = new HashMap<>(childCount * 2);
+            for (int j = 0; j < childCount; j++)
+                children.put(strings[body.getInt()], nodes[body.getInt()]);
+            nodes[i] = new TDSNode(name, nodeId, type, valueType,
+                    type == null ? null : TransformerFactory.findTransformer(type), children, hash);
+        }
+        TDSNode root = nodes[body.getInt()];
+        log.debug("read {} descriptors and {} strings for @template_id={}", () -> nodes.length,
+                () -> strings.length, () -> templateId);
+        return new TDS(templateId, source, sourceHash, sourceModified, root, nodes.length);
+    }
+
+    /**
+     * Lists the descriptors reachable from a node in postorder, each one once.
+     *
+     * @param node descriptor being traversed
+     * @param visited descriptors already listed
+     * @param nodes {@link List} of descriptors in postorder
+     */
+    protected static void index(TDSNode node, Map<TDSNode, Boolean> visited, List<TDSNode> nodes) {
+        if (visited.put(node, Boolean.TRUE) != null)
+            return;
+        for (TDSNode child : node.getChildren().values())
+            index(child, visited, nodes);
+        nodes.add(node);
+    }
+
+    /**
+     * Returns the index of a string in the string table, adding it if needed.
+     *
+     * @param string string to be interned
+     * @param index {@link Map} of strings to their indexes
+     * @param strings string table
+     * @return index of the string, or -1 if null
+     */
+    protected static int intern(String string, Map<String, Integer> index, List<String> strings) {
+        if (string == null)
+            return -1;
+        Integer i = index.get(string);
+        if (i == null) {
+            i = strings.size();
+            index.put(string, i);
+            strings.add(string);
+        }
+        return i;
+    }
+
+    /**
+     * Returns a string from the string table.
+     *
+     * @param strings string table
+     * @param index index of the string, or -1
+     * @return the string, or null
+     */
+    protected static String string(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+
+}
@@ -0,0 +1,340 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class implements the retrieval of TDS files from a template server over HTTP(S) into an on-disk mirror, so a
+ * template is only transferred again when it changes:
+ * <ul>
+ *     <li>files are stored in the {@link #mirror} folder (by default "mirror" within the
+ *     {@link Properties#CACHE_FOLDER}) named after the SHA-256 of their content, so identical templates served from
+ *     several locations are stored once, and a file is never modified once written;</li>
+ *     <li>each location has an index file (named after the SHA-256 of the location) recording the content it last
+ *     served and its ETag and Last-Modified headers, which are sent back as If-None-Match and If-Modified-Since, so an
+ *     unchanged template costs a 304 response with no body;</li>
+ *     <li>locations validated within {@link #maxAge} aren't requested at all;</li>
+ *     <li>when the server fails or can't be reached within the timeouts, the content last mirrored is served
+ *     instead, if any.</li>
+ * </ul>
+ * Connections are made through {@link HttpURLConnection}, whose keep-alive cache (see the "http.maxConnections"
+ * system property) reuses them across requests to the same server, as long as responses are read to the end, which
+ * this class always does. Responses may be gzip-encoded. Instances are immutable and thread-safe, and index and
+ * content files are written into temporary files and moved into place, so concurrent fetches (or other instances of
+ * the application sharing the mirror) never observe partially written files.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+@Getter
+public class TDSFetcher {
+
+    /**
+     * Name of the mirror folder within the {@link Properties#CACHE_FOLDER}.
+     */
+    public static final String MIRROR_FOLDER = "mirror";
+    /**
+     * Default timeout to connect to the template server, in milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    /**
+     * Default timeout to read from the template server, in milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    /**
+     * Default period a location is served from the mirror without being validated again, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_AGE = 60000;
+
+    /**
+     * Index key of the location.
+     */
+    protected static final String LOCATION = "location";
+    /**
+     * Index key of the SHA-256 of the content last served by the location.
+     */
+    protected static final String CONTENT = "content";
+    /**
+     * Index key of the ETag header of the content last served by the location.
+     */
+    protected static final String ETAG = "etag";
+    /**
+     * Index key of the Last-Modified header of the content last served by the location.
+     */
+    protected static final String LAST_MODIFIED = "lastModified";
+    /**
+     * Index key of the time the location was last validated.
+     */
+    protected static final String VALIDATED = "validated";
+
+    /**
+     * Folder of the mirrored files.
+     */
+    protected final File mirror;
+    /**
+     * Timeout to connect to the template server, in milliseconds.
+     */
+    protected final int connectTimeout;
+    /**
+     * Timeout to read from the template server, in milliseconds.
+     */
+    protected final int readTimeout;
+    /**
+     * Period a location is served from the mirror without being validated again, in milliseconds.
+     */
+    protected final long maxAge;
+
+    /**
+     * Creates a fetcher. Every parameter is optional.
+     *
+     * @param mirror folder of the mirrored files, defaults to {@link #MIRROR_FOLDER} within the
+     * {@link Properties#CACHE_FOLDER}
+     * @param connectTimeout timeout to connect to the template server, in milliseconds, defaults to the
+     * {@link Properties#FETCH_CONNECT_TIMEOUT} property or {@link #DEFAULT_CONNECT_TIMEOUT}
+     * @param readTimeout timeout to read from the template server, in milliseconds, defaults to the
+     * {@link Properties#FETCH_READ_TIMEOUT} property or {@link #DEFAULT_READ_TIMEOUT}
+     * @param maxAge period a location is served from the mirror without being validated again, in milliseconds,
+     * defaults to the {@link Properties#FETCH_MAX_AGE} property or {@link #DEFAULT_MAX_AGE}
+     */
+    @Builder
+    public TDSFetcher(File mirror, Integer connectTimeout, Integer readTimeout, Long maxAge) {
+        this.mirror = mirror != null ? mirror :
+                new File(Properties.getProperty(Properties.CACHE_FOLDER), MIRROR_FOLDER);
+        this.connectTimeout = connectTimeout != null ? connectTimeout : Integer.parseInt(Properties.getProperty(
+                Properties.FETCH_CONNECT_TIMEOUT, String.valueOf(DEFAULT_CONNECT_TIMEOUT)));
+        this.readTimeout = readTimeout != null ? readTimeout : Integer.parseInt(Properties.getProperty(
+                Properties.FETCH_READ_TIMEOUT, String.valueOf(DEFAULT_READ_TIMEOUT)));
+        this.maxAge = maxAge != null ? maxAge : Long.parseLong(Properties.getProperty(
+                Properties.FETCH_MAX_AGE, String.valueOf(DEFAULT_MAX_AGE)));
+        log.trace("TDSFetcher({}, {}, {}, {})", () -> this.mirror, () -> this.connectTimeout,
+                () -> this.readTimeout, () -> this.maxAge);
+    }
+
+    /**
+     * Returns whether a location is retrieved through this class, i.e. whether it is a HTTP(S) {@link URI}.
+     *
+     * @param uri location of the TDS
+     * @return true if the location is a HTTP(S) {@link URI}, false otherwise
+     */
+    public static boolean isFetchable(URI uri) {
+        return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    /**
+     * Retrieves a TDS into the mirror, unless the mirrored content is recent enough or still current according to the
+     * server, and returns the mirrored file.
+     *
+     * @param uri HTTP(S) location of the TDS
+     * @return mirrored file holding the TDS
+     * @throws IOException when the TDS can't be retrieved and was never mirrored
+     */
+    public File fetch(URI uri) throws IOException {
+        log.trace("fetch({})", () -> uri);
+        String location = uri.toString();
+        File indexFile = new File(mirror, sha256(location.getBytes(StandardCharsets.UTF_8)) + ".properties");
+        java.util.Properties index = readIndex(indexFile, location);
+        File mirrored = index == null ? null : new File(mirror, index.getProperty(CONTENT) + ".xsd");
+        if (mirrored != null && mirrored.isFile() == false)
+            mirrored = null;
+
+        long now = System.currentTimeMillis();
+        if (mirrored != null && now - Long.parseLong(index.getProperty(VALIDATED, "0")) < maxAge) {
+            log.debug("serving {} from the mirror without validation", () -> location);
+            return mirrored;
+        }
+        try {
+            File fetched = request(uri, mirrored != null ? index : null, indexFile);
+            if (fetched == null) {
+                // 304 Not Modified, so only the validation time changes
+                index.setProperty(VALIDATED, String.valueOf(now));
+                writeIndex(indexFile, index);
+                log.debug("validated {} in the mirror", () -> location);
+                return mirrored;
+            }
+            return fetched;
+        } catch (IOException e) {
+            if (mirrored == null)
+                throw e;
+            log.warn("failed to validate " + location + ", serving it from the mirror", e);
+            return mirrored;
+        }
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 of a mirrored file content, from its name, so it can be compared with the
+     * {@link TDS#getSourceHash()} of the TDS compiled from it without reading the file.
+     *
+     * @param mirrored mirrored file, as returned by {@link #fetch(URI)}
+     * @return hex-encoded SHA-256 of the file content
+     */
+    public static String getContentHash(File mirrored) {
+        String name = mirrored.getName();
+        return name.substring(0, name.length() - ".xsd".length());
+    }
+
+    /**
+     * Requests a TDS from the template server, conditionally if it was mirrored, and mirrors the content received.
+     *
+     * @param uri HTTP(S) location of the TDS
+     * @param index index of the location, if its content was mirrored
+     * @param indexFile index file of the location
+     * @return mirrored file holding the content received, or null if the mirrored content is still current
+     * @throws IOException when the request fails
+     */
+    protected File request(URI uri, java.util.Properties index, File indexFile) throws IOException {
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (index != null) {
+            if (index.getProperty(ETAG) != null)
+                connection.setRequestProperty("If-None-Match", index.getProperty(ETAG));
+            if (index.getProperty(LAST_MODIFIED) != null)
+                connection.setIfModifiedSince(Long.parseLong(index.getProperty(LAST_MODIFIED)));
+        }
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && index != null) {
+            drain(connection.getInputStream());
+            return null;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            drain(connection.getErrorStream());
+            throw new IOException("HTTP " + status + " retrieving " + uri);
+        }
+
+        Files.createDirectories(mirror.toPath());
+        Path temporary = Files.createTempFile(mirror.toPath(), "fetch", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            InputStream body = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+                body = new GZIPInputStream(body);
+            try (InputStream input = new DigestInputStream(body, digest);
+                 OutputStream output = new FileOutputStream(temporary.toFile())) {
+                byte[] buffer = new byte[8 * 1024];
+                int read;
+                while ((read = input.read(buffer)) >= 0)
+                    output.write(buffer, 0, read);
+            }
+            String content = TDS.hex(digest.digest());
+            File mirrored = new File(mirror, content + ".xsd");
+            Files.move(temporary, mirrored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            java.util.Properties updated = new java.util.Properties();
+            updated.setProperty(LOCATION, uri.toString());
+            updated.setProperty(CONTENT, content);
+            updated.setProperty(VALIDATED, String.valueOf(start));
+            if (connection.getHeaderField("ETag") != null)
+                updated.setProperty(ETAG, connection.getHeaderField("ETag"));
+            if (connection.getLastModified() > 0)
+                updated.setProperty(LAST_MODIFIED, String.valueOf(connection.getLastModified()));
+            writeIndex(indexFile, updated);
+            log.info("mirrored {} in {}ms", () -> uri, () -> System.currentTimeMillis() - start);
+            return mirrored;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads the index of a location, if its content was mirrored.
+     *
+     * @param indexFile index file of the location
+     * @param location location of the TDS, checked against the index in the unlikely event of a hash collision
+     * @return index of the location, or null if it can't be read or belongs to another location
+     */
+    protected static java.util.Properties readIndex(File indexFile, String location) {
+        if (indexFile.isFile() == false)
+            return null;
+        java.util.Properties index = new java.util.Properties();
+        try (InputStream input = new FileInputStream(indexFile)) {
+            index.load(input);
+        } catch (IOException e) {
+            log.warn("failed to read the mirror index " + indexFile, e);
+            return null;
+        }
+        return location.equals(index.getProperty(LOCATION)) && index.getProperty(CONTENT) != null ? index : null;
+    }
+
+    /**
+     * Writes the index of a location into a temporary file and moves it into place.
+     *
+     * @param indexFile index file of the location
+     * @param index index of the location
+     * @throws IOException when the index can't be written
+     */
+    protected void writeIndex(File indexFile, java.util.Properties index) throws IOException {
+        Path temporary = Files.createTempFile(mirror.toPath(), "index", ".tmp");
+        try {
+            try (OutputStream output = new FileOutputStream(temporary.toFile())) {
+                index.store(output, null);
+            }
+            Files.move(temporary, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads a response body to the end and closes it, so the connection can be reused.
+     *
+     * @param body response body, possibly null
+     * @throws IOException when the body can't be read
+     */
+    protected static void drain(InputStream body) throws IOException {
+        if (body == null)
+            return;
+        try (InputStream input = body) {
+            byte[] buffer = new byte[8 * 1024];
+            while (input.read(buffer) >= 0) {
+                // Discard the body
+            }
+        }
+    }
+
+    /**
+     * Computes the hex-encoded SHA-256 of a byte array.
+     *
+     * @param bytes bytes to be hashed
+     * @return hex-encoded SHA-256
+     */
+    protected static String sha256(byte[] bytes) {
+        return TDS.hex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Creates a SHA-256 {@link MessageDigest}.
+     *
+     * @return a new {@link MessageDigest}
+     */
+    protected static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
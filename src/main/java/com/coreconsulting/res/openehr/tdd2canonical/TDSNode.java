@@ -0,0 +1,135 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * This class implements an immutable descriptor of an element definition in a {@link TDS}, compiled once per template
+ * (see {@link TDS#getRootNode()}). It holds the metadata relevant to {@link TDD} transformation (@archetype_node_id,
+ * type, @valueType and the resolved {@link AbstractTransformer}) and the descriptors of the element definitions
+ * reachable from it, indexed by element name, so the TDD traversal descends the descriptor tree in lockstep with the
+ * DOM instead of building and evaluating XPath expressions for every node.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Getter
+public class TDSNode {
+
+    /**
+     * {@literal @name} of the element definition.
+     */
+    protected final String name;
+    /**
+     * {@literal @archetype_node_id} of the element definition, or null if it isn't LOCATABLE.
+     */
+    protected final String nodeId;
+    /**
+     * {@literal @archetype_node_id} parsed as an archetype identifier, or null if the element definition isn't an
+     * archetype root.
+     */
+    protected final ArchetypeId archetypeId;
+    /**
+     * openEHR Reference Model type, parsed from the archetype root @archetype_node_id or from the @type definition.
+     */
+    protected final String type;
+    /**
+     * {@literal @valueType} of the element definition, identifying the DATA_VALUE type of an ELEMENT.
+     */
+    protected final String valueType;
+    /**
+     * Transformer resolved for {@link #type}, or null if the type is absent or unsupported.
+     */
+    protected final AbstractTransformer transformer;
+    /**
+     * Transformation applied to the elements of a LOCATABLE definition (see
+     * {@link TransformerFactory#getDispatch(String)}), resolved once when the descriptor is created. Null if the
+     * definition isn't LOCATABLE, or if its type is unsupported, in which case the policy for unsupported types is
+     * applied when transforming (see {@link TransformerFactory#getUnsupportedDispatch(String)}).
+     */
+    protected final AbstractTransformer dispatch;
+    /**
+     * Descriptors of the element definitions reachable from this one, indexed by @name. Only populated for LOCATABLE
+     * definitions, as the transformation doesn't descend from other elements.
+     */
+    protected final Map<String, TDSNode> children;
+    /**
+     * Hash of the element definition subtree it was compiled from (see {@link TDS#compile(TDS)}), or 0 if unknown.
+     * Descriptors with the same hash were compiled from identical definitions, so they can be reused when the TDS
+     * changes elsewhere.
+     */
+    protected final long hash;
+
+    /**
+     * Creates a descriptor for an element definition, with no subtree hash.
+     *
+     * @param name {@literal @name} of the element definition
+     * @param nodeId {@literal @archetype_node_id} of the element definition
+     * @param type openEHR Reference Model type of the element definition
+     * @param valueType {@literal @valueType} of the element definition
+     * @param transformer transformer resolved for the type
+     * @param children descriptors reachable from this one, indexed by @name
+     */
+    public TDSNode(String name, String nodeId, String type, String valueType, AbstractTransformer transformer,
+                   Map<String, TDSNode> children) {
+        this(name, nodeId, type, valueType, transformer, children, 0);
+    }
+
+    /**
+     * Creates a descriptor for an element definition.
+     *
+     * @param name {@literal @name} of the element definition
+     * @param nodeId {@literal @archetype_node_id} of the element definition
+     * @param type openEHR Reference Model type of the element definition
+     * @param valueType {@literal @valueType} of the element definition
+     * @param transformer transformer resolved for the type
+     * @param children descriptors reachable from this one, indexed by @name
+     * @param hash hash of the element definition subtree, or 0 if unknown
+     */
+    public TDSNode(String name, String nodeId, String type, String valueType, AbstractTransformer transformer,
+                   Map<String, TDSNode> children, long hash) {
+        this.name = name;
+        this.nodeId = nodeId;
+        this.archetypeId = ArchetypeId.parse(nodeId);
+        this.type = type;
+        this.valueType = valueType;
+        this.transformer = transformer;
+        this.dispatch = nodeId == null ? null : TransformerFactory.getDispatch(type);
+        this.children = Collections.unmodifiableMap(children);
+        this.hash = hash;
+    }
+
+    /**
+     * Returns the descriptor of a reachable element definition by its @name, matching the first definition with such
+     * name in document order (equivalent to {@code (xsdXPath//element[@name='...'])[1]}).
+     *
+     * @param name {@literal @name} of the element definition to look up
+     * @return descriptor of the element definition, or null if there is none
+     */
+    public TDSNode getChild(String name) {
+        return children.get(name);
+    }
+
+    /**
+     * Returns whether the element definition is LOCATABLE, i.e. has an @archetype_node_id.
+     *
+     * @return true if the element definition has an @archetype_node_id, false otherwise
+     */
+    public boolean isLocatable() {
+        return nodeId != null;
+    }
+
+    /**
+     * Returns whether the element definition is an archetype root, i.e. its @archetype_node_id is an archetype
+     * identifier.
+     *
+     * @return true if the element definition is an archetype root, false otherwise
+     */
+    public boolean isArchetypeRoot() {
+        return archetypeId != null;
+    }
+
+}
@@ -1,53 +1,130 @@
 package com.coreconsulting.res.openehr.tdd2canonical;
 
-import com.coreconsulting.res.openehr.tdd2canonical.util.Serializer;
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.Metrics;
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.MetricsListener.Resolution;
 import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
 import lombok.extern.log4j.Log4j2;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * This class implements functionality related to caching TDS instances, reading/writing from/into the cache,
  * obtaining remote objects and preloading paths as necessary.
+ * TDS instances are kept in memory in {@link #templateCache}, which is safe for concurrent use: each @template_id is
+ * loaded at most once at a time (concurrent callers wait for the same load instead of racing it), and the least
+ * recently used instances are evicted once the configured size or weight (see {@link Properties#REGISTRY_MAX_SIZE}
+ * and {@link Properties#REGISTRY_MAX_WEIGHT}) is exceeded.
+ * Templates read from files are checked for changes when loaded from the cache and on {@link #refresh(String)}: a
+ * changed template is compiled again reusing the descriptors of its unchanged element definitions, while the previous
+ * instance keeps serving requests until the new one atomically replaces it. Templates added or changed at runtime
+ * can be published the same way (see {@link #reload(File)} and {@link TDSReloader}).
  *
  * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
  */
 @Log4j2
 public class TDSRegistry {
 
+    /**
+     * This class holds a TDS instance in the registry, which may still be loading.
+     */
+    protected static class Entry {
+
+        /**
+         * TDS instance being loaded, shared by every caller requesting the same @template_id.
+         */
+        protected final CompletableFuture<TDS> tds = new CompletableFuture<>();
+        /**
+         * Logical time of the last access, used to evict the least recently used instances.
+         */
+        protected volatile long accessed;
+
+    }
+
     /**
      * Cache of TDS instances preloaded into the registry
      */
-    static protected Map<String, TDS> templateCache = new HashMap<>();
+    static protected Map<String, Entry> templateCache = new ConcurrentHashMap<>();
+    /**
+     * Logical clock used to order the accesses to {@link #templateCache}.
+     */
+    static protected AtomicLong clock = new AtomicLong();
+    /**
+     * {@literal @template_id} of the TDS found at each location resolved by {@link #fromTDSLocation(String)}, so
+     * further requests for the same location are served from memory without parsing the TDS again.
+     */
+    static protected Map<String, String> locations = new ConcurrentHashMap<>();
 
     /**
-     * Retrieves a TDS instance from a remote location, checks if the same @template_id has a cache and returns it.
-     * Otherwise, it returns the a fresh instance and starts preloading the paths in a new thread. XPath evaluations
-     * on the TDS might be executed online if they advance faster than the thread but they won't block the execution.
+     * Retrieves a TDS instance from a remote location. A location resolved before is served from memory, only
+     * revalidating it (see {@link #revalidate(URI, long)}). Otherwise, the TDS is retrieved and, if the same
+     * {@literal @template_id} has a cache compiled from the same content, the cached instance is returned; else the
+     * fresh instance is compiled before returning it, reusing the cached descriptors of the unchanged element
+     * definitions (see {@link TDS#loadNodeCache(TDS)}). HTTP(S) locations are mirrored on disk and only transferred
+     * again when changed (see {@link TDSFetcher}). Concurrent callers for the same @template_id (through this method,
+     * {@link #fromTemplateId(String)} or a warm-up, see {@link TDSWarmup}) wait for a single load instead of getting a
+     * partially compiled instance.
      *
-     * @param tdsLocation reachable {@link URI} to retrieve the TDS
-     * @return TDS instance from cache, if @template_id was previously cached, or TDS instance preloading the cache
-     * in a separate thread
+     * @param tdsLocation reachable {@link URI} to retrieve the TDS, or null if the TDD has none
+     * @return TDS instance from memory or cache, if @template_id was previously loaded, or the fresh instance compiled
      */
     public static TDS fromTDSLocation(String tdsLocation) {
         log.trace("fromTDSLocation({})", () -> tdsLocation);
+        if (tdsLocation == null) {
+            log.warn("{}", () -> "no TDS location to retrieve the TDS from");
+            return null;
+        }
         try {
-            // Obtain the TDS from the remote location and return it if the @template_id was previously cached
-            TDS tds = new TDS(new URI(tdsLocation));
-            TDS cached = fromCache(tds.getTemplateId());
-            if (cached == null) {
-                // Start preloading in a separate thread and return the fresh instance
-                new Thread(() -> tds.loadNodeCache()).start();
-                return tds;
-            } else
-                return cached;
+            long start = System.nanoTime();
+            URI uri = new URI(tdsLocation);
+            TDS current = revalidate(uri, start);
+            if (current != null)
+                return current;
+            // Obtain the TDS from the remote location and return it if the @template_id was previously loaded
+            TDS tds = fetch(uri);
+            if (tds == null)
+                return null;
+            String templateId = tds.getTemplateId();
+            Entry entry = templateCache.get(templateId);
+            boolean loaded = false;
+            if (entry == null) {
+                Entry created = new Entry();
+                entry = templateCache.putIfAbsent(templateId, created);
+                if (entry == null) {
+                    // This caller won the race, so it compiles the TDS on behalf of everyone else
+                    entry = created;
+                    loaded = true;
+                    complete(templateId, created, () -> {
+                        // The cache may have been compiled from another version of the remote TDS
+                        TDS cached = fromCache(templateId);
+                        if (cached != null && (tds.getSourceHash() == null
+                                || tds.getSourceHash().equals(cached.getSourceHash()))) {
+                            resolved(templateId, Resolution.CACHE, start);
+                            return cached;
+                        }
+                        tds.loadNodeCache(cached);
+                        resolved(templateId, Resolution.COMPILE, start);
+                        return tds;
+                    });
+                }
+            }
+            TDS registered = get(templateId, entry);
+            if (registered != null)
+                locations.put(tdsLocation, templateId);
+            if (loaded == false && registered != null)
+                resolved(templateId, Resolution.MEMORY, start);
+            return registered;
         } catch (URISyntaxException e) {
             log.warn("malformed URI to retrieve the TDS through HTTP(S)", e);
             return null;
@@ -55,48 +132,504 @@ public class TDSRegistry {
     }
 
     /**
-     * Retrieves a TDS instance based on the @template_id. If it was not cached before, it will attempt to read from
-     * a local folder, by default /src/main/resources/templates, using a file name mapped from the @template_id.
-     * Configuration (both the local folder and @template_id to file name mappings) can be overridden (see
-     * {@link Properties}).
+     * Serves a location resolved before from memory. HTTP(S) locations are revalidated through the mirror, which
+     * only requests them again once their max age is over, and then conditionally (see {@link TDSFetcher}), so an
+     * unchanged TDS is neither transferred nor parsed again. When the content changed, it is compiled reusing the
+     * descriptors of the unchanged element definitions and replaces the instance in memory, as in
+     * {@link #reload(File)}. Other locations are served from memory as they are.
+     *
+     * @param uri location of the TDS
+     * @param start time the request started, in nanoseconds
+     * @return the TDS instance, or null if the location wasn't resolved before or no longer holds the same
+     * {@literal @template_id}
+     */
+    protected static TDS revalidate(URI uri, long start) {
+        String location = uri.toString();
+        String templateId = locations.get(location);
+        Entry entry = templateId == null ? null : templateCache.get(templateId);
+        TDS current = entry == null ? null : get(templateId, entry);
+        if (current == null)
+            return null;
+        if (TDSFetcher.isFetchable(uri)) {
+            File mirrored;
+            try {
+                mirrored = TDSFetcher.builder().build().fetch(uri);
+            } catch (IOException e) {
+                log.warn("failed to revalidate the TDS from " + location + ", serving it from memory", e);
+                resolved(templateId, Resolution.MEMORY, start);
+                return current;
+            }
+            if (TDSFetcher.getContentHash(mirrored).equals(current.getSourceHash()) == false) {
+                log.info("TDS with @template_id={} changed in {}", () -> templateId, () -> location);
+                TDS tds = new TDS(mirrored);
+                if (tds.getXml() == null || templateId.equals(tds.getTemplateId()) == false) {
+                    locations.remove(location, templateId);
+                    return null;
+                }
+                tds.loadNodeCache(current);
+                swap(templateId, entry, tds);
+                resolved(templateId, Resolution.COMPILE, start);
+                return tds;
+            }
+        }
+        resolved(templateId, Resolution.MEMORY, start);
+        return current;
+    }
+
+    /**
+     * Parses a TDS from its location. HTTP(S) locations are retrieved through a {@link TDSFetcher}, and so parsed from
+     * the mirror, while any other is parsed directly.
+     *
+     * @param uri location of the TDS
+     * @return the TDS parsed, or null if it can't be retrieved
+     */
+    protected static TDS fetch(URI uri) {
+        if (TDSFetcher.isFetchable(uri) == false)
+            return new TDS(uri);
+        try {
+            return new TDS(TDSFetcher.builder().build().fetch(uri));
+        } catch (IOException e) {
+            log.warn("failed to retrieve the TDS from " + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves a TDS instance based on the @template_id. If it is not in memory, it will attempt to read it from the
+     * cache and then from a local folder, by default /src/main/resources/templates, using a file name mapped from the
+     * {@literal @template_id}. Configuration (both the local folder and @template_id to file name mappings) can be
+     * overridden (see {@link Properties}).
      * It can be assumed that templates shipped with the application can have a cold deploy, so preloading the paths
-     * happen on the same thread.
+     * happen on the same thread. Concurrent callers for the same @template_id wait for a single load.
      *
-     * @param templateId the @template_id to look up for the TDS
-     * @return the TDS instance, either from the cache or parsed from the local folder
+     * @param templateId the @template_id to look up for the TDS, or null if the TDD has none
+     * @return the TDS instance, either from memory, the cache or parsed from the local folder, or null if unavailable
      */
     public static TDS fromTemplateId(String templateId) {
         log.trace("fromTemplateId({})", () -> templateId);
+        // TDDs with no @template_id can only be resolved through their @xsi:schemaLocation
+        if (templateId == null)
+            return null;
+        long start = System.nanoTime();
+        Entry entry = templateCache.get(templateId);
+        boolean loaded = false;
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = templateCache.putIfAbsent(templateId, created);
+            if (entry == null) {
+                // This caller won the race, so it loads the TDS on behalf of everyone else
+                entry = created;
+                loaded = true;
+                complete(templateId, created, () -> load(templateId));
+            }
+        }
+        TDS tds = get(templateId, entry);
+        if (loaded == false && tds != null)
+            resolved(templateId, Resolution.MEMORY, start);
+        return tds;
+    }
+
+    /**
+     * Retrieves a TDS instance based on the @template_id without blocking the calling thread: an instance in memory is
+     * returned as a completed future, and any other is loaded on an {@link Executor}, the same way as
+     * {@link #fromTemplateId(String)} (concurrent callers, blocking or not, wait for a single load).
+     *
+     * @param templateId the @template_id to look up for the TDS, or null if the TDD has none
+     * @param executor {@link Executor} to load the TDS on, if it isn't in memory
+     * @return future of the TDS instance, completed with null if it is unavailable
+     */
+    public static CompletableFuture<TDS> fromTemplateIdAsync(String templateId, Executor executor) {
+        log.trace("fromTemplateIdAsync({})", () -> templateId);
+        if (templateId == null)
+            return CompletableFuture.completedFuture(null);
+        long start = System.nanoTime();
+        Entry entry = templateCache.get(templateId);
+        if (entry != null && entry.tds.isDone() && entry.tds.isCompletedExceptionally() == false) {
+            TDS tds = get(templateId, entry);
+            if (tds != null)
+                resolved(templateId, Resolution.MEMORY, start);
+            return CompletableFuture.completedFuture(tds);
+        }
+        CompletableFuture<TDS> tds = entry != null ? entry.tds : loadAsync(templateId, executor);
+        return tds.thenApply(loaded -> {
+            // Records the access once loaded, as get(String, Entry) does for blocking callers
+            Entry current = templateCache.get(templateId);
+            if (current != null)
+                current.accessed = clock.incrementAndGet();
+            return loaded;
+        });
+    }
+
+    /**
+     * Starts loading a TDS instance into the registry on an {@link Executor}, unless it is already loaded or being
+     * loaded, and returns the future of its load. Requests for the same @template_id wait for this load.
+     *
+     * @param templateId the @template_id to look up for the TDS
+     * @param executor {@link Executor} to load the TDS on
+     * @return future of the TDS instance, completed with null if it is unavailable
+     */
+    protected static CompletableFuture<TDS> loadAsync(String templateId, Executor executor) {
+        log.trace("loadAsync({})", () -> templateId);
+        Entry created = new Entry();
+        Entry entry = templateCache.putIfAbsent(templateId, created);
+        if (entry != null)
+            return entry.tds;
+        try {
+            executor.execute(() -> complete(templateId, created, () -> load(templateId)));
+        } catch (RejectedExecutionException e) {
+            templateCache.remove(templateId, created);
+            created.tds.completeExceptionally(e);
+        }
+        return created.tds;
+    }
+
+    /**
+     * Registers a TDS instance loaded elsewhere (e.g. from a file with no @template_id mapping), unless the same
+     * {@literal @template_id} is already loaded or being loaded.
+     *
+     * @param tds TDS instance, expected to be compiled
+     * @return the TDS instance in the registry for the same @template_id
+     */
+    protected static TDS register(TDS tds) {
+        String templateId = tds.getTemplateId();
+        log.trace("register({})", () -> templateId);
+        Entry created = new Entry();
+        created.tds.complete(tds);
+        Entry entry = templateCache.putIfAbsent(templateId, created);
+        if (entry == null) {
+            entry = created;
+            evict(templateId);
+        }
+        return get(templateId, entry);
+    }
+
+    /**
+     * Loads a TDS instance into a registry entry, completing its future, and evicts the least recently used ones if
+     * needed. Entries that fail (or find nothing) are removed so a later request tries again. The future is completed
+     * whatever the loader throws, so callers waiting for it never hang; errors (e.g. {@link StackOverflowError} or
+     * {@link OutOfMemoryError}) are rethrown once it is.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param entry registry entry to be completed
+     * @param loader {@link Supplier} loading the TDS
+     */
+    protected static void complete(String templateId, Entry entry, Supplier<TDS> loader) {
+        try {
+            TDS tds = loader.get();
+            if (tds == null)
+                templateCache.remove(templateId, entry);
+            entry.tds.complete(tds);
+        } catch (Throwable e) {
+            templateCache.remove(templateId, entry);
+            entry.tds.completeExceptionally(e);
+            if (e instanceof Error)
+                throw (Error) e;
+        }
+        evict(templateId);
+    }
+
+    /**
+     * Loads a TDS instance into the registry ahead of its first request, if it isn't there yet.
+     *
+     * @param templateId the @template_id to look up for the TDS
+     * @return true if the TDS instance is available, false otherwise
+     */
+    public static boolean preload(String templateId) {
+        log.trace("preload({})", () -> templateId);
+        return fromTemplateId(templateId) != null;
+    }
+
+    /**
+     * Compiles a TDS instance again if its source file changed (see {@link TDS#isStale()}), reusing the descriptors of
+     * its unchanged element definitions. The previous instance keeps serving requests while the new one compiles, and
+     * is then atomically replaced by it, unless the entry was replaced or removed in the meantime.
+     *
+     * @param templateId the @template_id of the TDS
+     * @return true if the TDS instance was replaced, false if it is not loaded, unchanged or failed to compile
+     */
+    public static boolean refresh(String templateId) {
+        log.trace("refresh({})", () -> templateId);
+        Entry entry = templateCache.get(templateId);
+        TDS current = entry == null ? null : entry.tds.getNow(null);
+        if (current == null || current.isStale() == false)
+            return false;
+        TDS tds = recompile(current);
+        return tds != null && swap(templateId, entry, tds);
+    }
+
+    /**
+     * Replaces a TDS instance in the registry by the one in the cache, if the cache holds a newer version of it (e.g.
+     * compiled by another instance of the application sharing the {@link Properties#CACHE_FOLDER}).
+     *
+     * @param templateId the @template_id of the TDS
+     * @return true if the TDS instance was replaced, false if it is not loaded or the cache isn't newer
+     */
+    public static boolean reloadCache(String templateId) {
+        log.trace("reloadCache({})", () -> templateId);
+        Entry entry = templateCache.get(templateId);
+        TDS current = entry == null ? null : entry.tds.getNow(null);
+        if (current == null)
+            return false;
+        TDS cached = fromCache(templateId);
+        if (cached == null || Objects.equals(cached.getSourceHash(), current.getSourceHash())
+                || cached.getSourceModified() <= current.getSourceModified())
+            return false;
+        return swap(templateId, entry, cached);
+    }
+
+    /**
+     * Loads a TDS file added or changed at runtime and publishes it into the registry, replacing the previous version
+     * of the same @template_id, if any. The file is compiled reusing the descriptors of the element definitions that
+     * didn't change since the previous version (either in memory or in the cache), which keeps serving requests
+     * meanwhile. Files whose content didn't change aren't compiled again.
+     *
+     * @param xsd TDS file
+     * @return the TDS instance published, or null if the file can't be parsed
+     */
+    public static TDS reload(File xsd) {
+        log.trace("reload({})", () -> xsd.getPath());
+        TDS tds = new TDS(xsd);
+        if (tds.getXml() == null)
+            return null;
+        String templateId = tds.getTemplateId();
+        Entry entry = templateCache.get(templateId);
+        TDS current = entry == null ? null : entry.tds.getNow(null);
+        if (current == null)
+            current = fromCache(templateId);
+        if (current != null && tds.getSourceHash() != null && tds.getSourceHash().equals(current.getSourceHash())) {
+            log.info("TDS with @template_id={} didn't change", () -> templateId);
+            return entry != null && entry.tds.getNow(null) == current ? current : publish(current);
+        }
+        tds.loadNodeCache(current);
+        return publish(tds);
+    }
+
+    /**
+     * Publishes a TDS instance into the registry, atomically replacing the one with the same @template_id, if any.
+     * Callers already waiting for the replaced instance still get it.
+     *
+     * @param tds TDS instance, expected to be compiled
+     * @return the TDS instance
+     */
+    public static TDS publish(TDS tds) {
+        String templateId = tds.getTemplateId();
+        log.trace("publish({})", () -> templateId);
+        Entry entry = new Entry();
+        entry.tds.complete(tds);
+        entry.accessed = clock.incrementAndGet();
+        templateCache.put(templateId, entry);
+        log.info("published TDS with @template_id={}", () -> templateId);
+        evict(templateId);
+        return tds;
+    }
+
+    /**
+     * Atomically replaces the TDS instance of a registry entry, unless the entry was replaced or removed in the
+     * meantime.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param entry registry entry expected to be replaced
+     * @param tds the new TDS instance
+     * @return true if the entry was replaced, false otherwise
+     */
+    protected static boolean swap(String templateId, Entry entry, TDS tds) {
+        Entry replacement = new Entry();
+        replacement.tds.complete(tds);
+        replacement.accessed = entry.accessed;
+        if (templateCache.replace(templateId, entry, replacement) == false)
+            return false;
+        log.info("replaced TDS with @template_id={} by its new version", () -> templateId);
+        evict(templateId);
+        return true;
+    }
+
+    /**
+     * Compiles every TDS instance in the registry again if its source file changed (see {@link #refresh(String)}).
+     *
+     * @return number of TDS instances replaced
+     */
+    public static int refreshAll() {
+        log.trace("refreshAll({})", () -> "");
+        int refreshed = 0;
+        for (String templateId : templateCache.keySet()) {
+            if (refresh(templateId))
+                refreshed++;
+        }
+        return refreshed;
+    }
+
+    /**
+     * Compiles a new version of a TDS instance from its source file, reusing the descriptors of its unchanged element
+     * definitions, and writes it into the cache.
+     *
+     * @param stale the TDS instance whose source file changed
+     * @return the new TDS instance, or null if the file can't be parsed or declares another @template_id
+     */
+    protected static TDS recompile(TDS stale) {
+        log.trace("recompile({})", () -> stale.getTemplateId());
+        TDS tds = new TDS(new File(stale.getSource()));
+        if (tds.getXml() == null) {
+            log.error("failed to parse the new version of TDS with @template_id={}", () -> stale.getTemplateId());
+            return null;
+        }
+        if (stale.getTemplateId().equals(tds.getTemplateId()) == false) {
+            log.error("new version of TDS with @template_id={} declares @template_id={}", () -> stale.getTemplateId(),
+                    () -> tds.getTemplateId());
+            return null;
+        }
+        tds.loadNodeCache(stale);
+        return tds;
+    }
+
+    /**
+     * Removes a TDS instance from the registry, so the next request loads it again.
+     *
+     * @param templateId the @template_id of the TDS
+     */
+    public static void invalidate(String templateId) {
+        log.trace("invalidate({})", () -> templateId);
+        if (templateCache.remove(templateId) != null)
+            log.info("invalidated TDS with @template_id={}", () -> templateId);
+    }
+
+    /**
+     * Removes every TDS instance from the registry.
+     */
+    public static void invalidateAll() {
+        log.trace("invalidateAll({})", () -> "");
+        templateCache.clear();
+        locations.clear();
+    }
+
+    /**
+     * Loads a TDS instance, first from the cache and then from the local folder, preloading its paths. A cached
+     * instance whose source file changed is compiled again, reusing its unchanged descriptors, or kept if the new
+     * version fails to compile. The resolution is reported to {@link Metrics}, including the loads of a warm-up.
+     *
+     * @param templateId the @template_id to look up for the TDS
+     * @return the TDS instance, or null if it isn't cached nor mapped to a readable file
+     */
+    protected static TDS load(String templateId) {
+        long start = System.nanoTime();
         TDS tds = fromCache(templateId);
+        Resolution resolution = Resolution.CACHE;
+        if (tds != null && tds.isStale()) {
+            TDS recompiled = recompile(tds);
+            if (recompiled != null) {
+                tds = recompiled;
+                resolution = Resolution.COMPILE;
+            }
+        }
         if (tds == null) {
             // Obtain the TDS from the local folder, mapping the @template_id to a file name through properties
-            File xsd =
-                    new File(Properties.getProperty(Properties.TEMPLATE_FOLDER) + "/" + Properties.getProperty(templateId));
+            String fileName = Properties.getProperty(templateId);
+            if (fileName == null) {
+                log.info("no TDS file mapped for @template_id={}", () -> templateId);
+                return null;
+            }
+            File xsd = new File(Properties.getProperty(Properties.TEMPLATE_FOLDER) + "/" + fileName);
             tds = new TDS(xsd);
+            if (tds.getXml() == null)
+                return null;
             tds.loadNodeCache();
+            resolution = Resolution.COMPILE;
         }
+        resolved(templateId, resolution, start);
         return tds;
     }
 
     /**
-     * Retrieves a TDS instance from the cache based on the @template_id.
+     * Notifies the {@link Metrics} listener, if any, that a TDS instance was resolved.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param resolution where the TDS instance was resolved from
+     * @param start {@link System#nanoTime()} before resolving it
+     */
+    protected static void resolved(String templateId, Resolution resolution, long start) {
+        if (Metrics.isEnabled())
+            Metrics.getListener().resolved(templateId, resolution, System.nanoTime() - start);
+    }
+
+    /**
+     * Waits for a TDS instance to be loaded and records the access.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param entry registry entry holding the TDS
+     * @return the TDS instance
+     */
+    protected static TDS get(String templateId, Entry entry) {
+        entry.accessed = clock.incrementAndGet();
+        try {
+            return entry.tds.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Evicts the least recently used TDS instances while the registry exceeds its maximum size or weight. The
+     * instance just loaded is never evicted, so a single template larger than the maximum weight is still served.
+     *
+     * @param loaded the @template_id just loaded
+     */
+    protected static void evict(String loaded) {
+        int maxSize = Integer.parseInt(Properties.getProperty(Properties.REGISTRY_MAX_SIZE,
+                String.valueOf(Integer.MAX_VALUE)));
+        long maxWeight = Long.parseLong(Properties.getProperty(Properties.REGISTRY_MAX_WEIGHT,
+                String.valueOf(Long.MAX_VALUE)));
+        while (true) {
+            int size = 0;
+            long weight = 0;
+            String eldest = null;
+            Entry eldestEntry = null;
+            long eldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> entry : templateCache.entrySet()) {
+                // Instances still loading are neither weighed nor evicted
+                TDS tds = entry.getValue().tds.getNow(null);
+                if (tds == null)
+                    continue;
+                size++;
+                weight += tds.getNodeCount();
+                if (entry.getKey().equals(loaded) == false && entry.getValue().accessed < eldestAccess) {
+                    eldest = entry.getKey();
+                    eldestEntry = entry.getValue();
+                    eldestAccess = entry.getValue().accessed;
+                }
+            }
+            if ((size <= maxSize && weight <= maxWeight) || eldest == null)
+                return;
+            String _eldest = eldest;
+            log.info("evicting TDS with @template_id={} from memory", () -> _eldest);
+            // Only the entry scanned is removed, not one published or swapped in for the same @template_id since
+            templateCache.remove(eldest, eldestEntry);
+        }
+    }
+
+    /**
+     * Retrieves a TDS instance from the cache based on the @template_id. The cache holds only the compiled element
+     * definition descriptors (see {@link TDSCache}), so files written in another format or version are ignored and
+     * overwritten once the TDS is compiled again.
      *
      * @param templateId the @template_id to look up for the TDS
      * @return the TDS instance, if it was previously cached, or null otherwise
      */
     protected static TDS fromCache(String templateId) {
         File cache = new File(Properties.getProperty(Properties.CACHE_FOLDER) + "/" + templateId);
+        if (cache.isFile() == false) {
+            log.info("no cache for TDS with @template_id={}", () -> templateId);
+            return null;
+        }
         try {
-            FileInputStream stream = new FileInputStream(cache);
-            TDS tds = (TDS) Serializer.read(stream);
-            log.info("loaded TDS with @template_id={} from cache", () -> tds.getTemplateId());
-            stream.close();
+            TDS tds = TDSCache.read(cache);
+            if (tds != null)
+                log.info("loaded TDS with @template_id={} from cache", () -> tds.getTemplateId());
             return tds;
-        } catch (FileNotFoundException e) {
-            log.info("failed to load TDS from cache", e);
-            return null;
         } catch (IOException e) {
-            log.warn("failed to close input stream for cache", e);
+            log.warn("failed to load TDS from cache", e);
             return null;
         }
     }
@@ -0,0 +1,281 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import lombok.Builder;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class implements the hot reload of templates, watching (through a {@link WatchService}) the template folder,
+ * the cache folder and the properties file for changes made at runtime, so templates can be added or changed without
+ * restarting the application:
+ * <ul>
+ *     <li>*.xsd files created or modified within the template folder are compiled and published into
+ *     {@link TDSRegistry}, replacing the previous version of the same @template_id (see
+ *     {@link TDSRegistry#reload(File)});</li>
+ *     <li>cache files written by other instances of the application sharing the cache folder replace the templates
+ *     in memory they are newer than (see {@link TDSRegistry#reloadCache(String)});</li>
+ *     <li>changes to the properties file are read again (see {@link Properties#reload()}), and the files of new or
+ *     changed @template_id mappings are loaded as above.</li>
+ * </ul>
+ * Templates are compiled in the background, and the previous versions keep serving requests until the new ones are
+ * published. Events are coalesced for a short delay, so a file written in several steps is loaded once. Files that
+ * fail to parse (e.g. still being written) are loaded again on their next change, and files deleted are ignored, i.e.
+ * the templates loaded from them keep being served.
+ * The folders are resolved once, when the reloader is created, so changing them in the properties file requires
+ * another reloader.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSReloader implements AutoCloseable {
+
+    /**
+     * Default delay to coalesce events, in milliseconds.
+     */
+    public static final long DEFAULT_DELAY = 200;
+
+    /**
+     * {@link ExecutorService} compiling the templates.
+     */
+    protected final ExecutorService executor;
+    /**
+     * Whether {@link #executor} was created by this instance, and so must be shut down by it.
+     */
+    protected final boolean ownsExecutor;
+    /**
+     * Folder of the TDS files.
+     */
+    protected final Path templateFolder;
+    /**
+     * Folder of the cached TDS instances.
+     */
+    protected final Path cacheFolder;
+    /**
+     * Properties file.
+     */
+    protected final Path propertiesFile;
+    /**
+     * Delay to coalesce events, in milliseconds.
+     */
+    protected final long delay;
+    /**
+     * {@link WatchService} notifying the changes, once started.
+     */
+    protected WatchService watcher;
+    /**
+     * Thread consuming the events, once started.
+     */
+    protected Thread thread;
+
+    /**
+     * Creates a reloader. Every parameter is optional.
+     *
+     * @param executor {@link ExecutorService} to compile the templates on, defaults to a single daemon thread owned by
+     * the reloader, so templates are compiled one at a time
+     * @param templateFolder folder of the TDS files, defaults to {@link Properties#TEMPLATE_FOLDER}
+     * @param cacheFolder folder of the cached TDS instances, defaults to {@link Properties#CACHE_FOLDER}
+     * @param propertiesFile properties file, defaults to the one being served (see {@link Properties#getPath()})
+     * @param delay delay to coalesce events, in milliseconds, defaults to {@link #DEFAULT_DELAY}
+     */
+    @Builder
+    public TDSReloader(ExecutorService executor, File templateFolder, File cacheFolder, File propertiesFile,
+                       long delay) {
+        log.trace("TDSReloader({}, {}, {}, {})", () -> executor, () -> templateFolder, () -> cacheFolder,
+                () -> propertiesFile);
+        if (executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tdd2canonical-reloader-compile");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.ownsExecutor = true;
+        } else {
+            this.executor = executor;
+            this.ownsExecutor = false;
+        }
+        this.templateFolder = toPath(templateFolder != null ? templateFolder :
+                new File(Properties.getProperty(Properties.TEMPLATE_FOLDER)));
+        this.cacheFolder = toPath(cacheFolder != null ? cacheFolder :
+                new File(Properties.getProperty(Properties.CACHE_FOLDER)));
+        this.propertiesFile = toPath(propertiesFile != null ? propertiesFile : new File(Properties.getPath()));
+        this.delay = delay > 0 ? delay : DEFAULT_DELAY;
+    }
+
+    /**
+     * Starts watching the folders, on a daemon thread.
+     *
+     * @throws IOException when the folders can't be watched
+     */
+    public synchronized void start() throws IOException {
+        log.trace("start({})", () -> "");
+        if (watcher != null)
+            throw new IllegalStateException("the reloader was already started");
+        watcher = FileSystems.getDefault().newWatchService();
+        Set<Path> folders = new LinkedHashSet<>();
+        folders.add(templateFolder);
+        folders.add(cacheFolder);
+        folders.add(propertiesFile.getParent());
+        for (Path folder : folders) {
+            folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            log.info("watching {} for changes", () -> folder);
+        }
+        thread = new Thread(this::watch, "tdd2canonical-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Consumes the events until closed, coalescing the ones received within {@link #delay} before handling them.
+     */
+    protected void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Thread.sleep(delay);
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                do {
+                    Path folder = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                            overflow = true;
+                        else
+                            changed.add(folder.resolve((Path) event.context()));
+                    }
+                    key.reset();
+                } while ((key = watcher.poll()) != null);
+                if (overflow)
+                    rescan(changed);
+                handle(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("{}", () -> "stopped watching for changes");
+        }
+    }
+
+    /**
+     * Adds every file within the watched folders to the changed ones, as some events were lost.
+     *
+     * @param changed files changed
+     */
+    protected void rescan(Set<Path> changed) {
+        log.warn("{}", () -> "events were lost, reloading every template");
+        changed.add(propertiesFile);
+        for (Path folder : new Path[]{templateFolder, cacheFolder}) {
+            File[] files = folder.toFile().listFiles();
+            if (files != null) {
+                for (File file : files)
+                    changed.add(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Handles the files changed, submitting the loads to {@link #executor}.
+     *
+     * @param changed files changed
+     */
+    protected void handle(Set<Path> changed) {
+        log.trace("handle({})", () -> changed);
+        if (changed.contains(propertiesFile))
+            reloadProperties();
+        for (Path path : changed) {
+            File file = path.toFile();
+            if (file.isFile() == false)
+                continue;
+            String name = file.getName();
+            if (path.getParent().equals(templateFolder) && name.endsWith(".xsd"))
+                submit(() -> TDSRegistry.reload(file));
+            else if (path.getParent().equals(cacheFolder) && name.endsWith(".tmp") == false)
+                submit(() -> TDSRegistry.reloadCache(name));
+        }
+    }
+
+    /**
+     * Reads the properties file again and loads the files of the new or changed @template_id mappings.
+     */
+    protected void reloadProperties() {
+        log.trace("reloadProperties({})", () -> "");
+        Map<String, String> previous = new HashMap<>();
+        for (String name : Properties.getPropertyNames())
+            previous.put(name, Properties.getProperty(name));
+        if (Properties.reload() == false)
+            return;
+        for (String templateId : Properties.getPropertyNames()) {
+            String fileName = Properties.getProperty(templateId);
+            if (Objects.equals(fileName, previous.get(templateId)))
+                continue;
+            File xsd = templateFolder.resolve(fileName).toFile();
+            if (xsd.isFile())
+                submit(() -> TDSRegistry.reload(xsd));
+        }
+    }
+
+    /**
+     * Submits a load to {@link #executor}, logging its failures.
+     *
+     * @param load load to be submitted
+     */
+    protected void submit(Runnable load) {
+        try {
+            executor.execute(() -> {
+                try {
+                    load.run();
+                } catch (RuntimeException e) {
+                    log.error("failed to reload a template", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("failed to submit a template reload", e);
+        }
+    }
+
+    /**
+     * Stops watching the folders and shuts down the pool, if owned by this instance, interrupting the templates still
+     * compiling.
+     */
+    @Override
+    public synchronized void close() {
+        log.trace("close({})", () -> "");
+        try {
+            if (watcher != null)
+                watcher.close();
+        } catch (IOException e) {
+            log.warn("failed to stop watching for changes", e);
+        }
+        if (thread != null)
+            thread.interrupt();
+        if (ownsExecutor)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Resolves a {@link File} into an absolute and normalized {@link Path}, so it can be compared to the paths of the
+     * events.
+     *
+     * @param file file or folder
+     * @return absolute and normalized path
+     */
+    protected static Path toPath(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+}
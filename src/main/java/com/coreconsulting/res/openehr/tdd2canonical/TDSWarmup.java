@@ -0,0 +1,147 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import lombok.Builder;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class implements the warm-up of the templates available locally, loading them into {@link TDSRegistry} ahead
+ * of their first request, in parallel on a bounded pool. Both the templates mapped through properties (@template_id
+ * to file name within {@link Properties#TEMPLATE_FOLDER}) and the other *.xsd files within that folder are loaded,
+ * from the cache when possible and compiled otherwise.
+ * Each template gets a future that completes once it is ready, and requests for a mapped template still warming wait
+ * for it rather than loading it again. Unmapped files can only be requested once registered, as their @template_id
+ * is only known after parsing them, so their futures are indexed by file name rather than @template_id.
+ * The {@link #start()} future completes once every template is ready (or failed), which allows gating traffic until
+ * all templates are loaded.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSWarmup implements AutoCloseable {
+
+    /**
+     * {@link ExecutorService} loading the templates.
+     */
+    protected final ExecutorService executor;
+    /**
+     * Whether {@link #executor} was created by this instance, and so must be shut down by it.
+     */
+    protected final boolean ownsExecutor;
+    /**
+     * Future of each template, indexed by @template_id (or file name, if unmapped), in order of submission.
+     */
+    protected final Map<String, CompletableFuture<TDS>> status = new LinkedHashMap<>();
+
+    /**
+     * Creates a warm-up. Every parameter is optional.
+     *
+     * @param executor {@link ExecutorService} to load the templates on, defaults to a fixed pool of
+     * {@link Properties#WARMUP_THREADS} daemon threads (or the number of available processors) owned by the warm-up
+     */
+    @Builder
+    public TDSWarmup(ExecutorService executor) {
+        log.trace("TDSWarmup({})", () -> executor);
+        if (executor == null) {
+            int threads = Integer.parseInt(Properties.getProperty(Properties.WARMUP_THREADS,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "tdd2canonical-warmup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.ownsExecutor = true;
+        } else {
+            this.executor = executor;
+            this.ownsExecutor = false;
+        }
+    }
+
+    /**
+     * Scans the mapped templates and {@link Properties#TEMPLATE_FOLDER}, and starts loading every template found.
+     *
+     * @return future that completes once every template is ready or failed
+     */
+    public synchronized CompletableFuture<Void> start() {
+        log.trace("start({})", () -> "");
+        File folder = new File(Properties.getProperty(Properties.TEMPLATE_FOLDER));
+        Set<String> mapped = new HashSet<>();
+        for (String templateId : Properties.getPropertyNames()) {
+            String fileName = Properties.getProperty(templateId);
+            if (new File(folder, fileName).isFile() == false)
+                continue;
+            mapped.add(fileName);
+            status.put(templateId, TDSRegistry.loadAsync(templateId, executor));
+        }
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".xsd") && mapped.contains(name) == false);
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files)
+                status.put(file.getName(), CompletableFuture.supplyAsync(() -> loadFile(file), executor));
+        }
+        log.info("warming up {} templates", status::size);
+        return CompletableFuture.allOf(status.values().toArray(new CompletableFuture[0]))
+                .handle((result, error) -> null);
+    }
+
+    /**
+     * Loads a template with no @template_id mapping and registers it.
+     *
+     * @param file TDS file
+     * @return the TDS instance, or null if it can't be parsed
+     */
+    protected TDS loadFile(File file) {
+        log.trace("loadFile({})", () -> file.getName());
+        TDS tds = new TDS(file);
+        if (tds.getXml() == null)
+            return null;
+        TDS cached = TDSRegistry.fromCache(tds.getTemplateId());
+        if (cached == null) {
+            tds.loadNodeCache();
+            cached = tds;
+        }
+        return TDSRegistry.register(cached);
+    }
+
+    /**
+     * Returns the future of each template submitted so far.
+     *
+     * @return futures indexed by @template_id (or file name, if unmapped)
+     */
+    public synchronized Map<String, CompletableFuture<TDS>> getStatus() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(status));
+    }
+
+    /**
+     * Returns whether every template submitted so far is ready (or failed).
+     *
+     * @return true if no template is still loading, false otherwise
+     */
+    public synchronized boolean isDone() {
+        return status.values().stream().allMatch(CompletableFuture::isDone);
+    }
+
+    /**
+     * Shuts down the pool, if owned by this instance, interrupting the templates still loading.
+     */
+    @Override
+    public void close() {
+        log.trace("close({})", () -> "");
+        if (ownsExecutor)
+            executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import com.coreconsulting.res.openehr.tdd2canonical.CanonicalOptions;
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import lombok.Builder;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements the asynchronous conversion of TDDs into openEHR Reference Model compositions, for callers
+ * that must never block (e.g. the event loop of a reactive gateway). Each conversion runs in three stages, each on
+ * its own {@link ExecutorService}, so a slow stage doesn't hold the threads of another:
+ * <ul>
+ *     <li>reading: the TDD is read and parsed from its source (see {@link TDDSource#read()}) on the
+ *     {@link #ioExecutor};</li>
+ *     <li>resolution: the TDS is looked up in memory and, only when it isn't there, loaded from the cache, the
+ *     templates folder or its remote location on the {@link #resolveExecutor} (see
+ *     {@link TDD#getTDSAsync(java.util.concurrent.Executor)}), so a cold template never stalls the other stages;</li>
+ *     <li>transformation: the TDD is transformed on the {@link #transformExecutor}.</li>
+ * </ul>
+ * The returned futures always complete normally, with a {@link ConversionResult} carrying either the composition or
+ * the exception that prevented it, as in {@link BatchConverter}. Executors can be provided, in which case they are not
+ * shut down by {@link #close()}; otherwise fixed pools with one thread per available processor read and transform,
+ * and a cached pool resolves, as resolutions are rare and mostly wait on I/O.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class AsyncConverter implements AutoCloseable {
+
+    /**
+     * {@link ExecutorService} reading and parsing the TDDs.
+     */
+    protected final ExecutorService ioExecutor;
+    /**
+     * {@link ExecutorService} resolving the TDSs that aren't in memory.
+     */
+    protected final ExecutorService resolveExecutor;
+    /**
+     * {@link ExecutorService} transforming the TDDs.
+     */
+    protected final ExecutorService transformExecutor;
+    /**
+     * Executors created by this converter, and so shut down by it.
+     */
+    protected final List<ExecutorService> ownedExecutors = new ArrayList<>();
+    /**
+     * Number of conversions submitted so far, used to index the results.
+     */
+    protected final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * Creates an asynchronous converter. Every parameter is optional.
+     *
+     * @param ioExecutor {@link ExecutorService} reading and parsing the TDDs, defaults to a fixed pool with one thread
+     * per available processor
+     * @param resolveExecutor {@link ExecutorService} resolving the TDSs that aren't in memory, defaults to a cached
+     * pool
+     * @param transformExecutor {@link ExecutorService} transforming the TDDs, defaults to a fixed pool with one thread
+     * per available processor
+     */
+    @Builder
+    public AsyncConverter(ExecutorService ioExecutor, ExecutorService resolveExecutor,
+                          ExecutorService transformExecutor) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.ioExecutor = ioExecutor != null ? ioExecutor : own(Executors.newFixedThreadPool(processors));
+        this.resolveExecutor = resolveExecutor != null ? resolveExecutor : own(Executors.newCachedThreadPool());
+        this.transformExecutor = transformExecutor != null ? transformExecutor :
+                own(Executors.newFixedThreadPool(processors));
+        log.trace("AsyncConverter({}, {}, {})", () -> this.ioExecutor, () -> this.resolveExecutor,
+                () -> this.transformExecutor);
+    }
+
+    /**
+     * Records an executor created by this converter, to be shut down by {@link #close()}.
+     *
+     * @param executor {@link ExecutorService} created by this converter
+     * @return the same executor
+     */
+    protected ExecutorService own(ExecutorService executor) {
+        ownedExecutors.add(executor);
+        return executor;
+    }
+
+    /**
+     * Converts a TDD asynchronously, transforming it in place, as it is read for this conversion only (see
+     * {@link CanonicalOptions#IN_PLACE}).
+     *
+     * @param source TDD to be converted
+     * @return future of the outcome of the conversion, which always completes normally
+     */
+    public CompletableFuture<ConversionResult> convertAsync(TDDSource source) {
+        return convertAsync(source, CanonicalOptions.IN_PLACE);
+    }
+
+    /**
+     * Converts a TDD asynchronously. The calling thread only submits the conversion, and the result is completed on
+     * the thread of its last stage, so dependent actions should be made asynchronous if they are not trivial.
+     *
+     * @param source TDD to be converted
+     * @param options options of the transformation
+     * @return future of the outcome of the conversion, which always completes normally
+     */
+    public CompletableFuture<ConversionResult> convertAsync(TDDSource source, CanonicalOptions options) {
+        long index = submitted.getAndIncrement();
+        String name = source.getName();
+        log.trace("convertAsync({}, {})", () -> index, () -> name);
+        CompletableFuture<TDD> read;
+        try {
+            read = CompletableFuture.supplyAsync(source::read, ioExecutor);
+        } catch (RejectedExecutionException e) {
+            log.warn("conversion of {} rejected by the executor", () -> name);
+            return CompletableFuture.completedFuture(new ConversionResult(index, name, null, e));
+        }
+        return read.thenCompose(this::resolve)
+                .thenApplyAsync(tdd -> {
+                    try {
+                        return tdd.toCanonical(options);
+                    } catch (UnsupportedTypeException e) {
+                        throw new CompletionException(e);
+                    }
+                }, transformExecutor)
+                .handle((composition, error) -> {
+                    if (error == null)
+                        return new ConversionResult(index, name, composition, null);
+                    Exception cause = unwrap(error);
+                    log.warn("failed to convert " + name, cause);
+                    return new ConversionResult(index, name, null, cause);
+                });
+    }
+
+    /**
+     * Resolves the TDS of a TDD read, failing if the TDD couldn't be read or the TDS is unavailable.
+     *
+     * @param tdd TDD read from its source
+     * @return future of the same TDD, once its TDS is resolved
+     */
+    protected CompletableFuture<TDD> resolve(TDD tdd) {
+        if (tdd.getXml() == null) {
+            throw new CompletionException(tdd.getError() != null ? tdd.getError() :
+                    new IllegalStateException("failed to read the TDD"));
+        }
+        return tdd.getTDSAsync(resolveExecutor).thenApply(tds -> {
+            if (tds == null) {
+                throw new CompletionException(
+                        new IllegalStateException("no TDS available for @template_id=" + tdd.getTemplateId()));
+            }
+            return tdd;
+        });
+    }
+
+    /**
+     * Unwraps the exception that failed a stage of a conversion.
+     *
+     * @param error {@link Throwable} completing the stage, possibly wrapped in a {@link CompletionException}
+     * @return the {@link Exception} that failed the stage, or an {@link ExecutionException} wrapping an error
+     */
+    protected static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+    }
+
+    /**
+     * Shuts down the executors created by this converter. Conversions still in flight may then fail with a
+     * {@link RejectedExecutionException} when reaching their next stage, so it should only be called once they
+     * complete.
+     */
+    @Override
+    public void close() {
+        log.trace("close({})", () -> "");
+        ownedExecutors.forEach(ExecutorService::shutdown);
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import com.coreconsulting.res.openehr.tdd2canonical.CanonicalOptions;
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * This class implements the conversion of batches of TDDs into openEHR Reference Model compositions, running each
+ * conversion on an {@link ExecutorService} while the calling thread reads the sources and delivers the results.
+ * At most {@link #maxInFlight} documents are read, converted or waiting for delivery at any time, so the sources are
+ * consumed only as fast as the conversions complete and memory use doesn't grow with the size of the batch. Results
+ * are delivered on the calling thread, either in the order of the sources or as soon as they complete, and a failing
+ * document is reported in its {@link ConversionResult} instead of aborting the batch.
+ * The executor can be provided (e.g. a virtual thread per task executor on runtimes that support them), in which case
+ * it is not shut down by {@link #close()}; otherwise a fixed pool with one thread per available processor is created.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class BatchConverter implements AutoCloseable {
+
+    /**
+     * {@link ExecutorService} running the conversions.
+     */
+    protected final ExecutorService executor;
+    /**
+     * Whether {@link #executor} was created by this converter, and so must be shut down by it.
+     */
+    protected final boolean ownsExecutor;
+    /**
+     * Maximum number of documents read, converted or waiting for delivery at any time.
+     */
+    @Getter
+    protected final int maxInFlight;
+    /**
+     * Whether results are delivered in the order of the sources, rather than as soon as they complete.
+     */
+    @Getter
+    protected final boolean ordered;
+
+    /**
+     * Creates a batch converter. Every parameter is optional.
+     *
+     * @param executor {@link ExecutorService} running the conversions, defaults to a fixed pool with one thread per
+     * available processor
+     * @param maxInFlight maximum number of documents in flight, defaults to twice the number of available processors
+     * @param ordered whether results are delivered in the order of the sources, defaults to true
+     */
+    @Builder
+    public BatchConverter(ExecutorService executor, int maxInFlight, Boolean ordered) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.ownsExecutor = executor == null;
+        this.executor = executor == null ? Executors.newFixedThreadPool(processors) : executor;
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : 2 * processors;
+        this.ordered = ordered == null || ordered;
+        log.trace("BatchConverter({}, {}, {})", () -> this.executor, () -> this.maxInFlight, () -> this.ordered);
+    }
+
+    /**
+     * Converts a batch of TDDs, blocking until every result is delivered.
+     *
+     * @param sources {@link Stream} of TDDs to be converted
+     * @param consumer {@link Consumer} of the results, called on the calling thread
+     * @return number of documents converted successfully
+     * @throws InterruptedException when interrupted while waiting for results
+     */
+    public long convert(Stream<? extends TDDSource> sources, Consumer<? super ConversionResult> consumer)
+            throws InterruptedException {
+        return convert(sources.iterator(), consumer);
+    }
+
+    /**
+     * Converts a batch of TDDs, blocking until every result is delivered. The sources are consumed lazily, as the
+     * number of documents in flight drops below {@link #maxInFlight}. If the consumer throws, the exception is
+     * propagated and the conversions still running are left to complete in the background.
+     *
+     * @param sources {@link Iterator} of TDDs to be converted
+     * @param consumer {@link Consumer} of the results, called on the calling thread
+     * @return number of documents converted successfully
+     * @throws InterruptedException when interrupted while waiting for results
+     */
+    public long convert(Iterator<? extends TDDSource> sources, Consumer<? super ConversionResult> consumer)
+            throws InterruptedException {
+        log.trace("convert({})", () -> "...");
+        BlockingQueue<ConversionResult> completed = new LinkedBlockingQueue<>();
+        // Results completed ahead of their turn, when delivering in order
+        Map<Long, ConversionResult> pending = new HashMap<>();
+        long submitted = 0;
+        long delivered = 0;
+        long successful = 0;
+        while (true) {
+            if (submitted - delivered < maxInFlight && sources.hasNext()) {
+                TDDSource source = sources.next();
+                long index = submitted++;
+                try {
+                    executor.execute(() -> completed.add(convert(index, source)));
+                } catch (RejectedExecutionException e) {
+                    log.warn("conversion of {} rejected by the executor", () -> source.getName());
+                    completed.add(new ConversionResult(index, source.getName(), null, e));
+                }
+                continue;
+            }
+            if (submitted == delivered)
+                break;
+
+            ConversionResult result = completed.take();
+            if (ordered)
+                pending.put(result.getIndex(), result);
+            // Deliver every result whose turn has come (a single one when unordered)
+            while (result != null) {
+                if (result.isSuccessful())
+                    successful++;
+                delivered++;
+                consumer.accept(result);
+                result = ordered ? pending.remove(delivered) : null;
+            }
+        }
+        long _successful = successful;
+        long _delivered = delivered;
+        log.info("converted {} out of {} TDDs", () -> _successful, () -> _delivered);
+        return successful;
+    }
+
+    /**
+     * Converts a container of TDDs into a container of compositions, streaming both (see {@link ContainerReader} and
+     * {@link ContainerWriter}). Their formats are guessed from the file names, and the wrapper element of a
+     * {@link ContainerFormat#WRAPPED} input is reused by a wrapped output. TDDs that fail to convert are logged and
+     * left out of the output.
+     *
+     * @param input container of TDDs
+     * @param output container of compositions, overwritten if it exists
+     * @return number of documents converted successfully
+     * @throws IOException when either container can't be read or written
+     * @throws InterruptedException when interrupted while waiting for results
+     */
+    public long convert(File input, File output) throws IOException, InterruptedException {
+        log.trace("convert({}, {})", () -> input.getPath(), () -> output.getPath());
+        try (ContainerReader reader = ContainerReader.open(input)) {
+            // Reads ahead the first TDD, so the wrapper element is known before the output is started
+            reader.hasNext();
+            try (ContainerWriter writer = ContainerWriter.open(output, reader.getWrapper())) {
+                return convert(reader, writer);
+            }
+        }
+    }
+
+    /**
+     * Converts a single TDD, capturing any failure in the result, errors included (wrapped in an
+     * {@link ExecutionException}).
+     *
+     * @param index position of the source within the batch
+     * @param source TDD to be converted
+     * @return outcome of the conversion
+     */
+    protected ConversionResult convert(long index, TDDSource source) {
+        String name = source.getName();
+        log.trace("convert({}, {})", () -> index, () -> name);
+        try {
+            TDD tdd = source.read();
+            if (tdd.getXml() == null) {
+                Exception error = tdd.getError() != null ? tdd.getError() :
+                        new IllegalStateException("failed to read the TDD");
+                return new ConversionResult(index, name, null, error);
+            }
+            if (tdd.getTDS() == null) {
+                return new ConversionResult(index, name, null,
+                        new IllegalStateException("no TDS available for @template_id=" + tdd.getTemplateId()));
+            }
+            // The TDD is read for this conversion only, so it is transformed in place rather than cloned
+            Document composition = tdd.toCanonical(CanonicalOptions.IN_PLACE);
+            return new ConversionResult(index, name, composition, null);
+        } catch (Throwable e) {
+            // Errors are captured too, as a task that doesn't enqueue its result would block the batch forever
+            Exception error = e instanceof Exception ? (Exception) e : new ExecutionException(e);
+            log.warn("failed to convert " + name, e);
+            return new ConversionResult(index, name, null, error);
+        }
+    }
+
+    /**
+     * Shuts down the {@link ExecutorService} if it was created by this converter.
+     */
+    @Override
+    public void close() {
+        log.trace("close({})", () -> "");
+        if (ownsExecutor)
+            executor.shutdown();
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+/**
+ * This enumeration lists the formats of containers holding several TDDs (or compositions) in a single file, read by
+ * {@link ContainerReader} and written by {@link ContainerWriter}.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+public enum ContainerFormat {
+
+    /**
+     * XML document whose root element wraps one document per child element, e.g.
+     * {@code <compositions><composition .../><composition .../></compositions>}.
+     */
+    WRAPPED,
+    /**
+     * ZIP archive with one document per *.xml entry.
+     */
+    ZIP,
+    /**
+     * Newline-delimited JSON with one document per line, either as a JSON string or as a JSON object holding the
+     * document in its "xml" member (and optionally its name in the "name" member).
+     */
+    NDJSON;
+
+    /**
+     * Guesses the format of a container from its file name: *.zip files are {@link #ZIP}, *.ndjson, *.jsonl and
+     * *.json files are {@link #NDJSON}, and anything else is {@link #WRAPPED}.
+     *
+     * @param fileName name of the container file
+     * @return format of the container
+     */
+    public static ContainerFormat of(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".zip"))
+            return ZIP;
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json"))
+            return NDJSON;
+        return WRAPPED;
+    }
+
+}
@@ -0,0 +1,620 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import lombok.extern.log4j.Log4j2;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * This class implements the splitting of a container holding several TDDs (see {@link ContainerFormat}) into
+ * individual {@link TDDSource} instances, which can be fed straight into a {@link BatchConverter}. The container is
+ * streamed: each TDD is only read from it as the iteration reaches it, and only its own bytes are kept in memory, so
+ * multi-gigabyte exports don't need to be split on disk first. Sources are named after the container and their
+ * position (e.g. "export.xml#1") or, when the container names them, after their ZIP entry or NDJSON "name" member.
+ * A container that can't be read any further (e.g. malformed XML) ends the iteration with an
+ * {@link UncheckedIOException}; in NDJSON containers, malformed lines are skipped instead.
+ * Instances are not thread-safe, and must be closed to release the underlying stream.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public abstract class ContainerReader implements Iterator<TDDSource>, AutoCloseable {
+
+    /**
+     * Size of the buffer used to read container files, in bytes.
+     */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Name of the container, used to name its sources.
+     */
+    protected final String name;
+    /**
+     * Next source to be returned, or null if not read yet.
+     */
+    protected TDDSource next;
+    /**
+     * Number of sources read so far.
+     */
+    protected long count;
+
+    /**
+     * Creates a reader.
+     *
+     * @param name name of the container
+     */
+    protected ContainerReader(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Opens a container file, guessing its format from its name (see {@link ContainerFormat#of(String)}).
+     *
+     * @param file container file
+     * @return reader of the container
+     * @throws IOException when the file can't be opened
+     */
+    public static ContainerReader open(File file) throws IOException {
+        log.trace("open({})", () -> file.getPath());
+        InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            return open(input, file.getPath(), ContainerFormat.of(file.getName()));
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a container from an {@link InputStream}, which is closed along with the reader.
+     *
+     * @param input {@link InputStream} providing the container
+     * @param name name of the container, used to name its sources
+     * @param format format of the container
+     * @return reader of the container
+     * @throws IOException when the container can't be read
+     */
+    public static ContainerReader open(InputStream input, String name, ContainerFormat format) throws IOException {
+        log.trace("open({}, {})", () -> name, () -> format);
+        switch (format) {
+            case ZIP:
+                return new ZipReader(input, name);
+            case NDJSON:
+                return new NDJSONReader(input, name);
+            default:
+                return new WrappedReader(input, name);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read the container " + name, e);
+            }
+            if (next != null)
+                count++;
+        }
+        return next != null;
+    }
+
+    @Override
+    public TDDSource next() {
+        if (hasNext() == false)
+            throw new NoSuchElementException();
+        TDDSource source = next;
+        next = null;
+        return source;
+    }
+
+    /**
+     * Reads the next TDD from the container.
+     *
+     * @return source of the next TDD, or null if the container has no more TDDs
+     * @throws IOException when the container can't be read
+     */
+    protected abstract TDDSource readNext() throws IOException;
+
+    /**
+     * Returns the number of TDDs read from the container so far.
+     *
+     * @return number of TDDs read
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the local name of the element wrapping the TDDs, so a matching container can be written (see
+     * {@link ContainerWriter}).
+     *
+     * @return local name of the wrapper element, or null if the container isn't {@link ContainerFormat#WRAPPED} or
+     * wasn't read yet
+     */
+    public String getWrapper() {
+        return null;
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException when the stream can't be closed
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * Reads the remaining bytes of an {@link InputStream}, which is not closed.
+     *
+     * @param input {@link InputStream} to be read
+     * @param size expected number of bytes, or a negative number if unknown
+     * @return bytes read
+     * @throws IOException when the stream can't be read
+     */
+    protected static byte[] readFully(InputStream input, long size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ?
+                (int) size : 8 * 1024);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = input.read(buffer)) >= 0)
+            bytes.write(buffer, 0, read);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This class implements the reader of {@link ContainerFormat#WRAPPED} containers, copying each child element of
+     * the root element into a document of its own through StAX. Namespaces declared on the root element are declared
+     * again on each TDD, so their prefixes remain bound.
+     */
+    protected static class WrappedReader extends ContainerReader {
+
+        /**
+         * Factory of container readers, shared as it is thread-safe once configured.
+         */
+        protected static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        /**
+         * Factory of TDD writers, shared as it is thread-safe once configured.
+         */
+        protected static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+        /**
+         * Factory of the events written into the TDDs.
+         */
+        protected static final XMLEventFactory events = XMLEventFactory.newInstance();
+
+        static {
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        }
+
+        /**
+         * Stream providing the container.
+         */
+        protected final InputStream input;
+        /**
+         * Reader of the container.
+         */
+        protected final XMLEventReader reader;
+        /**
+         * Root element of the container, once read.
+         */
+        protected StartElement wrapper;
+
+        /**
+         * Creates a reader of a wrapped container.
+         *
+         * @param input {@link InputStream} providing the container
+         * @param name name of the container
+         * @throws IOException when the container can't be read
+         */
+        protected WrappedReader(InputStream input, String name) throws IOException {
+            super(name);
+            this.input = input;
+            try {
+                this.reader = inputFactory.createXMLEventReader(input);
+            } catch (XMLStreamException e) {
+                throw new IOException("malformed container", e);
+            }
+        }
+
+        @Override
+        protected TDDSource readNext() throws IOException {
+            try {
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (event.isStartElement() == false)
+                        continue;
+                    if (wrapper == null) {
+                        wrapper = event.asStartElement();
+                        log.debug("reading TDDs wrapped by {}", () -> wrapper.getName());
+                        continue;
+                    }
+                    // Every element at this point is a child of the wrapper, as the TDDs are consumed whole
+                    return TDDSource.of(name + "#" + (count + 1), copy(event.asStartElement()));
+                }
+                return null;
+            } catch (XMLStreamException e) {
+                throw new IOException("malformed container", e);
+            }
+        }
+
+        /**
+         * Copies a child element of the wrapper, and its descendants, into a document of its own.
+         *
+         * @param start start of the child element
+         * @return document serialized into UTF-8
+         * @throws XMLStreamException when the container is malformed or ends within the element
+         */
+        protected byte[] copy(StartElement start) throws XMLStreamException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+            XMLEventWriter writer = outputFactory.createXMLEventWriter(bytes, "UTF-8");
+            writer.add(events.createStartDocument("UTF-8", "1.0"));
+            writer.add(inheritNamespaces(start));
+            int depth = 1;
+            while (depth > 0) {
+                if (reader.hasNext() == false)
+                    throw new XMLStreamException("the container ends within a TDD");
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement())
+                    depth++;
+                else if (event.isEndElement())
+                    depth--;
+                writer.add(event);
+            }
+            writer.add(events.createEndDocument());
+            writer.close();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Declares the namespaces of the wrapper on a child element, unless it declares the same prefixes itself.
+         *
+         * @param start start of the child element
+         * @return start of the child element, declaring the namespaces in scope
+         */
+        protected StartElement inheritNamespaces(StartElement start) {
+            List<Namespace> namespaces = new ArrayList<>();
+            Set<String> prefixes = new HashSet<>();
+            for (Iterator<?> i = start.getNamespaces(); i.hasNext(); ) {
+                Namespace namespace = (Namespace) i.next();
+                namespaces.add(namespace);
+                prefixes.add(namespace.getPrefix());
+            }
+            for (Iterator<?> i = wrapper.getNamespaces(); i.hasNext(); ) {
+                Namespace namespace = (Namespace) i.next();
+                if (prefixes.add(namespace.getPrefix()))
+                    namespaces.add(namespace);
+            }
+            return events.createStartElement(start.getName().getPrefix(), start.getName().getNamespaceURI(),
+                    start.getName().getLocalPart(), start.getAttributes(), namespaces.iterator());
+        }
+
+        @Override
+        public String getWrapper() {
+            return wrapper == null ? null : wrapper.getName().getLocalPart();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                log.warn("failed to close the container reader", e);
+            }
+            input.close();
+        }
+
+    }
+
+    /**
+     * This class implements the reader of {@link ContainerFormat#ZIP} containers, reading each *.xml entry (in the
+     * order they are stored) as a TDD named after the entry.
+     */
+    protected static class ZipReader extends ContainerReader {
+
+        /**
+         * Stream providing the entries of the container.
+         */
+        protected final ZipInputStream zip;
+
+        /**
+         * Creates a reader of a ZIP container.
+         *
+         * @param input {@link InputStream} providing the container
+         * @param name name of the container
+         */
+        protected ZipReader(InputStream input, String name) {
+            super(name);
+            this.zip = new ZipInputStream(input, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected TDDSource readNext() throws IOException {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory() || entry.getName().toLowerCase().endsWith(".xml") == false)
+                    continue;
+                byte[] bytes = readFully(zip, entry.getSize());
+                zip.closeEntry();
+                return TDDSource.of(entry.getName(), bytes);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+
+    }
+
+    /**
+     * This class implements the reader of {@link ContainerFormat#NDJSON} containers, reading each line either as a
+     * JSON string or as a JSON object with "xml" (and optionally "name") string members. Blank lines are ignored, and
+     * malformed lines are logged and skipped.
+     */
+    protected static class NDJSONReader extends ContainerReader {
+
+        /**
+         * Member of the JSON objects holding the TDD.
+         */
+        public static final String XML_MEMBER = "xml";
+        /**
+         * Member of the JSON objects holding the name of the TDD.
+         */
+        public static final String NAME_MEMBER = "name";
+
+        /**
+         * Reader of the lines of the container.
+         */
+        protected final BufferedReader reader;
+        /**
+         * Number of lines read so far.
+         */
+        protected long lines;
+
+        /**
+         * Creates a reader of a NDJSON container.
+         *
+         * @param input {@link InputStream} providing the container
+         * @param name name of the container
+         */
+        protected NDJSONReader(InputStream input, String name) {
+            super(name);
+            this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        protected TDDSource readNext() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long number = ++lines;
+                if (line.trim().isEmpty())
+                    continue;
+                try {
+                    String[] document = parse(line);
+                    String documentName = document[0] != null ? document[0] : name + ":" + number;
+                    return TDDSource.of(documentName, document[1].getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    log.warn("skipping malformed line {} of {}: {}", () -> number, () -> name, e::getMessage);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Parses a line into the name (if any) and the TDD it holds.
+         *
+         * @param line line to be parsed
+         * @return the name of the TDD (or null) followed by the TDD
+         * @throws IOException when the line is malformed or holds no TDD
+         */
+        protected static String[] parse(String line) throws IOException {
+            JSONCursor json = new JSONCursor(line);
+            String[] document = new String[2];
+            if (json.peek() == '"') {
+                document[1] = json.readString();
+            } else {
+                json.expect('{');
+                if (json.peek() != '}') {
+                    do {
+                        String member = json.readString();
+                        json.expect(':');
+                        if (json.peek() == '"' && member.equals(NAME_MEMBER))
+                            document[0] = json.readString();
+                        else if (json.peek() == '"' && member.equals(XML_MEMBER))
+                            document[1] = json.readString();
+                        else
+                            json.skipValue();
+                    } while (json.consume(','));
+                }
+                json.expect('}');
+            }
+            if (json.peek() != 0)
+                throw new IOException("unexpected content after the JSON value");
+            if (document[1] == null)
+                throw new IOException("no \"" + XML_MEMBER + "\" member");
+            return document;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+    }
+
+    /**
+     * This class implements the minimal JSON parsing needed by {@link NDJSONReader}: strings, and skipping any other
+     * value.
+     */
+    protected static class JSONCursor {
+
+        /**
+         * Text being parsed.
+         */
+        protected final String text;
+        /**
+         * Position of the next character to be parsed.
+         */
+        protected int position;
+
+        /**
+         * Creates a cursor at the start of a text.
+         *
+         * @param text text to be parsed
+         */
+        protected JSONCursor(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Skips whitespace and returns the next character, without consuming it.
+         *
+         * @return next character, or 0 at the end of the text
+         */
+        protected char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+                position++;
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        /**
+         * Consumes the next character if it is the expected one.
+         *
+         * @param c expected character
+         * @return true if it was consumed, false otherwise
+         */
+        protected boolean consume(char c) {
+            if (peek() != c)
+                return false;
+            position++;
+            return true;
+        }
+
+        /**
+         * Consumes the next character, which must be the expected one.
+         *
+         * @param c expected character
+         * @throws IOException when the next character is another one
+         */
+        protected void expect(char c) throws IOException {
+            if (consume(c) == false)
+                throw new IOException("expected '" + c + "' at position " + position);
+        }
+
+        /**
+         * Reads a string, unescaping it.
+         *
+         * @return string read
+         * @throws IOException when the string is malformed
+         */
+        protected String readString() throws IOException {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"')
+                    return builder.toString();
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+                if (position >= text.length())
+                    break;
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length())
+                            throw new IOException("malformed escape at position " + position);
+                        try {
+                            builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("malformed escape at position " + position);
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        builder.append(escaped);
+                }
+            }
+            throw new IOException("unterminated string");
+        }
+
+        /**
+         * Skips a value of any type.
+         *
+         * @throws IOException when the value is malformed
+         */
+        protected void skipValue() throws IOException {
+            char c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = peek();
+                    if (c == '"') {
+                        readString();
+                        continue;
+                    }
+                    if (c == 0)
+                        throw new IOException("unterminated object or array");
+                    if (c == '{' || c == '[')
+                        depth++;
+                    else if (c == '}' || c == ']')
+                        depth--;
+                    position++;
+                } while (depth > 0);
+            } else {
+                int start = position;
+                while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) < 0)
+                    position++;
+                if (position == start)
+                    throw new IOException("expected a value at position " + position);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,274 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import com.coreconsulting.res.openehr.tdd2canonical.stream.JSONEventWriter;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLSerializer;
+import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.Document;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class implements the writing of the compositions converted by a {@link BatchConverter} into a container of
+ * the same kind the TDDs were read from (see {@link ContainerFormat} and {@link ContainerReader}), as a
+ * {@link Consumer} of {@link ConversionResult}s. Each composition is written as soon as it is delivered, so only one
+ * of them is held by the writer at any time. Failed results are logged and skipped, and counted in
+ * {@link #getFailed()}. Instances are not thread-safe, and must be closed to complete the container.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public abstract class ContainerWriter implements Consumer<ConversionResult>, AutoCloseable {
+
+    /**
+     * Local name of the element wrapping the compositions in {@link ContainerFormat#WRAPPED} containers, when not
+     * given.
+     */
+    public static final String DEFAULT_WRAPPER = "compositions";
+    /**
+     * Size of the buffer used to write container files, in bytes.
+     */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of compositions written so far.
+     */
+    protected long written;
+    /**
+     * Number of failed results skipped so far.
+     */
+    protected long failed;
+
+    /**
+     * Opens a container file, guessing its format from its name (see {@link ContainerFormat#of(String)}).
+     *
+     * @param file container file
+     * @param wrapper local name of the wrapper element, defaults to {@link #DEFAULT_WRAPPER}
+     * @return writer of the container
+     * @throws IOException when the file can't be opened
+     */
+    public static ContainerWriter open(File file, String wrapper) throws IOException {
+        log.trace("open({}, {})", () -> file.getPath(), () -> wrapper);
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        try {
+            return open(output, ContainerFormat.of(file.getName()), wrapper);
+        } catch (IOException | RuntimeException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a container on an {@link OutputStream}, which is closed along with the writer.
+     *
+     * @param output {@link OutputStream} receiving the container
+     * @param format format of the container
+     * @param wrapper local name of the wrapper element, defaults to {@link #DEFAULT_WRAPPER}
+     * @return writer of the container
+     * @throws IOException when the container can't be written
+     */
+    public static ContainerWriter open(OutputStream output, ContainerFormat format, String wrapper)
+            throws IOException {
+        log.trace("open({}, {})", () -> format, () -> wrapper);
+        switch (format) {
+            case ZIP:
+                return new ZipWriter(output);
+            case NDJSON:
+                return new NDJSONWriter(output);
+            default:
+                return new WrappedWriter(output, wrapper != null ? wrapper : DEFAULT_WRAPPER);
+        }
+    }
+
+    /**
+     * Writes the composition of a successful result into the container, or skips a failed one.
+     *
+     * @param result outcome of a conversion
+     * @throws UncheckedIOException when the container can't be written
+     */
+    @Override
+    public void accept(ConversionResult result) {
+        log.trace("accept({})", result::getName);
+        if (result.isSuccessful() == false) {
+            failed++;
+            log.warn("skipping {}, which failed to convert: {}", result::getName, () -> result.getError().toString());
+            return;
+        }
+        try {
+            write(result.getName(), result.getComposition());
+            written++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write " + result.getName(), e);
+        }
+    }
+
+    /**
+     * Writes a composition into the container.
+     *
+     * @param name name of the TDD the composition was converted from
+     * @param composition composition to be written
+     * @throws IOException when the container can't be written
+     */
+    protected abstract void write(String name, Document composition) throws IOException;
+
+    /**
+     * Returns the number of compositions written so far.
+     *
+     * @return number of compositions written
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Returns the number of failed results skipped so far.
+     *
+     * @return number of failed results
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Completes the container and closes the underlying stream.
+     *
+     * @throws IOException when the container can't be completed
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * This class implements the writer of {@link ContainerFormat#WRAPPED} containers, writing each composition as a
+     * child of the wrapper element, one per line.
+     */
+    protected static class WrappedWriter extends ContainerWriter {
+
+        /**
+         * Stream receiving the container.
+         */
+        protected final OutputStream output;
+        /**
+         * Local name of the wrapper element.
+         */
+        protected final String wrapper;
+
+        /**
+         * Creates a writer of a wrapped container, writing its start.
+         *
+         * @param output {@link OutputStream} receiving the container
+         * @param wrapper local name of the wrapper element
+         * @throws IOException when the container can't be written
+         */
+        protected WrappedWriter(OutputStream output, String wrapper) throws IOException {
+            this.output = output;
+            this.wrapper = wrapper;
+            output.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?><" + wrapper + ">\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        protected void write(String name, Document composition) throws IOException {
+            XMLSerializer.write(composition.getDocumentElement(), output);
+            output.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                output.write(("</" + wrapper + ">\n").getBytes(StandardCharsets.UTF_8));
+            } finally {
+                output.close();
+            }
+        }
+
+    }
+
+    /**
+     * This class implements the writer of {@link ContainerFormat#ZIP} containers, writing each composition into an
+     * entry named after its TDD.
+     */
+    protected static class ZipWriter extends ContainerWriter {
+
+        /**
+         * Stream receiving the entries of the container.
+         */
+        protected final ZipOutputStream zip;
+
+        /**
+         * Creates a writer of a ZIP container.
+         *
+         * @param output {@link OutputStream} receiving the container
+         */
+        protected ZipWriter(OutputStream output) {
+            this.zip = new ZipOutputStream(output, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void write(String name, Document composition) throws IOException {
+            zip.putNextEntry(new ZipEntry(name.toLowerCase().endsWith(".xml") ? name : name + ".xml"));
+            XMLSerializer.write(composition, zip);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+
+    }
+
+    /**
+     * This class implements the writer of {@link ContainerFormat#NDJSON} containers, writing each composition as a
+     * line holding a JSON object with "name" and "xml" members.
+     */
+    protected static class NDJSONWriter extends ContainerWriter {
+
+        /**
+         * Writer of the lines of the container.
+         */
+        protected final Writer writer;
+        /**
+         * Buffer the compositions are serialized into, reused across them.
+         */
+        protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+
+        /**
+         * Creates a writer of a NDJSON container.
+         *
+         * @param output {@link OutputStream} receiving the container
+         */
+        protected NDJSONWriter(OutputStream output) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void write(String name, Document composition) throws IOException {
+            buffer.reset();
+            XMLSerializer.write(composition, buffer);
+            writer.write("{\"" + ContainerReader.NDJSONReader.NAME_MEMBER + "\":");
+            JSONEventWriter.writeString(writer, name);
+            writer.write(",\"" + ContainerReader.NDJSONReader.XML_MEMBER + "\":");
+            JSONEventWriter.writeString(writer, new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+            writer.write("}\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+    }
+
+}
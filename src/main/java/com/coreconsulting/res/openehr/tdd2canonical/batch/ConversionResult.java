@@ -0,0 +1,56 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import lombok.Getter;
+import org.w3c.dom.Document;
+
+/**
+ * This class holds the outcome of converting a single TDD within a batch (see {@link BatchConverter}): either the
+ * composition or the {@link Exception} that prevented it, so a failing document doesn't abort the batch.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Getter
+public class ConversionResult {
+
+    /**
+     * Position of the source within the batch, starting from 0.
+     */
+    protected final long index;
+    /**
+     * Name of the source (see {@link TDDSource#getName()}).
+     */
+    protected final String name;
+    /**
+     * openEHR Reference Model composition generated from the TDD, or null if the conversion failed.
+     */
+    protected final Document composition;
+    /**
+     * {@link Exception} that prevented the conversion, or null if it succeeded.
+     */
+    protected final Exception error;
+
+    /**
+     * Creates the outcome of converting a TDD.
+     *
+     * @param index position of the source within the batch
+     * @param name name of the source
+     * @param composition composition generated from the TDD
+     * @param error {@link Exception} that prevented the conversion
+     */
+    public ConversionResult(long index, String name, Document composition, Exception error) {
+        this.index = index;
+        this.name = name;
+        this.composition = composition;
+        this.error = error;
+    }
+
+    /**
+     * Returns whether the TDD was converted.
+     *
+     * @return true if the conversion succeeded, false otherwise
+     */
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+}
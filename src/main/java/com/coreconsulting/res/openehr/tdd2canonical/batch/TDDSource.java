@@ -0,0 +1,163 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XML;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This interface represents a TDD to be converted by a {@link BatchConverter}, which is only read (parsed) when
+ * converted, on one of the converter's threads, so a batch can hold millions of sources without holding their
+ * documents in memory.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+public interface TDDSource {
+
+    /**
+     * Size from which files are memory-mapped rather than read through buffered streams (see {@link XML#map(File)}),
+     * in bytes.
+     */
+    long MAPPING_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Returns a name identifying the source in the results (e.g. the file path).
+     *
+     * @return name of the source
+     */
+    String getName();
+
+    /**
+     * Reads the TDD from the source. Parsing failures are recorded in the TDD (see
+     * {@link com.coreconsulting.res.openehr.tdd2canonical.util.XML#getError()}) rather than thrown.
+     *
+     * @return the TDD read from the source
+     */
+    TDD read();
+
+    /**
+     * Creates a source for a TDD available on the local filesystem. Files of at least {@link #MAPPING_THRESHOLD}
+     * bytes are memory-mapped, falling back to reading the file if it can't be mapped.
+     *
+     * @param file XML document available on the local filesystem
+     * @return source for the file
+     */
+    static TDDSource of(File file) {
+        return new TDDSource() {
+            @Override
+            public String getName() {
+                return file.getPath();
+            }
+
+            @Override
+            public TDD read() {
+                if (file.length() >= MAPPING_THRESHOLD) {
+                    try {
+                        return new TDD(XML.map(file));
+                    } catch (IOException e) {
+                        // Reading the file reports the failure in the TDD, if it persists
+                    }
+                }
+                return new TDD(file);
+            }
+        };
+    }
+
+    /**
+     * Creates a source for a TDD already in memory.
+     *
+     * @param name name identifying the source
+     * @param bytes XML document
+     * @return source for the bytes
+     */
+    static TDDSource of(String name, byte[] bytes) {
+        return new TDDSource() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public TDD read() {
+                return new TDD(new ByteArrayInputStream(bytes));
+            }
+        };
+    }
+
+    /**
+     * Lists the TDDs (*.xml files) within a directory and its subdirectories, in name order. Directories are only
+     * listed as the iteration reaches them, so arbitrarily large trees can be traversed.
+     *
+     * @param directory directory to be traversed
+     * @return {@link Iterator} of sources for the files within the directory
+     */
+    static Iterator<TDDSource> fromDirectory(File directory) {
+        return new DirectoryIterator(directory);
+    }
+
+    /**
+     * This class implements the lazy, depth-first traversal behind {@link #fromDirectory(File)}.
+     */
+    @Log4j2
+    class DirectoryIterator implements Iterator<TDDSource> {
+
+        /**
+         * Files and directories yet to be visited, next one first.
+         */
+        protected final Deque<File> pending = new ArrayDeque<>();
+        /**
+         * Next TDD file to be returned, or null if not found yet.
+         */
+        protected File next;
+
+        /**
+         * Creates an iterator over the TDD files within a directory.
+         *
+         * @param directory directory to be traversed
+         */
+        protected DirectoryIterator(File directory) {
+            log.trace("DirectoryIterator({})", () -> directory.getPath());
+            pending.push(directory);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && pending.isEmpty() == false) {
+                File file = pending.pop();
+                if (file.isDirectory()) {
+                    File[] files = file.listFiles();
+                    if (files == null) {
+                        log.warn("failed to list directory {}", () -> file.getPath());
+                        continue;
+                    }
+                    // Push in reverse order so the files are visited in name order
+                    Arrays.sort(files);
+                    for (int i = files.length - 1; i >= 0; i--)
+                        pending.push(files[i]);
+                } else if (file.getName().toLowerCase().endsWith(".xml")) {
+                    next = file;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public TDDSource next() {
+            if (hasNext() == false)
+                throw new NoSuchElementException();
+            File file = next;
+            next = null;
+            return of(file);
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.coreconsulting.res.openehr.tdd2canonical.flat;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class accumulates flattened compositions (see {@link FlatConverter}) as a columnar batch, one column per path
+ * and one row per composition, to be loaded into column-oriented stores. Columns are created as new paths show up,
+ * in order of appearance, and rows that lack a path hold null in its column.
+ * Instances are not thread-safe.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class FlatBatch {
+
+    /**
+     * Values of each path, indexed by path in order of appearance.
+     */
+    protected final Map<String, List<String>> columns = new LinkedHashMap<>();
+    /**
+     * Number of rows added so far.
+     */
+    @Getter
+    protected int rowCount;
+
+    /**
+     * Adds a flattened composition as a row.
+     *
+     * @param flat {@link Map} of paths to values
+     */
+    public void add(Map<String, String> flat) {
+        log.trace("add({})", flat::size);
+        for (Map.Entry<String, String> entry : flat.entrySet()) {
+            List<String> column = columns.get(entry.getKey());
+            if (column == null) {
+                column = new ArrayList<>(Collections.nCopies(rowCount, null));
+                columns.put(entry.getKey(), column);
+            }
+            column.add(entry.getValue());
+        }
+        rowCount++;
+        for (List<String> column : columns.values()) {
+            if (column.size() < rowCount)
+                column.add(null);
+        }
+    }
+
+    /**
+     * Returns the paths of the columns, in order of appearance.
+     *
+     * @return paths of the columns
+     */
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * Returns the values of a column, one per row.
+     *
+     * @param path path of the column
+     * @return values of the column, or null if no row has such path
+     */
+    public List<String> getColumn(String path) {
+        List<String> column = columns.get(path);
+        return column == null ? null : Collections.unmodifiableList(column);
+    }
+
+    /**
+     * Writes the batch as CSV (RFC 4180), with a header of paths and empty fields for null values. The {@link Writer}
+     * is neither flushed nor closed.
+     *
+     * @param writer {@link Writer} to write to
+     * @throws IOException when writing fails
+     */
+    public void writeCSV(Writer writer) throws IOException {
+        log.trace("writeCSV({})", () -> rowCount);
+        List<List<String>> values = new ArrayList<>(columns.values());
+        writeRecord(writer, new ArrayList<>(columns.keySet()));
+        List<String> record = new ArrayList<>(values.size());
+        for (int row = 0; row < rowCount; row++) {
+            record.clear();
+            for (List<String> column : values)
+                record.add(column.get(row));
+            writeRecord(writer, record);
+        }
+    }
+
+    /**
+     * Writes a CSV record, quoting the fields that hold separators, quotes or line breaks.
+     *
+     * @param writer {@link Writer} to write to
+     * @param fields fields of the record, null for empty
+     * @throws IOException when writing fails
+     */
+    protected static void writeRecord(Writer writer, List<String> fields) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0)
+                writer.write(',');
+            String field = fields.get(i);
+            if (field == null)
+                continue;
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0
+                    && field.indexOf('\r') < 0) {
+                writer.write(field);
+            } else {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            }
+        }
+        writer.write("\r\n");
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.coreconsulting.res.openehr.tdd2canonical.flat;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDS;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XML;
+import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.Element;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * This class implements the flattening of a TDD into {@code path -> value} pairs, in the spirit of the EHRbase flat
+ * (simplified web template) format, walking the TDD once along the compiled {@link TDSNode} descriptors of its
+ * {@link TDS}, with no canonical composition in between. Paths are built as follows:
+ * <ul>
+ *     <li>the root segment and each LOCATABLE segment are ids derived from the TDD element names (lowercase ASCII
+ *     letters, digits and underscores, e.g. "Admissão_do_paciente" becomes "admissao_do_paciente");</li>
+ *     <li>LOCATABLE segments below the root are suffixed by their position among the siblings with the same name
+ *     (e.g. ":0"), as the compiled descriptors don't carry cardinalities to tell which ones may repeat;</li>
+ *     <li>data structures (ITEM_TREE, ITEM_LIST, ITEM_SINGLE, ITEM_TABLE and the OBSERVATION HISTORY) add no
+ *     segment, so ELEMENTs sit right below their ENTRY or event;</li>
+ *     <li>the "name" of LOCATABLE elements is skipped, as it is defined by the template;</li>
+ *     <li>the ELEMENT "value" adds no segment, the other Reference Model attributes add their name, and leaves are
+ *     attached with "|" (e.g. "|magnitude", "|units"), with CODE_PHRASE shortened into "|code" and "|terminology"
+ *     (folded into the DV_CODED_TEXT itself for its "defining_code").</li>
+ * </ul>
+ * For example, "registro_de_atendimento_clinico/caracterizacao_do_atendimento:0/admissao_do_paciente:0/
+ * modalidade_assistencial:0|code" holds the code of a DV_CODED_TEXT.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class FlatConverter {
+
+    /**
+     * Types of the data structures, which add no segment to the paths.
+     */
+    protected static final Set<String> STRUCTURES = new HashSet<>(Arrays.asList("ITEM_TREE", "ITEM_LIST",
+            "ITEM_SINGLE", "ITEM_TABLE", "HISTORY"));
+    /**
+     * Combining marks left by decomposing accented letters.
+     */
+    protected static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    /**
+     * Sequences of characters not allowed within ids.
+     */
+    protected static final Pattern NOT_ID = Pattern.compile("[^a-z0-9]+");
+
+    /**
+     * Flattens a TDD into {@code path -> value} pairs, in document order.
+     *
+     * @param tdd TDD to be flattened
+     * @return {@link Map} of paths to values, in document order
+     * @throws IllegalStateException when the TDD wasn't parsed or its TDS isn't available
+     */
+    public static Map<String, String> toFlat(TDD tdd) {
+        log.trace("toFlat({})", () -> tdd.getTemplateId());
+        if (tdd.getXml() == null)
+            throw new IllegalStateException("the TDD wasn't parsed", tdd.getError());
+        TDS tds = tdd.getTDS();
+        if (tds == null)
+            throw new IllegalStateException("no TDS available for @template_id=" + tdd.getTemplateId());
+        Element root = tdd.getXml().getDocumentElement();
+        Map<String, String> flat = new LinkedHashMap<>();
+        walkLocatable(root, tds.getRootNode(), toId(root.getNodeName()), new HashMap<>(), flat);
+        log.debug("flattened the TDD into {} paths", flat::size);
+        return flat;
+    }
+
+    /**
+     * Flattens the children of a LOCATABLE element.
+     *
+     * @param element LOCATABLE element
+     * @param node descriptor of the element definition
+     * @param path path of the element
+     * @param counts number of LOCATABLE siblings read so far by id, shared by the data structures in between
+     * @param flat pairs flattened so far
+     */
+    protected static void walkLocatable(Element element, TDSNode node, String path, Map<String, Integer> counts,
+                                        Map<String, String> flat) {
+        for (Element child = XML.getFirstChildElement(element); child != null;
+             child = XML.getNextElementSibling(child)) {
+            String name = child.getNodeName();
+            TDSNode childNode = node.getChild(name);
+            if (childNode != null && childNode.isLocatable()) {
+                String type = childNode.getType();
+                if (type == null || STRUCTURES.contains(type)) {
+                    walkLocatable(child, childNode, path, counts, flat);
+                } else {
+                    String id = toId(name);
+                    int index = counts.merge(id, 1, Integer::sum) - 1;
+                    walkLocatable(child, childNode, path + "/" + id + ":" + index, new HashMap<>(), flat);
+                }
+            } else if (getLocalName(name).equals("name") == false) {
+                boolean elementValue = "ELEMENT".equals(node.getType()) && getLocalName(name).equals("value");
+                walkAttribute(child, elementValue ? path : path + "/" + toId(name), flat);
+            }
+        }
+    }
+
+    /**
+     * Flattens a Reference Model attribute (i.e. an element that isn't LOCATABLE).
+     *
+     * @param element attribute element
+     * @param path path of the attribute
+     * @param flat pairs flattened so far
+     */
+    protected static void walkAttribute(Element element, String path, Map<String, String> flat) {
+        Element first = XML.getFirstChildElement(element);
+        if (first == null) {
+            put(flat, path, element.getTextContent());
+            return;
+        }
+        for (Element child = first; child != null; child = XML.getNextElementSibling(child)) {
+            String name = getLocalName(child.getNodeName());
+            Element grandchild = XML.getFirstChildElement(child);
+            if (grandchild == null) {
+                put(flat, path + "|" + (name.equals("code_string") ? "code" : toId(name)), child.getTextContent());
+            } else if (name.equals("terminology_id") && XML.getNextElementSibling(grandchild) == null) {
+                put(flat, path + "|terminology", grandchild.getTextContent());
+            } else if (name.equals("defining_code")) {
+                walkAttribute(child, path, flat);
+            } else {
+                walkAttribute(child, path + "/" + toId(name), flat);
+            }
+        }
+    }
+
+    /**
+     * Adds a pair, unless the value is empty (e.g. a PARTY_SELF with no content) or the path was already flattened
+     * (which only happens for siblings the format can't tell apart), keeping the first value.
+     *
+     * @param flat pairs flattened so far
+     * @param path path of the value
+     * @param value text content of the leaf
+     */
+    protected static void put(Map<String, String> flat, String path, String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty())
+            return;
+        if (flat.putIfAbsent(path, trimmed) != null)
+            log.warn("ignoring duplicate flat path={}", () -> path);
+    }
+
+    /**
+     * Derives an id from an element name: no prefix, no diacritics, lowercase ASCII letters, digits and underscores.
+     *
+     * @param name element name
+     * @return id of the element
+     */
+    public static String toId(String name) {
+        String ascii = MARKS.matcher(Normalizer.normalize(getLocalName(name), Normalizer.Form.NFD)).replaceAll("");
+        return NOT_ID.matcher(ascii.toLowerCase()).replaceAll("_");
+    }
+
+    /**
+     * Removes the namespace prefix from an element name.
+     *
+     * @param name element name
+     * @return name without the prefix
+     */
+    protected static String getLocalName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+}
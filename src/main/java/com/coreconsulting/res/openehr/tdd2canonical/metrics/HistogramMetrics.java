@@ -0,0 +1,251 @@
+package com.coreconsulting.res.openehr.tdd2canonical.metrics;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements a {@link MetricsListener} that records every stage into in-memory histograms and counters,
+ * indexed by name, which a service can read (see {@link #getHistograms()} and {@link #getCounters()}) and export in
+ * whatever format it uses. Names are built as follows:
+ * <ul>
+ *     <li>"parse.{document}" holds the time to parse each kind of XML document (e.g. "parse.TDD");</li>
+ *     <li>"resolve.memory", "resolve.cache" and "resolve.compile" hold the time to resolve TDS instances, by where
+ *     they were resolved from, and "resolve.compile.{@literal @template_id}" the compilations of each template;</li>
+ *     <li>"transformer.{type}" holds the time taken by each transformer, whose count is the number of
+ *     invocations;</li>
+ *     <li>"convert.{@literal @template_id}" and "nodes.{@literal @template_id}" hold the time to transform the TDDs of
+ *     each template and the number of LOCATABLE elements visited, which tell the slow templates apart;</li>
+ *     <li>"serialize" holds the time to serialize the XML documents;</li>
+ *     <li>the counters "fallback" and "fallback.{@literal @template_id}" hold the lookups that missed the node cache
+ *     of a TDS and fell back to XPath.</li>
+ * </ul>
+ * Histograms have logarithmic buckets (one per power of two), so they take constant memory and can be recorded into
+ * concurrently without locking, at the cost of percentiles being estimated within a factor of two.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class HistogramMetrics implements MetricsListener {
+
+    /**
+     * This class implements a histogram of non-negative values with one bucket per power of two.
+     */
+    public static class Histogram {
+
+        /**
+         * Number of values recorded into each bucket, where bucket i > 0 holds values from 2^(i-1) to 2^i - 1.
+         */
+        protected final AtomicLongArray buckets = new AtomicLongArray(64);
+        /**
+         * Number of values recorded.
+         */
+        protected final LongAdder count = new LongAdder();
+        /**
+         * Sum of the values recorded.
+         */
+        protected final LongAdder sum = new LongAdder();
+        /**
+         * Maximum value recorded.
+         */
+        protected final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Records a value.
+         *
+         * @param value value to be recorded, negative values are recorded as 0
+         */
+        public void record(long value) {
+            long recorded = Math.max(value, 0);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(recorded));
+            count.increment();
+            sum.add(recorded);
+            max.accumulate(recorded);
+        }
+
+        /**
+         * Returns the number of values recorded.
+         *
+         * @return number of values recorded
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the sum of the values recorded.
+         *
+         * @return sum of the values recorded
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Returns the maximum value recorded.
+         *
+         * @return maximum value recorded, or 0 if none
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the mean of the values recorded.
+         *
+         * @return mean of the values recorded, or 0 if none
+         */
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) getSum() / count;
+        }
+
+        /**
+         * Estimates a percentile of the values recorded, as the upper bound of the bucket holding it (capped by the
+         * maximum value recorded).
+         *
+         * @param percentile percentile to be estimated, between 0 and 100
+         * @return estimated percentile, or 0 if no value was recorded
+         */
+        public long getPercentile(double percentile) {
+            long count = getCount();
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank)
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50) + ", p99="
+                    + getPercentile(99) + ", max=" + getMax();
+        }
+
+    }
+
+    /**
+     * Histograms recorded so far, indexed by name.
+     */
+    protected final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    /**
+     * Counters recorded so far, indexed by name.
+     */
+    protected final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void parsed(String document, long nanos) {
+        record("parse." + document, nanos);
+    }
+
+    @Override
+    public void resolved(String templateId, Resolution resolution, long nanos) {
+        String name = "resolve." + resolution.name().toLowerCase();
+        record(name, nanos);
+        if (resolution == Resolution.COMPILE)
+            record(name + "." + templateId, nanos);
+    }
+
+    @Override
+    public void transformed(String type, long nanos) {
+        record("transformer." + type, nanos);
+    }
+
+    @Override
+    public void converted(String templateId, int nodes, long nanos) {
+        record("convert." + templateId, nanos);
+        record("nodes." + templateId, nodes);
+    }
+
+    @Override
+    public void fallback(String templateId, String xpath) {
+        increment("fallback");
+        increment("fallback." + templateId);
+    }
+
+    @Override
+    public void serialized(long nanos) {
+        record("serialize", nanos);
+    }
+
+    /**
+     * Records a value into a histogram, creating it if needed.
+     *
+     * @param name name of the histogram
+     * @param value value to be recorded
+     */
+    protected void record(String name, long value) {
+        histograms.computeIfAbsent(name, key -> new Histogram()).record(value);
+    }
+
+    /**
+     * Increments a counter, creating it if needed.
+     *
+     * @param name name of the counter
+     */
+    protected void increment(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Returns a histogram by name.
+     *
+     * @param name name of the histogram
+     * @return the histogram, or null if nothing was recorded into it
+     */
+    public Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * Returns a counter by name.
+     *
+     * @param name name of the counter
+     * @return value of the counter, 0 if it was never incremented
+     */
+    public long getCounter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Returns the histograms recorded so far, which keep being recorded into.
+     *
+     * @return histograms indexed by name, sorted by name
+     */
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Returns a snapshot of the counters recorded so far.
+     *
+     * @return values of the counters indexed by name, sorted by name
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Discards every histogram and counter recorded so far.
+     */
+    public void reset() {
+        log.trace("reset({})", () -> "");
+        histograms.clear();
+        counters.clear();
+    }
+
+}
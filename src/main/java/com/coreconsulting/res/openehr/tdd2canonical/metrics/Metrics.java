@@ -0,0 +1,70 @@
+package com.coreconsulting.res.openehr.tdd2canonical.metrics;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * This class holds the {@link MetricsListener} notified by the transformation. The listener is discovered once,
+ * through {@link ServiceLoader}, from the first META-INF/services/{@value #SERVICE} file on the classpath, so a
+ * service can export the metrics by adding a jar, and can be replaced at runtime (see
+ * {@link #setListener(MetricsListener)}). With no listener, {@link MetricsListener#NOOP} is installed and the
+ * transformation doesn't even read the clock (see {@link #isEnabled()}).
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class Metrics {
+
+    /**
+     * Name of the service provider configuration file listing the {@link MetricsListener} implementations.
+     */
+    public static final String SERVICE = "com.coreconsulting.res.openehr.tdd2canonical.metrics.MetricsListener";
+
+    /**
+     * Listener notified by the transformation.
+     */
+    protected static volatile MetricsListener listener = MetricsListener.NOOP;
+
+    /**
+     * Installs the first {@link MetricsListener} found at initialization, if any
+     */
+    static {
+        Iterator<MetricsListener> listeners = ServiceLoader.load(MetricsListener.class,
+                Metrics.class.getClassLoader()).iterator();
+        if (listeners.hasNext()) {
+            listener = listeners.next();
+            log.info("installed metrics listener {}", () -> listener.getClass().getName());
+        }
+    }
+
+    /**
+     * Returns the listener notified by the transformation.
+     *
+     * @return listener notified by the transformation, {@link MetricsListener#NOOP} if none is installed
+     */
+    public static MetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Installs the listener notified by the transformation, replacing the current one.
+     *
+     * @param listener listener to be installed, or null to record nothing
+     */
+    public static void setListener(MetricsListener listener) {
+        log.trace("setListener({})", () -> listener);
+        Metrics.listener = listener == null ? MetricsListener.NOOP : listener;
+    }
+
+    /**
+     * Returns whether a listener is installed, so callers can skip measuring what nobody records.
+     *
+     * @return true if a listener other than {@link MetricsListener#NOOP} is installed, false otherwise
+     */
+    public static boolean isEnabled() {
+        return listener != MetricsListener.NOOP;
+    }
+
+}
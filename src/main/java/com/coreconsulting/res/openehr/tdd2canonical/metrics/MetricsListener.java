@@ -0,0 +1,87 @@
+package com.coreconsulting.res.openehr.tdd2canonical.metrics;
+
+/**
+ * This interface defines the instrumentation surface of the transformation, notified of the time taken by each stage
+ * and of the counters worth exporting to find slow templates without enabling trace logging. Every method has a no-op
+ * default, so implementations only override the stages they record.
+ * Listeners are installed through {@link Metrics}, and are called from every thread transforming TDDs, so they must be
+ * safe for concurrent use and return quickly. Times are measured in nanoseconds (see {@link System#nanoTime()}).
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+public interface MetricsListener {
+
+    /**
+     * Listener that records nothing, installed by default.
+     */
+    MetricsListener NOOP = new MetricsListener() {};
+
+    /**
+     * This enumeration lists where a TDS instance was resolved from.
+     */
+    enum Resolution {
+        /**
+         * The TDS instance was already in memory (or being loaded by a concurrent request, which was waited for).
+         */
+        MEMORY,
+        /**
+         * The TDS instance was read from the cache.
+         */
+        CACHE,
+        /**
+         * The TDS instance was parsed and compiled from its source.
+         */
+        COMPILE
+    }
+
+    /**
+     * Notifies that a XML document was parsed.
+     *
+     * @param document kind of document parsed, i.e. the simple name of the class parsing it (e.g. "TDD", "TDS")
+     * @param nanos time taken to parse it
+     */
+    default void parsed(String document, long nanos) {}
+
+    /**
+     * Notifies that a TDS instance was resolved for a TDD.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param resolution where the TDS instance was resolved from
+     * @param nanos time taken to resolve it, including the cache read or compilation
+     */
+    default void resolved(String templateId, Resolution resolution, long nanos) {}
+
+    /**
+     * Notifies that a transformer was applied to a LOCATABLE element, after its descendants were transformed.
+     *
+     * @param type type handled by the transformer (see
+     * {@link com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer#getType()})
+     * @param nanos time taken by the transformer, excluding its descendants
+     */
+    default void transformed(String type, long nanos) {}
+
+    /**
+     * Notifies that a TDD was transformed into a composition.
+     *
+     * @param templateId the @template_id of the TDD
+     * @param nodes number of LOCATABLE elements visited
+     * @param nanos time taken by the transformation, excluding parsing, TDS resolution and serialization
+     */
+    default void converted(String templateId, int nodes, long nanos) {}
+
+    /**
+     * Notifies that a lookup missed the node cache of a TDS and fell back to XPath.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param xpath XPath expression evaluated
+     */
+    default void fallback(String templateId, String xpath) {}
+
+    /**
+     * Notifies that a XML document (or node) was serialized.
+     *
+     * @param nanos time taken to serialize it
+     */
+    default void serialized(long nanos) {}
+
+}
@@ -0,0 +1,85 @@
+package com.coreconsulting.res.openehr.tdd2canonical.pipeline;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDS;
+import com.coreconsulting.res.openehr.tdd2canonical.batch.TDDSource;
+import lombok.Getter;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * This class represents a slot of the ring buffer of a {@link ConversionPipeline}, carrying a TDD through the stages
+ * of the conversion. Instances are pre-allocated and reused for every TDD published into the same slot, including
+ * the {@link #output} buffer the composition is serialized into, which keeps its capacity between uses.
+ * Fields are only valid while the event is being handled, so listeners must copy whatever they keep.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Getter
+public class ConversionEvent {
+
+    /**
+     * TDD to be converted.
+     */
+    protected TDDSource source;
+    /**
+     * Object provided by the publisher to correlate the result (e.g. a message id or a pending response).
+     */
+    protected Object attachment;
+    /**
+     * TDD read by the parse stage, which holds the composition once transformed (in place).
+     */
+    protected TDD tdd;
+    /**
+     * TDS resolved by the resolution stage.
+     */
+    protected TDS tds;
+    /**
+     * Composition generated by the transformation stage.
+     */
+    protected Document composition;
+    /**
+     * Composition serialized into UTF-8 by the serialization stage.
+     */
+    protected final ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+    /**
+     * {@link Exception} that prevented the conversion, after which the remaining stages skip the event.
+     */
+    protected Exception error;
+
+    /**
+     * Returns whether the TDD was converted (so far).
+     *
+     * @return true if no stage failed, false otherwise
+     */
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * Prepares the event for a new TDD.
+     *
+     * @param source TDD to be converted
+     * @param attachment object provided by the publisher
+     */
+    protected void set(TDDSource source, Object attachment) {
+        this.source = source;
+        this.attachment = attachment;
+    }
+
+    /**
+     * Releases the references held by the event, so the documents can be collected while the slot is idle, and
+     * resets the output buffer.
+     */
+    protected void clear() {
+        source = null;
+        attachment = null;
+        tdd = null;
+        tds = null;
+        composition = null;
+        error = null;
+        output.reset();
+    }
+
+}
@@ -0,0 +1,279 @@
+package com.coreconsulting.res.openehr.tdd2canonical.pipeline;
+
+import com.coreconsulting.res.openehr.tdd2canonical.CanonicalOptions;
+import com.coreconsulting.res.openehr.tdd2canonical.batch.TDDSource;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLSerializer;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import lombok.Builder;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class implements an optional pipelined conversion engine on top of the LMAX Disruptor. Each TDD published
+ * goes through four stages, each one running on its own thread: parse (reading the TDD), resolution (looking up its
+ * TDS), transformation (of the TDD document in place, see {@link CanonicalOptions#isInPlace()}) and serialization
+ * (writing the composition as UTF-8 into the reusable buffer of the event, compact unless pretty-printing is
+ * requested). Stages hand events over through the ring buffer without locking, so a steady feed keeps each thread
+ * busy with a single stage.
+ * Once serialized (or failed), the event is handed to the listener on the serialization thread and then cleared for
+ * reuse, so the listener must copy what it keeps and return quickly, as it holds back the whole pipeline. Publishing
+ * blocks while the ring buffer is full, which bounds the number of TDDs in flight.
+ * Stages record any {@link Throwable} on the event rather than letting it escape, as the Disruptor would otherwise
+ * stop the stage, leaving publishers blocked and {@link #close()} waiting forever; errors are wrapped in an
+ * {@link ExecutionException}, and anything still escaping a stage is recorded by a {@link StageExceptionHandler}.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class ConversionPipeline implements AutoCloseable {
+
+    /**
+     * Default number of slots in the ring buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * Translator copying the published TDD into a pre-allocated event.
+     */
+    protected static final EventTranslatorTwoArg<ConversionEvent, TDDSource, Object> TRANSLATOR =
+            (event, sequence, source, attachment) -> event.set(source, attachment);
+
+    /**
+     * The Disruptor coordinating the stages.
+     */
+    protected final Disruptor<ConversionEvent> disruptor;
+    /**
+     * Ring buffer the TDDs are published into.
+     */
+    protected final RingBuffer<ConversionEvent> ringBuffer;
+
+    /**
+     * Creates and starts a pipeline. Every parameter but the listener is optional.
+     *
+     * @param bufferSize number of slots in the ring buffer, a power of 2, defaults to {@link #DEFAULT_BUFFER_SIZE}
+     * @param waitStrategy strategy of the stages waiting for events, defaults to {@link BlockingWaitStrategy}
+     * @param listener {@link Consumer} of the converted (or failed) events, called on the serialization thread
+     * @param prettyPrint whether to indent the serialized compositions, defaults to false
+     */
+    @Builder
+    @SuppressWarnings("unchecked")
+    public ConversionPipeline(int bufferSize, WaitStrategy waitStrategy, Consumer<? super ConversionEvent> listener,
+                              boolean prettyPrint) {
+        int size = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+        log.trace("ConversionPipeline({}, {})", () -> size, () -> waitStrategy);
+        if (listener == null)
+            throw new IllegalArgumentException("a listener is required to receive the conversions");
+        disruptor = new Disruptor<>(ConversionEvent::new, size, new StageThreadFactory(), ProducerType.MULTI,
+                waitStrategy == null ? new BlockingWaitStrategy() : waitStrategy);
+        disruptor.setDefaultExceptionHandler(new StageExceptionHandler());
+        // The Disruptor's varargs of generic handlers aren't @SafeVarargs, hence the suppression on this constructor
+        EventHandler<ConversionEvent> parse = ConversionPipeline::parse;
+        EventHandler<ConversionEvent> resolve = ConversionPipeline::resolve;
+        EventHandler<ConversionEvent> transform = ConversionPipeline::transform;
+        EventHandler<ConversionEvent> serialize = new Serializer(listener, prettyPrint);
+        disruptor.handleEventsWith(parse).then(resolve).then(transform).then(serialize);
+        ringBuffer = disruptor.start();
+    }
+
+    /**
+     * Publishes a TDD into the pipeline, blocking while the ring buffer is full.
+     *
+     * @param source TDD to be converted
+     * @param attachment object handed back with the event to correlate the result, may be null
+     */
+    public void publish(TDDSource source, Object attachment) {
+        log.trace("publish({})", () -> source.getName());
+        ringBuffer.publishEvent(TRANSLATOR, source, attachment);
+    }
+
+    /**
+     * Publishes a TDD into the pipeline unless the ring buffer is full.
+     *
+     * @param source TDD to be converted
+     * @param attachment object handed back with the event to correlate the result, may be null
+     * @return true if published, false if the ring buffer is full
+     */
+    public boolean tryPublish(TDDSource source, Object attachment) {
+        log.trace("tryPublish({})", () -> source.getName());
+        return ringBuffer.tryPublishEvent(TRANSLATOR, source, attachment);
+    }
+
+    /**
+     * Waits for every TDD published to be handed to the listener and stops the stages.
+     */
+    @Override
+    public void close() {
+        log.trace("close({})", () -> "");
+        disruptor.shutdown();
+    }
+
+    /**
+     * Records the failure of a stage on the event, so the remaining stages skip it.
+     *
+     * @param event event being handled
+     * @param e {@link Throwable} thrown by the stage, wrapped in an {@link ExecutionException} unless an
+     * {@link Exception}
+     */
+    protected static void fail(ConversionEvent event, Throwable e) {
+        event.error = e instanceof Exception ? (Exception) e : new ExecutionException(e);
+    }
+
+    /**
+     * Parse stage, reading the TDD.
+     *
+     * @param event event being handled
+     * @param sequence sequence of the event in the ring buffer
+     * @param endOfBatch whether it is the last event available
+     */
+    protected static void parse(ConversionEvent event, long sequence, boolean endOfBatch) {
+        try {
+            event.tdd = event.source.read();
+            if (event.tdd.getXml() == null)
+                event.error = event.tdd.getError() != null ? event.tdd.getError() :
+                        new IllegalStateException("failed to read the TDD");
+        } catch (Throwable e) {
+            fail(event, e);
+        }
+    }
+
+    /**
+     * Resolution stage, looking up the TDS of the TDD.
+     *
+     * @param event event being handled
+     * @param sequence sequence of the event in the ring buffer
+     * @param endOfBatch whether it is the last event available
+     */
+    protected static void resolve(ConversionEvent event, long sequence, boolean endOfBatch) {
+        if (event.error != null)
+            return;
+        try {
+            event.tds = event.tdd.getTDS();
+            if (event.tds == null)
+                event.error = new IllegalStateException("no TDS available for @template_id=" +
+                        event.tdd.getTemplateId());
+        } catch (Throwable e) {
+            fail(event, e);
+        }
+    }
+
+    /**
+     * Transformation stage, generating the composition from the TDD.
+     *
+     * @param event event being handled
+     * @param sequence sequence of the event in the ring buffer
+     * @param endOfBatch whether it is the last event available
+     */
+    protected static void transform(ConversionEvent event, long sequence, boolean endOfBatch) {
+        if (event.error != null)
+            return;
+        try {
+            // The TDD is read for this conversion only, so it is transformed in place rather than cloned
+            event.composition = event.tdd.toCanonical(CanonicalOptions.IN_PLACE);
+        } catch (Throwable e) {
+            fail(event, e);
+        }
+    }
+
+    /**
+     * This class implements the serialization stage, writing the composition into the output buffer of the event
+     * through {@link XMLSerializer}, handing the event to the listener and clearing it for reuse.
+     */
+    protected static class Serializer implements EventHandler<ConversionEvent> {
+
+        /**
+         * Listener of the converted (or failed) events.
+         */
+        protected final Consumer<? super ConversionEvent> listener;
+        /**
+         * Whether to indent the output.
+         */
+        protected final boolean prettyPrint;
+
+        /**
+         * Creates the serialization stage.
+         *
+         * @param listener listener of the converted (or failed) events
+         * @param prettyPrint whether to indent the output
+         */
+        protected Serializer(Consumer<? super ConversionEvent> listener, boolean prettyPrint) {
+            this.listener = listener;
+            this.prettyPrint = prettyPrint;
+        }
+
+        @Override
+        public void onEvent(ConversionEvent event, long sequence, boolean endOfBatch) {
+            try {
+                if (event.error == null)
+                    XMLSerializer.write(event.composition, event.output, prettyPrint);
+            } catch (Throwable e) {
+                fail(event, e);
+            }
+            try {
+                if (event.error != null)
+                    log.warn("failed to convert " + event.source.getName(), event.error);
+                listener.accept(event);
+            } catch (Throwable e) {
+                log.error("pipeline listener failed", e);
+            } finally {
+                event.clear();
+            }
+        }
+
+    }
+
+    /**
+     * This class handles whatever still escapes a stage, recording it on the event and carrying on, instead of the
+     * Disruptor's default handler, which stops the stage.
+     */
+    protected static class StageExceptionHandler implements ExceptionHandler<ConversionEvent> {
+
+        @Override
+        public void handleEventException(Throwable e, long sequence, ConversionEvent event) {
+            log.error("pipeline stage failed on sequence " + sequence, e);
+            if (event != null && event.error == null)
+                fail(event, e);
+        }
+
+        @Override
+        public void handleOnStartException(Throwable e) {
+            log.error("pipeline stage failed to start", e);
+        }
+
+        @Override
+        public void handleOnShutdownException(Throwable e) {
+            log.error("pipeline stage failed to shut down", e);
+        }
+
+    }
+
+    /**
+     * This class creates the daemon threads running the stages, named after the pipeline for troubleshooting.
+     */
+    protected static class StageThreadFactory implements ThreadFactory {
+
+        /**
+         * Number of threads created so far.
+         */
+        protected final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "tdd2canonical-pipeline-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.coreconsulting.res.openehr.tdd2canonical.stream;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import lombok.Getter;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements a minimal in-memory representation of an element subtree as StAX events, used as a bounded
+ * lookahead buffer by {@link StreamingTransformer} whenever a transformation needs to reorder, insert or inspect
+ * siblings before they can be written (e.g. DV_QUANTITY units/precision, DV_PROPORTION denominator, ACTIVITY timing).
+ * Its content is either an {@link XMLEvent} (text, comments) or a nested {@link EventNode}.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+public class EventNode {
+
+    /**
+     * Factory used to create the events of the elements inserted by the transformation.
+     */
+    protected static final XMLEventFactory events = XMLEventFactory.newInstance();
+
+    /**
+     * Start element event.
+     */
+    @Getter
+    protected StartElement start;
+    /**
+     * Content events and nested elements, in document order.
+     */
+    @Getter
+    protected final List<Object> content = new ArrayList<>();
+    /**
+     * End element event.
+     */
+    @Getter
+    protected EndElement end;
+
+    /**
+     * Creates an element from its start event. The end event is expected to be set once the element is closed.
+     *
+     * @param start start element event
+     */
+    public EventNode(StartElement start) {
+        this.start = start;
+    }
+
+    /**
+     * Creates an element in the default openEHR namespace, holding the given text or nested elements, to be inserted
+     * by the transformation.
+     *
+     * @param localName name of the element
+     * @param children text ({@link String}) or nested {@link EventNode}s
+     * @return element created
+     */
+    public static EventNode element(String localName, Object... children) {
+        EventNode node = new EventNode(events.createStartElement("", TDD.OPENEHR_NS, localName));
+        for (Object child : children) {
+            if (child instanceof String)
+                node.content.add(events.createCharacters((String) child));
+            else
+                node.content.add(child);
+        }
+        node.end = events.createEndElement("", TDD.OPENEHR_NS, localName);
+        return node;
+    }
+
+    /**
+     * Returns the local name of the element.
+     *
+     * @return local name of the element
+     */
+    public String getLocalName() {
+        return start.getName().getLocalPart();
+    }
+
+    /**
+     * Returns the nested elements, in document order.
+     *
+     * @return {@link List} of nested elements
+     */
+    public List<EventNode> getChildNodes() {
+        List<EventNode> children = new ArrayList<>();
+        for (Object child : content) {
+            if (child instanceof EventNode)
+                children.add((EventNode) child);
+        }
+        return children;
+    }
+
+    /**
+     * Returns the concatenated character data of the element and its descendants.
+     *
+     * @return text content of the element
+     */
+    public String getTextContent() {
+        StringBuilder text = new StringBuilder();
+        for (Object child : content) {
+            if (child instanceof EventNode)
+                text.append(((EventNode) child).getTextContent());
+            else if (((XMLEvent) child).isCharacters())
+                text.append(((XMLEvent) child).asCharacters().getData());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Inserts a nested element before a reference one, or as the last one if the reference is null.
+     *
+     * @param node element to be inserted
+     * @param reference element which the new one is to be inserted before
+     */
+    public void insertBefore(EventNode node, EventNode reference) {
+        int index = reference == null ? -1 : indexOf(reference);
+        if (index < 0)
+            content.add(node);
+        else
+            content.add(index, node);
+    }
+
+    /**
+     * Removes a nested element.
+     *
+     * @param node element to be removed
+     */
+    public void remove(EventNode node) {
+        int index = indexOf(node);
+        if (index >= 0)
+            content.remove(index);
+    }
+
+    /**
+     * Returns whether the element has nested elements.
+     *
+     * @return true if there is any nested element, false otherwise
+     */
+    public boolean hasChildNodes() {
+        for (Object child : content) {
+            if (child instanceof EventNode)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the element as a sequence of events.
+     *
+     * @param sink {@link Sink} to write the events into
+     * @throws XMLStreamException when the events can't be written
+     */
+    public void writeTo(Sink sink) throws XMLStreamException {
+        sink.add(start);
+        for (Object child : content) {
+            if (child instanceof EventNode)
+                ((EventNode) child).writeTo(sink);
+            else
+                sink.add((XMLEvent) child);
+        }
+        sink.add(end);
+    }
+
+    /**
+     * Returns the index of a nested element by identity, as elements don't implement equality.
+     *
+     * @param node nested element
+     * @return index of the element within {@link #content}, or -1 if absent
+     */
+    protected int indexOf(EventNode node) {
+        for (int i = 0; i < content.size(); i++) {
+            if (content.get(i) == node)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * This interface abstracts the destination of the events produced by {@link StreamingTransformer}, which can be
+     * the actual output or an {@link EventNode} being buffered.
+     */
+    public interface Sink {
+
+        /**
+         * Adds an event to the destination.
+         *
+         * @param event event to be added
+         * @throws XMLStreamException when the event can't be written
+         */
+        void add(XMLEvent event) throws XMLStreamException;
+
+        /**
+         * Adds a whole element to the destination.
+         *
+         * @param node element to be added
+         * @throws XMLStreamException when the element can't be written
+         */
+        default void add(EventNode node) throws XMLStreamException {
+            node.writeTo(this);
+        }
+
+        /**
+         * {@link Sink} that discards everything, used for subtrees removed by the transformation.
+         */
+        Sink DISCARD = event -> {};
+
+    }
+
+    /**
+     * This class implements a {@link Sink} that builds an {@link EventNode} from the events of a single element.
+     */
+    public static class Buffer implements Sink {
+
+        /**
+         * Root element of the buffer, available once its start event was added.
+         */
+        @Getter
+        protected EventNode root;
+        /**
+         * Elements opened but not yet closed.
+         */
+        protected final List<EventNode> open = new ArrayList<>();
+
+        @Override
+        public void add(XMLEvent event) {
+            if (event.isStartElement()) {
+                EventNode node = new EventNode(event.asStartElement());
+                if (open.isEmpty())
+                    root = node;
+                else
+                    open.get(open.size() - 1).content.add(node);
+                open.add(node);
+            } else if (event.isEndElement()) {
+                open.remove(open.size() - 1).end = event.asEndElement();
+            } else if (open.isEmpty() == false) {
+                open.get(open.size() - 1).content.add(event);
+            }
+        }
+
+        @Override
+        public void add(EventNode node) {
+            open.get(open.size() - 1).content.add(node);
+        }
+
+    }
+
+}
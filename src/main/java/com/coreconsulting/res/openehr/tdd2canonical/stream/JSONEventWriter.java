@@ -0,0 +1,382 @@
+package com.coreconsulting.res.openehr.tdd2canonical.stream;
+
+import lombok.extern.log4j.Log4j2;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * This class implements an {@link XMLEventWriter} that writes the openEHR canonical JSON representation of the
+ * composition events it receives, so {@link StreamingTransformer} can produce JSON straight from the TDD, without
+ * building (or parsing) the canonical XML. The mapping follows the openEHR canonical JSON format:
+ * <ul>
+ *     <li>the root element becomes the top-level object, and each element becomes a member named after it;</li>
+ *     <li>{@literal @xsi:type} becomes the "_type" member, the other attributes become members as well, and the
+ *     namespace declarations and {@literal @xsi:schemaLocation} are dropped;</li>
+ *     <li>the multiple-valued attributes of the Reference Model (e.g. "items", "content", "events") become arrays,
+ *     even when holding a single element, as long as their elements are siblings in sequence (as the
+ *     transformation always writes them);</li>
+ *     <li>elements with no child elements become strings, or numbers and booleans for the Reference Model attributes
+ *     with such types (e.g. DV_QUANTITY "magnitude", DV_BOOLEAN "value").</li>
+ * </ul>
+ * An element is only written once its first child element or its end is reached, as that's when we know whether it is
+ * an object or a scalar, so the output is buffered by element rather than by document.
+ * Each instance writes a single document and is not thread-safe.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class JSONEventWriter implements XMLEventWriter {
+
+    /**
+     * Names of the Reference Model attributes holding lists, written as arrays.
+     */
+    protected static final Set<String> ARRAYS = new HashSet<>(Arrays.asList("content", "items", "events",
+            "activities", "links", "participations", "other_participations", "mappings", "identifiers",
+            "other_reference_ids", "versions_audit", "audit_details"));
+    /**
+     * Names of the Reference Model attributes holding numbers, optionally qualified by the type of their parent.
+     */
+    protected static final Set<String> NUMBERS = new HashSet<>(Arrays.asList("magnitude", "precision", "numerator",
+            "denominator", "accuracy", "DV_PROPORTION.type", "DV_ORDINAL.value", "DV_SCALE.value"));
+    /**
+     * Names of the Reference Model attributes holding booleans, optionally qualified by the type of their parent.
+     */
+    protected static final Set<String> BOOLEANS = new HashSet<>(Arrays.asList("DV_BOOLEAN.value",
+            "accuracy_is_percent", "lower_included", "upper_included", "lower_unbounded", "upper_unbounded"));
+    /**
+     * JSON number grammar, which values must match to be written as numbers.
+     */
+    protected static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    /**
+     * This class holds the state of an element being written.
+     */
+    protected static class Frame {
+
+        /** Name of the element */
+        protected final String name;
+        /** {@literal @xsi:type} of the element, if any */
+        protected String type;
+        /** Attributes of the element, as member names and values */
+        protected final List<String[]> attributes = new ArrayList<>();
+        /** Text content, until we know whether the element is an object */
+        protected final StringBuilder text = new StringBuilder();
+        /** Whether the element was opened as an object */
+        protected boolean object;
+        /** Whether the object has members written */
+        protected boolean members;
+        /** Name of the array open within the object, if any */
+        protected String array;
+
+        /**
+         * Creates the state of an element.
+         *
+         * @param name name of the element
+         */
+        protected Frame(String name) {
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * Destination of the JSON text.
+     */
+    protected final Writer writer;
+    /**
+     * Elements being written, the innermost first.
+     */
+    protected final Deque<Frame> frames = new ArrayDeque<>();
+
+    /**
+     * Creates a writer of compact JSON into an {@link OutputStream}, encoded as UTF-8. Closing the writer doesn't
+     * close the {@link OutputStream}.
+     *
+     * @param output {@link OutputStream} to write to
+     */
+    public JSONEventWriter(OutputStream output) {
+        this(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Creates a writer of compact JSON into a {@link Writer}. Closing the writer doesn't close the {@link Writer}.
+     *
+     * @param writer {@link Writer} to write to
+     */
+    public JSONEventWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void add(XMLEvent event) throws XMLStreamException {
+        try {
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement(event.asStartElement());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (frames.isEmpty() == false && frames.peek().object == false)
+                        frames.peek().text.append(event.asCharacters().getData());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.flush();
+                    break;
+                default:
+                    // The prolog, comments and processing instructions have no JSON counterpart
+                    break;
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Handles the start of an element, opening its parent as an object and writing its member name.
+     *
+     * @param start start element event
+     * @throws IOException when the JSON can't be written
+     */
+    protected void startElement(StartElement start) throws IOException {
+        Frame parent = frames.peek();
+        Frame child = new Frame(start.getName().getLocalPart());
+        for (Iterator<?> i = start.getAttributes(); i.hasNext(); ) {
+            Attribute attribute = (Attribute) i.next();
+            String namespace = attribute.getName().getNamespaceURI();
+            String name = attribute.getName().getLocalPart();
+            if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespace)) {
+                if (name.equals("type"))
+                    child.type = attribute.getValue();
+            } else if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespace) == false) {
+                child.attributes.add(new String[]{name, attribute.getValue()});
+            }
+        }
+        if (parent != null) {
+            openObject(parent);
+            if (child.name.equals(parent.array)) {
+                writer.write(',');
+            } else {
+                closeArray(parent);
+                writeName(parent, child.name);
+                if (ARRAYS.contains(child.name)) {
+                    writer.write('[');
+                    parent.array = child.name;
+                }
+            }
+        }
+        frames.push(child);
+    }
+
+    /**
+     * Handles the end of an element, closing it as an object or writing it as a scalar.
+     *
+     * @throws IOException when the JSON can't be written
+     */
+    protected void endElement() throws IOException {
+        Frame frame = frames.pop();
+        if (frame.object == false && frame.type == null && frame.attributes.isEmpty()) {
+            writeScalar(frame.text.toString(), frames.peek(), frame.name);
+            return;
+        }
+        // Text alongside attributes (which the Reference Model doesn't have) is kept as "value"
+        String text = frame.object ? "" : frame.text.toString().trim();
+        openObject(frame);
+        if (text.isEmpty() == false) {
+            writeName(frame, "value");
+            writeString(text);
+        }
+        closeArray(frame);
+        writer.write('}');
+    }
+
+    /**
+     * Opens an element as an object, writing its "_type" and attributes, unless already open.
+     *
+     * @param frame element to be opened
+     * @throws IOException when the JSON can't be written
+     */
+    protected void openObject(Frame frame) throws IOException {
+        if (frame.object)
+            return;
+        frame.object = true;
+        frame.text.setLength(0);
+        writer.write('{');
+        if (frame.type != null) {
+            writeName(frame, "_type");
+            writeString(frame.type);
+        }
+        for (String[] attribute : frame.attributes) {
+            writeName(frame, attribute[0]);
+            writeString(attribute[1]);
+        }
+    }
+
+    /**
+     * Closes the array open within an object, if any.
+     *
+     * @param frame element holding the array
+     * @throws IOException when the JSON can't be written
+     */
+    protected void closeArray(Frame frame) throws IOException {
+        if (frame.array != null) {
+            writer.write(']');
+            frame.array = null;
+        }
+    }
+
+    /**
+     * Writes a member name into an object, preceded by a separator if it isn't the first member.
+     *
+     * @param frame element holding the member
+     * @param name name of the member
+     * @throws IOException when the JSON can't be written
+     */
+    protected void writeName(Frame frame, String name) throws IOException {
+        if (frame.members)
+            writer.write(',');
+        frame.members = true;
+        writeString(name);
+        writer.write(':');
+    }
+
+    /**
+     * Writes the value of an element with no child elements, as a number or boolean when the Reference Model says so
+     * and the text is valid as such, or as a string otherwise.
+     *
+     * @param text text content of the element
+     * @param parent parent element, or null for the root
+     * @param name name of the element
+     * @throws IOException when the JSON can't be written
+     */
+    protected void writeScalar(String text, Frame parent, String name) throws IOException {
+        String qualified = parent == null || parent.type == null ? name : parent.type + "." + name;
+        String value = text.trim();
+        if ((NUMBERS.contains(name) || NUMBERS.contains(qualified)) && NUMBER.matcher(value).matches())
+            writer.write(value);
+        else if ((BOOLEANS.contains(name) || BOOLEANS.contains(qualified))
+                && (value.equals("true") || value.equals("false")))
+            writer.write(value);
+        else
+            writeString(text);
+    }
+
+    /**
+     * Writes a JSON string, escaping the quotes, backslashes and control characters.
+     *
+     * @param text text to be written
+     * @throws IOException when the JSON can't be written
+     */
+    protected void writeString(String text) throws IOException {
+        writeString(writer, text);
+    }
+
+    /**
+     * Writes a JSON string into a {@link Writer}, escaping the quotes, backslashes and control characters.
+     *
+     * @param writer {@link Writer} to write to
+     * @param text text to be written
+     * @throws IOException when the JSON can't be written
+     */
+    public static void writeString(Writer writer, String text) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                writer.write(text, start, i - start);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        writer.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        writer.write(text, start, text.length() - start);
+        writer.write('"');
+    }
+
+    @Override
+    public void add(XMLEventReader reader) throws XMLStreamException {
+        while (reader.hasNext())
+            add(reader.nextEvent());
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public String getPrefix(String uri) {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) {
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) {
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+}
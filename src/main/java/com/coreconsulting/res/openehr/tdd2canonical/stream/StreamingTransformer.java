@@ -0,0 +1,756 @@
+package com.coreconsulting.res.openehr.tdd2canonical.stream;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDS;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSRegistry;
+import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.Metrics;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ActionTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ActivityTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AdminEntryTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ChainedTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ClusterTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.CompositionTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ElementTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.EvaluationTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.InstructionTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.IntervalEventTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ItemTreeTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.LocatableTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ObservationTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.PointEventTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.SectionTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
+import lombok.extern.log4j.Log4j2;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class implements a streaming alternative to {@link TDD#toCanonical()}, reading the TDD with StAX and writing
+ * the openEHR Reference Model composition as it goes, so no DOM is built for either document. The definition of each
+ * element is tracked through the compiled {@link TDSNode} descriptors of the associated {@link TDS}, and the
+ * transformations implemented by the {@link com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer}
+ * subclasses are replayed on the events. The ones that need to look ahead (ACTIVITY timing/description, DV_QUANTITY
+ * units/precision, DV_PROPORTION denominator, archetype_details before feeder_audit, empty POINT_EVENT state) only
+ * buffer the affected subtree as an {@link EventNode}, keeping the memory footprint per document roughly constant.
+ * Only the transformers shipped with the application are replayed (see {@link #REPLAYED}), so an element transformed
+ * by one registered from another jar follows the policy for unsupported types: under FAIL, the TDD fails with an
+ * {@link UnsupportedTypeException} and must be converted through {@link TDD#toCanonical()}, and under PASS_THROUGH,
+ * the element is copied through untransformed. Types with no transformer follow the same policy as there.
+ * Each instance transforms a single document and is not thread-safe.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class StreamingTransformer {
+
+    /**
+     * Factory of TDD readers, shared as it is thread-safe once configured.
+     */
+    protected static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    /**
+     * Factory of composition writers, shared as it is thread-safe once configured.
+     */
+    protected static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    /**
+     * Factory of the events written into the composition.
+     */
+    protected static final XMLEventFactory events = XMLEventFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    /**
+     * Prefix bound to the XML Schema instance namespace in the composition.
+     */
+    protected static final String XSI_PREFIX = "xsi";
+    /**
+     * {@literal @xsi:type} attribute name.
+     */
+    protected static final QName XSI_TYPE = new QName(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type", XSI_PREFIX);
+    /**
+     * {@literal @xsi:schemaLocation} attribute name.
+     */
+    protected static final QName XSI_SCHEMA_LOCATION = new QName(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+            "schemaLocation", XSI_PREFIX);
+    /**
+     * {@literal @archetype_node_id} attribute name.
+     */
+    protected static final QName ARCHETYPE_NODE_ID = new QName("archetype_node_id");
+    /**
+     * {@literal @template_id} attribute name.
+     */
+    protected static final QName TEMPLATE_ID = new QName("template_id");
+
+    /**
+     * Transformers whose transformations are replayed on the events. Transformers registered by other jars (see
+     * {@link TransformerFactory}) only run on the DOM, so elements they would transform follow the policy for
+     * unsupported types (see {@link #canReplay(AbstractTransformer, String)}).
+     */
+    protected static final Set<Class<? extends AbstractTransformer>> REPLAYED = new HashSet<>(Arrays.asList(
+            ActionTransformer.class, ActivityTransformer.class, AdminEntryTransformer.class, ClusterTransformer.class,
+            CompositionTransformer.class, ElementTransformer.class, EvaluationTransformer.class,
+            InstructionTransformer.class, IntervalEventTransformer.class, ItemTreeTransformer.class,
+            LocatableTransformer.class, ObservationTransformer.class, PointEventTransformer.class,
+            SectionTransformer.class));
+
+    /**
+     * Role assigned to an element by the transformation of its parent.
+     */
+    protected enum Role {
+        /** No transformation from the parent */
+        NONE,
+        /** OBSERVATION "data", transformed into a HISTORY */
+        HISTORY,
+        /** ELEMENT "name", which keeps only its first child */
+        ELEMENT_NAME,
+        /** ELEMENT "value", buffered to be transformed according to the @valueType */
+        ELEMENT_VALUE,
+        /** POINT_EVENT "name" */
+        EVENT_NAME,
+        /** POINT_EVENT "name/value", which text is replaced by "ANY_EVENT" */
+        EVENT_NAME_VALUE,
+        /** POINT_EVENT "state", buffered to be removed if empty and last */
+        EVENT_STATE,
+        /** ACTIVITY "timing", buffered to be moved after "description" */
+        ACTIVITY_TIMING,
+        /** LOCATABLE "uid" and "links", buffered until we know whether "feeder_audit" follows */
+        LOCATABLE_ATTRIBUTE,
+        /** Removed from the composition */
+        REMOVED
+    }
+
+    /**
+     * This class holds the transformation state of an element being read.
+     */
+    protected static class Frame {
+
+        /** Parent element, null for the root */
+        protected Frame parent;
+        /** Descriptor of the element definition, only when LOCATABLE */
+        protected TDSNode node;
+        /** Name of the element in the TDD, including the prefix, as matched against the TDS */
+        protected String name;
+        /** Local name of the element in the TDD */
+        protected String localName;
+        /** Name of the element in the composition */
+        protected String outputName;
+        /** Role assigned by the parent */
+        protected Role role = Role.NONE;
+        /** Destination of the start and end events of the element */
+        protected EventNode.Sink sink;
+        /** Destination of the content of the element */
+        protected EventNode.Sink content;
+        /** Buffer holding the element, when the parent needs to look ahead */
+        protected EventNode.Buffer buffer;
+        /** Number of child elements read so far */
+        protected int children;
+        /** Whether the archetype_details is still to be written */
+        protected boolean archetypeDetailsPending;
+        /** LOCATABLE "uid" and "links" held until archetype_details is written */
+        protected List<EventNode> heldAttributes = new ArrayList<>();
+        /** Child element held to be written later (ACTIVITY "timing", POINT_EVENT empty "state") */
+        protected EventNode held;
+        /** Whether a "context" (COMPOSITION), "data" (OBSERVATION), "value" (ELEMENT) or "name" (POINT_EVENT) was read */
+        protected boolean seen;
+
+        /**
+         * Returns the openEHR Reference Model type of the element, if LOCATABLE.
+         *
+         * @return type of the element, or null
+         */
+        protected String getType() {
+            return node == null ? null : node.getType();
+        }
+
+        /**
+         * Returns whether the element is of a given openEHR Reference Model type.
+         *
+         * @param type type to compare
+         * @return true if the element is LOCATABLE and of such type, false otherwise
+         */
+        protected boolean is(String type) {
+            return type.equals(getType());
+        }
+
+    }
+
+    /**
+     * TDD reader.
+     */
+    protected final XMLEventReader reader;
+    /**
+     * Composition writer.
+     */
+    protected final XMLEventWriter writer;
+    /**
+     * Destination of the events written into the composition.
+     */
+    protected final EventNode.Sink output;
+    /**
+     * {@literal @template_id} attribute. Parsed from the TDD root element.
+     */
+    protected String templateId;
+    /**
+     * TDS which the TDD complies to.
+     */
+    protected TDS tds;
+    /**
+     * Element currently being read.
+     */
+    protected Frame frame;
+    /**
+     * Number of LOCATABLE elements read, reported to {@link Metrics}.
+     */
+    protected int visited;
+
+    /**
+     * Creates a transformer for a single TDD.
+     *
+     * @param reader TDD reader
+     * @param writer composition writer
+     */
+    public StreamingTransformer(XMLEventReader reader, XMLEventWriter writer) {
+        this.reader = reader;
+        this.writer = writer;
+        this.output = writer::add;
+    }
+
+    /**
+     * Transforms a TDD from an {@link InputStream} into an openEHR Reference Model composition written as UTF-8 into
+     * an {@link OutputStream}. Neither stream is closed.
+     *
+     * @param tdd {@link InputStream} to read the TDD from
+     * @param composition {@link OutputStream} to write the composition into
+     * @throws XMLStreamException when the TDD can't be read or the composition can't be written
+     * @throws UnsupportedTypeException when transforming a TDD with a type that isn't supported
+     * @throws IllegalStateException when no TDS is available for the TDD
+     */
+    public static void toCanonical(InputStream tdd, OutputStream composition) throws XMLStreamException,
+            UnsupportedTypeException {
+        log.trace("toCanonical({})", () -> "");
+        XMLEventReader reader = inputFactory.createXMLEventReader(tdd);
+        XMLEventWriter writer = outputFactory.createXMLEventWriter(composition, "UTF-8");
+        try {
+            new StreamingTransformer(reader, writer).transform();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Transforms a TDD from an {@link InputStream} into an openEHR Reference Model composition written as canonical
+     * JSON, encoded as UTF-8, into an {@link OutputStream} (see {@link JSONEventWriter}). Neither stream is closed.
+     *
+     * @param tdd {@link InputStream} to read the TDD from
+     * @param composition {@link OutputStream} to write the composition into
+     * @throws XMLStreamException when the TDD can't be read or the composition can't be written
+     * @throws UnsupportedTypeException when transforming a TDD with a type that isn't supported
+     * @throws IllegalStateException when no TDS is available for the TDD
+     */
+    public static void toCanonicalJSON(InputStream tdd, OutputStream composition) throws XMLStreamException,
+            UnsupportedTypeException {
+        log.trace("toCanonicalJSON({})", () -> "");
+        XMLEventReader reader = inputFactory.createXMLEventReader(tdd);
+        XMLEventWriter writer = new JSONEventWriter(composition);
+        try {
+            new StreamingTransformer(reader, writer).transform();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Transforms the TDD read into an openEHR Reference Model composition.
+     *
+     * @throws XMLStreamException when the TDD can't be read or the composition can't be written
+     * @throws UnsupportedTypeException when transforming a TDD with a type that isn't supported
+     * @throws IllegalStateException when no TDS is available for the TDD
+     */
+    public void transform() throws XMLStreamException, UnsupportedTypeException {
+        log.trace("transform({})", () -> "");
+        long start = System.nanoTime();
+        writer.add(events.createStartDocument("UTF-8", "1.0"));
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement(event.asStartElement());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.COMMENT:
+                    // Anything outside the root element (i.e. the prolog) is not carried over
+                    if (frame != null)
+                        frame.content.add(event);
+                    break;
+                default:
+                    break;
+            }
+        }
+        writer.add(events.createEndDocument());
+        writer.flush();
+        // Reading and writing are interleaved with the transformation, so they are reported along with it
+        if (Metrics.isEnabled())
+            Metrics.getListener().converted(templateId, visited, System.nanoTime() - start);
+        log.debug("{}", () -> "transformed the TDD into a COMPOSITION");
+    }
+
+    /**
+     * Handles the start of an element, resolving its definition, applying the transformations of its parent and
+     * writing (or buffering) the start event.
+     *
+     * @param start start element event
+     * @throws XMLStreamException when the composition can't be written
+     * @throws UnsupportedTypeException when the element is of a type that isn't supported
+     */
+    protected void startElement(StartElement start) throws XMLStreamException, UnsupportedTypeException {
+        Frame parent = frame;
+        Frame child = new Frame();
+        child.parent = parent;
+        QName qName = start.getName();
+        child.localName = qName.getLocalPart();
+        child.name = qName.getPrefix().isEmpty() ? child.localName : qName.getPrefix() + ":" + child.localName;
+        child.outputName = child.localName;
+
+        TDSNode node;
+        if (parent == null) {
+            node = resolveTDS(start).getRootNode();
+        } else {
+            node = parent.node == null ? null : parent.node.getChild(child.name);
+        }
+        // If we reach something that is not LOCATABLE, only the transformations of its ancestors apply
+        if (node != null && node.isLocatable()) {
+            visited++;
+            String type = node.getType();
+            // Unsupported types follow the current policy, as in TDD#transformNode
+            AbstractTransformer dispatch = node.getDispatch() != null ? node.getDispatch() :
+                    TransformerFactory.getUnsupportedDispatch(type);
+            // Elements that can't be replayed are copied through along with their descendants, as if not LOCATABLE
+            if (canReplay(dispatch, type) == false)
+                node = null;
+        }
+        if (node != null && node.isLocatable()) {
+            child.node = node;
+            if (node.getNodeId().startsWith("openEHR-"))
+                child.archetypeDetailsPending = true;
+            if (child.is("COMPOSITION"))
+                child.outputName = "composition";
+            else if (child.is("ACTIVITY"))
+                child.outputName = "activities";
+        }
+
+        if (parent == null) {
+            child.sink = output;
+        } else {
+            beforeChild(parent, child);
+            parent.children++;
+        }
+        if (child.sink == null)
+            child.sink = parent.content;
+        if (child.role == Role.REMOVED) {
+            child.sink = EventNode.Sink.DISCARD;
+        } else if (child.role == Role.ELEMENT_VALUE || child.role == Role.EVENT_STATE
+                || child.role == Role.ACTIVITY_TIMING || child.role == Role.LOCATABLE_ATTRIBUTE) {
+            child.buffer = new EventNode.Buffer();
+            child.sink = child.buffer;
+        }
+        child.content = child.role == Role.EVENT_NAME_VALUE ? EventNode.Sink.DISCARD : child.sink;
+
+        child.sink.add(events.createStartElement("", TDD.OPENEHR_NS, child.outputName, getAttributes(start, child).iterator(),
+                getNamespaces(start, child).iterator()));
+        if (child.role == Role.EVENT_NAME_VALUE)
+            child.sink.add(events.createCharacters("ANY_EVENT"));
+        frame = child;
+    }
+
+    /**
+     * Returns whether a transformation is replayed on the events by this class, i.e. whether it only involves the
+     * transformers shipped with the application (see {@link #REPLAYED}).
+     *
+     * @param dispatch transformation resolved for a LOCATABLE element
+     * @return true if the transformation is replayed, false otherwise
+     */
+    protected static boolean isReplayed(AbstractTransformer dispatch) {
+        if (dispatch instanceof ChainedTransformer) {
+            ChainedTransformer chained = (ChainedTransformer) dispatch;
+            return isReplayed(chained.getLocatable()) && isReplayed(chained.getSpecific());
+        }
+        return REPLAYED.contains(dispatch.getClass());
+    }
+
+    /**
+     * Returns whether the transformation of a LOCATABLE element can be replayed on the events (see
+     * {@link #isReplayed(AbstractTransformer)}), applying the policy for unsupported types to those that can't (see
+     * {@link TransformerFactory#getUnsupportedTypePolicy()}): they fail the transformation when it is
+     * {@link TransformerFactory.UnsupportedTypePolicy#FAIL}, and are copied through when it is
+     * {@link TransformerFactory.UnsupportedTypePolicy#PASS_THROUGH}.
+     *
+     * @param dispatch transformation resolved for a LOCATABLE element
+     * @param type type of the element
+     * @return true if the transformation is replayed, false if the element is to be copied through
+     * @throws UnsupportedTypeException when the transformation can't be replayed and the policy is to fail
+     */
+    protected static boolean canReplay(AbstractTransformer dispatch, String type) throws UnsupportedTypeException {
+        if (isReplayed(dispatch))
+            return true;
+        if (TransformerFactory.getUnsupportedTypePolicy() == TransformerFactory.UnsupportedTypePolicy.FAIL) {
+            log.error("type={} is transformed by {}, which can't be replayed on a stream", () -> type,
+                    () -> dispatch.getClass().getName());
+            throw new UnsupportedTypeException(type);
+        }
+        log.warn("type={} is transformed by {}, which can't be replayed on a stream, so it is copied through",
+                () -> type, () -> dispatch.getClass().getName());
+        return false;
+    }
+
+    /**
+     * Handles the end of an element, writing anything still pending from its transformation and handing it over to
+     * its parent when buffered.
+     *
+     * @throws XMLStreamException when the composition can't be written
+     */
+    protected void endElement() throws XMLStreamException {
+        Frame child = frame;
+        // Write anything that was waiting for a following sibling
+        if (child.archetypeDetailsPending && child.children > 0)
+            writeArchetypeDetails(child, false);
+        if (child.held != null) {
+            // An empty "state" held until now is the last child, so it is removed
+            if (child.held.getLocalName().equals("state") == false)
+                child.content.add(child.held);
+            child.held = null;
+        }
+        if (child.role == Role.HISTORY && child.children == 0)
+            insertHistoryName(child, null);
+        child.sink.add(events.createEndElement("", TDD.OPENEHR_NS, child.outputName));
+
+        frame = child.parent;
+        if (frame != null)
+            afterChild(frame, child);
+    }
+
+    /**
+     * Applies the transformations of a parent element that affect a child being started: renaming it, assigning it a
+     * {@link Role} and inserting elements before it.
+     *
+     * @param parent parent element
+     * @param child child element being started
+     * @throws XMLStreamException when the composition can't be written
+     */
+    protected void beforeChild(Frame parent, Frame child) throws XMLStreamException {
+        String name = child.localName;
+
+        // A sibling following a held "state" means it wasn't the last one, so it is kept
+        if (parent.held != null && parent.held.getLocalName().equals("state")) {
+            parent.content.add(parent.held);
+            parent.held = null;
+        }
+        // LOCATABLE: archetype_details goes after "uid" and "links", before "feeder_audit" or the second child
+        if (parent.archetypeDetailsPending && parent.children > 0) {
+            if (name.equals("uid") || name.equals("links"))
+                child.role = Role.LOCATABLE_ATTRIBUTE;
+            else
+                writeArchetypeDetails(parent, name.equals("feeder_audit"));
+        }
+
+        if (parent.is("COMPOSITION")) {
+            // Archetyped children follow "context"
+            if (parent.seen)
+                child.outputName = "content";
+            else if (name.equals("context"))
+                parent.seen = true;
+        } else if (parent.is("SECTION") || parent.is("CLUSTER")) {
+            // "name" and "archetype_details" are the only non-archetyped children
+            if (name.equals("name") == false && name.equals("archetype_details") == false)
+                child.outputName = "items";
+        } else if (parent.is("ITEM_TREE")) {
+            if (parent.children == 0)
+                parent.content.add(EventNode.element("name", EventNode.element("value", "ITEM_TREE")));
+            child.outputName = "items";
+        } else if (parent.is("OBSERVATION")) {
+            if (name.equals("data") && parent.seen == false) {
+                parent.seen = true;
+                child.role = Role.HISTORY;
+            }
+        } else if (parent.is("ELEMENT")) {
+            if (parent.seen == false) {
+                if (name.equals("name")) {
+                    child.role = Role.ELEMENT_NAME;
+                } else if (name.equals("value")) {
+                    parent.seen = true;
+                    child.role = Role.ELEMENT_VALUE;
+                }
+            }
+        } else if (parent.is("POINT_EVENT")) {
+            if (name.equals("name") && parent.seen == false) {
+                parent.seen = true;
+                child.role = Role.EVENT_NAME;
+            } else if (name.equals("state")) {
+                child.role = Role.EVENT_STATE;
+            }
+        } else if (parent.is("ACTIVITY")) {
+            if (parent.children == 1)
+                child.role = Role.ACTIVITY_TIMING;
+        }
+
+        if (parent.role == Role.HISTORY) {
+            if (parent.children == 0)
+                insertHistoryName(parent, name);
+            if (name.equals("name") == false && name.equals("origin") == false)
+                child.outputName = "events";
+        } else if (parent.role == Role.ELEMENT_NAME) {
+            // "value" is the first child, so we remove the other ones
+            if (parent.children > 0)
+                child.role = Role.REMOVED;
+        } else if (parent.role == Role.EVENT_NAME) {
+            if (name.equals("value") && parent.seen == false) {
+                parent.seen = true;
+                child.role = Role.EVENT_NAME_VALUE;
+            }
+        } else if (parent.role == Role.REMOVED) {
+            child.role = Role.REMOVED;
+        }
+    }
+
+    /**
+     * Applies the transformations of a parent element that depend on a child that just ended, such as writing or
+     * holding it when buffered.
+     *
+     * @param parent parent element
+     * @param child child element that just ended
+     * @throws XMLStreamException when the composition can't be written
+     */
+    protected void afterChild(Frame parent, Frame child) throws XMLStreamException {
+        switch (child.role) {
+            case ELEMENT_VALUE:
+                transformValue(child.buffer.getRoot(), parent.node.getValueType());
+                parent.content.add(child.buffer.getRoot());
+                break;
+            case EVENT_STATE:
+                if (child.buffer.getRoot().hasChildNodes())
+                    parent.content.add(child.buffer.getRoot());
+                else
+                    parent.held = child.buffer.getRoot();
+                break;
+            case ACTIVITY_TIMING:
+                parent.held = child.buffer.getRoot();
+                break;
+            case LOCATABLE_ATTRIBUTE:
+                if (parent.archetypeDetailsPending)
+                    parent.heldAttributes.add(child.buffer.getRoot());
+                else
+                    parent.content.add(child.buffer.getRoot());
+                break;
+            default:
+                break;
+        }
+        // ACTIVITY: "timing" goes after "description"
+        if (parent.is("ACTIVITY") && parent.children == 3 && parent.held != null) {
+            parent.content.add(parent.held);
+            parent.held = null;
+        }
+    }
+
+    /**
+     * Writes the "archetype_details" of an archetype root, along with the "uid" and "links" held before it.
+     *
+     * @param frame archetype root element
+     * @param beforeFeederAudit whether it is being written before "feeder_audit", so it goes after the held elements
+     * @throws XMLStreamException when the composition can't be written
+     */
+    protected void writeArchetypeDetails(Frame frame, boolean beforeFeederAudit) throws XMLStreamException {
+        log.trace("adding child archetype_details to {}", () -> frame.name);
+        frame.archetypeDetailsPending = false;
+        if (beforeFeederAudit) {
+            for (EventNode held : frame.heldAttributes)
+                frame.content.add(held);
+        }
+        frame.content.add(EventNode.element("archetype_details",
+                EventNode.element("archetype_id", EventNode.element("value", frame.node.getNodeId())),
+                EventNode.element("template_id", EventNode.element("value", templateId)),
+                EventNode.element("rm_version", TDD.OPENEHR_RM_VERSION)));
+        if (beforeFeederAudit == false) {
+            for (EventNode held : frame.heldAttributes)
+                frame.content.add(held);
+        }
+        frame.heldAttributes.clear();
+    }
+
+    /**
+     * Inserts the "name" of an OBSERVATION "data" and, when absent, its "origin" generated from the current
+     * date/time. The "origin" is expected to be the first child when present, as defined by the TDS.
+     *
+     * @param frame "data" element
+     * @param firstChild local name of the first child element, or null if there is none
+     * @throws XMLStreamException when the composition can't be written
+     */
+    protected void insertHistoryName(Frame frame, String firstChild) throws XMLStreamException {
+        frame.content.add(EventNode.element("name", EventNode.element("value", "HISTORY")));
+        if ("origin".equals(firstChild) == false)
+            frame.content.add(EventNode.element("origin", EventNode.element("value",
+                    LocalDateTime.now().toString())));
+    }
+
+    /**
+     * Transforms a buffered ELEMENT "value" according to the DATA_VALUE type: computes the DV_PROPORTION
+     * "denominator" from its "type" and reverses the DV_QUANTITY "precision" and "units".
+     *
+     * @param value buffered "value" element
+     * @param valueType {@literal @valueType} of the ELEMENT
+     */
+    protected void transformValue(EventNode value, String valueType) {
+        List<EventNode> children = value.getChildNodes();
+        if ("DV_PROPORTION".equals(valueType)) {
+            if (children.size() > 1 && children.get(1).getLocalName().equals("type")) {
+                String type = children.get(1).getTextContent();
+                String denominator = type.equals("1") ? "1" : type.equals("2") ? "100" : "";
+                value.insertBefore(EventNode.element("denominator", denominator), children.get(1));
+            }
+        } else if ("DV_QUANTITY".equals(valueType)) {
+            if (children.size() > 2) {
+                EventNode units = children.get(children.size() - 1);
+                value.remove(units);
+                value.insertBefore(units, children.get(children.size() - 2));
+            }
+        }
+    }
+
+    /**
+     * Computes the attributes of an element in the composition: sets @archetype_node_id and @xsi:type from the
+     * definition, removes the namespace prefix from @xsi:type values and, for the root, replaces @template_id and
+     * {@literal @xsi:schemaLocation}.
+     *
+     * @param start start element event from the TDD
+     * @param frame element being started
+     * @return attributes of the element in the composition
+     */
+    protected List<Attribute> getAttributes(StartElement start, Frame frame) {
+        Map<QName, Attribute> attributes = new LinkedHashMap<>();
+        for (Iterator<?> i = start.getAttributes(); i.hasNext(); ) {
+            Attribute attribute = (Attribute) i.next();
+            QName name = attribute.getName();
+            if (frame.parent == null && name.equals(TEMPLATE_ID))
+                continue;
+            if (name.equals(XSI_TYPE))
+                setAttribute(attributes, XSI_TYPE, stripPrefix(attribute.getValue()));
+            else
+                attributes.put(name, attribute);
+        }
+        if (frame.node != null) {
+            setAttribute(attributes, ARCHETYPE_NODE_ID, frame.node.getNodeId());
+            if (frame.getType() != null)
+                setAttribute(attributes, XSI_TYPE, frame.getType());
+        }
+        if (frame.role == Role.HISTORY)
+            setAttribute(attributes, XSI_TYPE, "HISTORY");
+        else if (frame.role == Role.ELEMENT_VALUE && frame.parent.node.getValueType() != null)
+            setAttribute(attributes, XSI_TYPE, frame.parent.node.getValueType());
+        if (frame.parent == null)
+            setAttribute(attributes, XSI_SCHEMA_LOCATION, TDD.OPENEHR_XSI_LOCATION);
+        return new ArrayList<>(attributes.values());
+    }
+
+    /**
+     * Computes the namespace declarations of an element in the composition. The openEHR namespace becomes the
+     * default one, declared at the root, as all the elements lose their prefixes.
+     *
+     * @param start start element event from the TDD
+     * @param frame element being started
+     * @return namespace declarations of the element in the composition
+     */
+    protected List<Namespace> getNamespaces(StartElement start, Frame frame) {
+        List<Namespace> namespaces = new ArrayList<>();
+        boolean xsi = false;
+        if (frame.parent == null)
+            namespaces.add(events.createNamespace(TDD.OPENEHR_NS));
+        for (Iterator<?> i = start.getNamespaces(); i.hasNext(); ) {
+            Namespace namespace = (Namespace) i.next();
+            if (namespace.isDefaultNamespaceDeclaration() || namespace.getNamespaceURI().equals(TDD.OPENEHR_NS))
+                continue;
+            xsi |= namespace.getPrefix().equals(XSI_PREFIX);
+            namespaces.add(namespace);
+        }
+        if (frame.parent == null && xsi == false)
+            namespaces.add(events.createNamespace(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI));
+        return namespaces;
+    }
+
+    /**
+     * Resolves the TDS from the TDD root element, first from the @template_id and then from the
+     * {@literal @xsi:schemaLocation}, as in {@link TDD#getTDS()}.
+     *
+     * @param root root element event
+     * @return TDS which the TDD complies to
+     * @throws IllegalStateException when no TDS is available for the TDD, as in {@link TDD#toCanonical()}
+     */
+    protected TDS resolveTDS(StartElement root) {
+        Attribute templateId = root.getAttributeByName(TEMPLATE_ID);
+        this.templateId = templateId == null ? null : templateId.getValue();
+        log.debug("parsed template_id={} from the TDD", () -> this.templateId);
+        tds = TDSRegistry.fromTemplateId(this.templateId);
+        if (tds == null) {
+            Attribute schemaLocation = root.getAttributeByName(XSI_SCHEMA_LOCATION);
+            tds = TDSRegistry.fromTDSLocation(TDD.parseTDSLocation(schemaLocation == null ? null :
+                    schemaLocation.getValue()));
+        }
+        if (tds == null)
+            throw new IllegalStateException("no TDS available for @template_id=" + this.templateId);
+        return tds;
+    }
+
+    /**
+     * Sets an attribute with no namespace prefix in its value.
+     *
+     * @param attributes attributes being computed
+     * @param name name of the attribute
+     * @param value value of the attribute
+     */
+    protected static void setAttribute(Map<QName, Attribute> attributes, QName name, String value) {
+        attributes.put(name, events.createAttribute(name, value));
+    }
+
+    /**
+     * Removes the namespace prefix from a qualified name.
+     *
+     * @param name qualified name
+     * @return name without the prefix
+     */
+    protected static String stripPrefix(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -9,10 +10,13 @@ import org.w3c.dom.Node;
  * This class abstracts the concept of a transformer that is capable of transforming a TDD element of a specific
  * type, making it compliant to the openEHR Reference Model.
  * Every concrete subclass is expected to override this, providing the supported {@link #type} and a specific
- * {@link #transformElement(TDD, Element, String, String, StringBuilder)}, depending on the adjustments identified
+ * {@link #transformElement(TDD, Element, String, String, TDSNode)}, depending on the adjustments identified
  * through the gap between th TDD and the openEHR Reference Model for the type.
  * This is the major extensibility point of the application. Once a new concrete implementation is added, it has to
- * be registered through the {@link TransformerFactory} for it to be recognized by {@link TDD#transformNode(Node, StringBuilder)}.
+ * be registered as a service provider (listed in META-INF/services/{@value #SERVICE}, in its own jar or in this one)
+ * for the {@link TransformerFactory} to discover it, so it is recognized by {@link TDD#transformNode(Node, TDSNode)}.
+ * Implementations must have a public no-argument constructor and be safe for concurrent use, as a single instance
+ * transforms every element of its type.
  *
  * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
  */
@@ -23,10 +27,22 @@ public abstract class AbstractTransformer {
      * The type of element this transformer handles
      */
     public static String type;
+    /**
+     * Name of the service provider configuration file listing the implementations.
+     */
+    public static final String SERVICE = "com.coreconsulting.res.openehr.tdd2canonical.transformer." +
+            "AbstractTransformer";
+
+    /**
+     * Returns the type of element this transformer handles, used to register it (see {@link TransformerFactory}).
+     *
+     * @return openEHR Reference Model type handled by this transformer
+     */
+    public abstract String getType();
 
     /**
      * Transforms an {@link Element} of a {@link TDD}. May use the @archetype_node_id and @type for decision logic,
-     * and might also use the equivalent path to its definition in the
+     * and might also use the descriptor of its definition in the
      * {@link com.coreconsulting.res.openehr.tdd2canonical.TDS} to look up additional information, such as the @valueType
      * that identifies the concrete type of a DATA_VALUE according to the openEHR Reference Model.
      *
@@ -34,8 +50,8 @@ public abstract class AbstractTransformer {
      * @param element {@link Element} element being transformed
      * @param nodeId {@literal @archetype_node_id} of the element
      * @param type type of the element
-     * @param xsdXPath path to the definition in the {@link com.coreconsulting.res.openehr.tdd2canonical.TDS}
+     * @param tdsNode descriptor of the definition in the {@link com.coreconsulting.res.openehr.tdd2canonical.TDS}
      */
-    public abstract void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath);
+    public abstract void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode);
 
 }
@@ -1,11 +1,11 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of an ACTIVITY from the TDD so that it complies to the openEHR Reference
@@ -20,15 +20,21 @@ public class ActivityTransformer extends AbstractTransformer {
     public static String type = "ACTIVITY";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
         Document document = element.getOwnerDocument();
         document.renameNode(element, null, "activities");
 
-        List<Element> children = tdd.getChildElements(element);
+        Element description = tdd.getChildElement(element, 1);
+        Element reference = tdd.getChildElement(element, 3);
         log.debug("{}", () -> "reversing ACTIVITY children timing and description");
-        element.removeChild(children.get(1));
-        element.insertBefore(children.get(1), children.get(3));
+        element.removeChild(description);
+        element.insertBefore(description, reference);
     }
 }
@@ -1,6 +1,7 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Element;
 
@@ -17,7 +18,12 @@ public class AdminEntryTransformer extends AbstractTransformer {
     public static String type = "ADMIN_ENTRY";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
     }
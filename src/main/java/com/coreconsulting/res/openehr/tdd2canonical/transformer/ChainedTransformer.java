@@ -0,0 +1,54 @@
+package com.coreconsulting.res.openehr.tdd2canonical.transformer;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.Element;
+
+/**
+ * This class implements the dispatch of a LOCATABLE element of a specific type, applying the general LOCATABLE
+ * transformation followed by the one specific to the type. It is resolved once per type (see
+ * {@link TransformerFactory#getDispatch(String)}) and referenced by the compiled descriptors, so the transformation
+ * doesn't look up transformers for every element. It is not registered as a service provider, as it handles no type
+ * of its own.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class ChainedTransformer extends AbstractTransformer {
+
+    /**
+     * General LOCATABLE transformer, applied first.
+     */
+    @Getter
+    protected final AbstractTransformer locatable;
+    /**
+     * Transformer specific to the type, applied next.
+     */
+    @Getter
+    protected final AbstractTransformer specific;
+
+    /**
+     * Creates the dispatch for a type.
+     *
+     * @param locatable general LOCATABLE transformer
+     * @param specific transformer specific to the type
+     */
+    public ChainedTransformer(AbstractTransformer locatable, AbstractTransformer specific) {
+        this.locatable = locatable;
+        this.specific = specific;
+    }
+
+    @Override
+    public String getType() {
+        return specific.getType();
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
+        locatable.transformElement(tdd, element, nodeId, type, tdsNode);
+        specific.transformElement(tdd, element, nodeId, type, tdsNode);
+    }
+
+}
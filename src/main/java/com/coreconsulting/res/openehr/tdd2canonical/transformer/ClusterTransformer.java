@@ -1,11 +1,11 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of a CLUSTER from the TDD so that it complies to the openEHR Reference
@@ -20,17 +20,22 @@ public class ClusterTransformer extends AbstractTransformer {
     public static String type = "CLUSTER";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
-        List<Element> children = tdd.getChildElements(element);
         Document document = element.getOwnerDocument();
-        for (Element child : children) {
+        for (Element child = tdd.getFirstChildElement(element); child != null;
+             child = tdd.getNextElementSibling(child)) {
             String nodeName = child.getNodeName();
             // "name" and "archetype_details" are the only non-archetyped children
             if (nodeName.equals("name") || nodeName.equals("archetype_details"))
                 continue;
-            log.trace("renaming {} to items", () -> child.getNodeName());
+            log.trace("renaming {} to items", () -> nodeName);
             document.renameNode(child, null, "items");
         }
     }
@@ -1,13 +1,12 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of a COMPOSITION from the TDD so that it complies to the openEHR Reference
@@ -22,20 +21,25 @@ public class CompositionTransformer extends AbstractTransformer {
     public static String type = "COMPOSITION";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
         log.debug("renaming {} to composition", () -> element.getNodeName());
         Document document = element.getOwnerDocument();
         document.renameNode(element, null, "composition");
 
-        List<Element> children = tdd.getChildElements(element);
-        for (int i = children.size() - 1; i >= 0; i--) {
-            Node child = children.get(i);
+        for (Element child = tdd.getLastChildElement(element); child != null;
+             child = tdd.getPreviousElementSibling(child)) {
             // Rename all the children from the last one until we reach "context"
             if (child.getNodeName().equals("context"))
                 break;
-            log.trace("renaming {} to content", () -> child.getNodeName());
+            Element _child = child;
+            log.trace("renaming {} to content", () -> _child.getNodeName());
             document.renameNode(child, null, "content");
         }
 
@@ -53,8 +57,12 @@ public class CompositionTransformer extends AbstractTransformer {
      */
     protected void transformNamespacePrefix(TDD tdd, Element element) {
         log.trace("transformNamespacePrefix({}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName());
-        for (Element child : tdd.getChildElements(element))
+        for (Element child = tdd.getFirstChildElement(element); child != null; ) {
+            // Look up the next sibling first, as the child is renamed
+            Element next = tdd.getNextElementSibling(child);
             transformNamespacePrefix(tdd, child);
+            child = next;
+        }
         // For now, hardcode the namespace declaration as the default for compatibility with EtherCIS and EHRbase
         String nodeName = element.getNodeName();
         if (nodeName.contains(":")) {
@@ -1,11 +1,10 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of an ELEMENT from the TDD so that it complies to the openEHR Reference
@@ -24,19 +23,25 @@ public class ElementTransformer extends AbstractTransformer {
     public static String type = "ELEMENT";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
-        String valueType = tdd.getTDS().getCachedXPathAsString(xsdXPath + "/complexType[1]/attribute[@name='valueType'][1" +
-                "]/@fixed");
-        List<Element> children = tdd.getChildElements(element);
-        for (Element child : children) {
+        String valueType = tdsNode.getValueType();
+        for (Element child = tdd.getFirstChildElement(element); child != null;
+             child = tdd.getNextElementSibling(child)) {
             if (child.getNodeName().equals("name")) {
                 log.trace("removing {} children other than {}", () -> "name", () -> "value");
-                List<Element> nameChildren = tdd.getChildElements(child);
-                for (int i = 1; i < nameChildren.size(); i++) {
-                    // "name" is the first index, so we skip it
-                    child.removeChild(nameChildren.get(i));
+                // "value" is the first child, so we skip it
+                Element nameChild = tdd.getChildElement(child, 1);
+                while (nameChild != null) {
+                    Element next = tdd.getNextElementSibling(nameChild);
+                    child.removeChild(nameChild);
+                    nameChild = next;
                 }
             }
             if (child.getNodeName().equals("value")) {
@@ -44,9 +49,8 @@ public class ElementTransformer extends AbstractTransformer {
                 child.setAttribute("xsi:type", tdd.getNamespacePrefix() + valueType);
                 if (valueType.equals("DV_PROPORTION")) {
                     log.trace("inferring {} denominator from type", () -> valueType);
-                    List<Element> proportionChildren = tdd.getChildElements(child);
-                    Element proportionType = proportionChildren.get(1);
-                    if (proportionType.getNodeName().equals("type")) {
+                    Element proportionType = tdd.getChildElement(child, 1);
+                    if (proportionType != null && proportionType.getNodeName().equals("type")) {
                         // set DV_PROPORTION "denominator" based on "type"
                         Element denominator = element.getOwnerDocument().createElement("denominator");
                         child.insertBefore(denominator, proportionType);
@@ -58,10 +62,12 @@ public class ElementTransformer extends AbstractTransformer {
                     }
                 } else if (valueType.equals("DV_QUANTITY")) {
                     log.trace("reversing {} children precision and units", () -> valueType);
-                    List<Element> quantityChildren = tdd.getChildElements(child);
-                    if (quantityChildren.size() > 2) {
-                        Node units = child.removeChild(quantityChildren.get(quantityChildren.size() - 1));
-                        child.insertBefore(units, quantityChildren.get(quantityChildren.size() - 2));
+                    Element units = tdd.getLastChildElement(child);
+                    Element precision = units == null ? null : tdd.getPreviousElementSibling(units);
+                    // Only when there are more than 2 children
+                    if (precision != null && tdd.getPreviousElementSibling(precision) != null) {
+                        child.removeChild(units);
+                        child.insertBefore(units, precision);
                     }
                 }
                 break;
@@ -1,11 +1,11 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of an ITEM_TREE from the TDD so that it complies to the openEHR Reference
@@ -20,17 +20,24 @@ public class ItemTreeTransformer extends AbstractTransformer {
     public static String type = "ITEM_TREE";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
-        List<Element> children = tdd.getChildElements(element);
-        if (children.size() > 0) {
-            log.trace("adding child name[value=ITEM_TREE] before {}", () -> children.get(0).getNodeName());
-            tdd.insertNameBeforeElement(element, children.get(0), "ITEM_TREE");
+        Element first = tdd.getFirstChildElement(element);
+        if (first != null) {
+            log.trace("adding child name[value=ITEM_TREE] before {}", () -> first.getNodeName());
+            tdd.insertNameBeforeElement(element, first, "ITEM_TREE");
         }
         Document document = element.getOwnerDocument();
-        for (Element child : children) {
-            log.trace("renaming {} to items", () -> child.getNodeName());
+        // The name was added before the first child, so it isn't renamed
+        for (Element child = first; child != null; child = tdd.getNextElementSibling(child)) {
+            Element _child = child;
+            log.trace("renaming {} to items", () -> _child.getNodeName());
             document.renameNode(child, null, "items");
         }
     }
@@ -1,11 +1,11 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of a LOCATABLE from the TDD so that it complies to the openEHR Reference
@@ -21,7 +21,12 @@ public class LocatableTransformer extends AbstractTransformer {
     public static String type = "LOCATABLE";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
         log.debug("setting @archetype_node_id={} and @type={} for {}", () -> nodeId, () -> type,
@@ -31,10 +36,9 @@ public class LocatableTransformer extends AbstractTransformer {
             element.setAttribute("xsi:type", tdd.getNamespacePrefix() + type);
 
         if (nodeId.startsWith("openEHR-")) {
-            List<Element> children = tdd.getChildElements(element);
-            Element reference = children.get(1);
-            for (int i = children.size() - 1; i >= 0; i--) {
-                Element child = children.get(i);
+            Element reference = tdd.getChildElement(element, 1);
+            for (Element child = tdd.getLastChildElement(element); child != null;
+                 child = tdd.getPreviousElementSibling(child)) {
                 if (child.getNodeName().equals("feeder_audit")) {
                     reference = child;
                     break;
@@ -1,12 +1,12 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 /**
  * This class implements the transformation of an OBSERVATION from the TDD so that it complies to the openEHR Reference
@@ -22,39 +22,37 @@ public class ObservationTransformer extends AbstractTransformer {
     public static String type = "OBSERVATION";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
-        List<Element> children = tdd.getChildElements(element);
-
-        Element data = null;
-        for (Element child : children) {
-            if (child.getNodeName().equals("data")) {
-                data = child;
-                break;
-            }
-        }
+        Element data = tdd.getChildElement(element, "data");
         log.debug("setting @type to {}", () -> "HISTORY");
         data.setAttribute("xsi:type", tdd.getNamespacePrefix() + "HISTORY");
         tdd.insertNameAsFirstChild(data, "HISTORY");
 
         Document document = element.getOwnerDocument();
-        List<Element> dataChildren = tdd.getChildElements(data);
+        Element reference = tdd.getChildElement(data, 1);
         boolean hasOrigin = false;
-        for (Element child : dataChildren) {
-            if (child.getNodeName().equals("name")) {
+        for (Element child = tdd.getFirstChildElement(data); child != null; child = tdd.getNextElementSibling(child)) {
+            String nodeName = child.getNodeName();
+            if (nodeName.equals("name")) {
                 continue;
-            } else if (child.getNodeName().equals("origin")) {
+            } else if (nodeName.equals("origin")) {
                 hasOrigin = true;
             } else {
-                log.debug("renaming {} to events", () -> child.getNodeName());
+                log.debug("renaming {} to events", () -> nodeName);
                 document.renameNode(child, null, "events");
             }
         }
         if (hasOrigin == false) {
-            log.debug("adding child origin[value=now() before {}", () -> dataChildren.get(1).getNodeName());
+            log.debug("adding child origin[value=now() before {}", () -> reference.getNodeName());
             Element origin = document.createElement("origin");
-            data.insertBefore(origin, dataChildren.get(1));
+            data.insertBefore(origin, reference);
             Element value = document.createElement("value");
             value.setTextContent(LocalDateTime.now().toString());
             origin.appendChild(value);
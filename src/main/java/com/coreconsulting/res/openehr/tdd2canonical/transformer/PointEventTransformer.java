@@ -1,10 +1,10 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Element;
 
-import java.util.List;
 
 /**
  * This class implements the transformation of a POINT_EVENT from the TDD so that it complies to the openEHR Reference
@@ -19,27 +19,23 @@ public class PointEventTransformer extends AbstractTransformer {
     public static String type = "POINT_EVENT";
 
     @Override
-    public void transformElement(TDD tdd, Element element, String nodeId, String type, StringBuilder xsdXPath) {
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
         log.trace("transformElement({}, {}, {}, {})", () -> tdd.getTemplateId(), () -> element.getNodeName(),
                 () -> nodeId, () -> type);
-        List<Element> children = tdd.getChildElements(element);
-        Element name = null;
-        for (Element child : children) {
-            if (child.getNodeName().equals("name")) {
-                name = child;
-                break;
-            }
-        }
-        for (Element child : tdd.getChildElements(name)) {
-            if (child.getNodeName().equals("value")) {
-                log.trace("renaming name/value from {} to ANY_EVENT", () -> child.getTextContent());
-                child.setTextContent("ANY_EVENT");
-                break;
-            }
+        Element name = tdd.getChildElement(element, "name");
+        Element value = name == null ? null : tdd.getChildElement(name, "value");
+        if (value != null) {
+            log.trace("renaming name/value from {} to ANY_EVENT", () -> value.getTextContent());
+            value.setTextContent("ANY_EVENT");
         }
 
-        Element state = children.get(children.size() - 1);
-        if (state.getNodeName().equals("state") && tdd.getChildElements(state).size() == 0) {
+        Element state = tdd.getLastChildElement(element);
+        if (state.getNodeName().equals("state") && tdd.getFirstChildElement(state) == null) {
             log.trace("removing empty {}", () -> "state");
             element.removeChild(state);
         }
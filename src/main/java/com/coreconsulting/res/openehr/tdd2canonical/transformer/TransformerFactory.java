@@ -1,43 +1,72 @@
 package com.coreconsulting.res.openehr.tdd2canonical.transformer;
 
 import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
 import lombok.extern.log4j.Log4j2;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class implements the functionality related to providing transformers for the TDD transformation.
- * Once a new concrete implementation is added, it has to be registered for it to be recognized.
+ * Transformers are discovered once, through {@link ServiceLoader}, from every META-INF/services/
+ * {@value AbstractTransformer#SERVICE} file on the classpath, so transformers for further types can be added from
+ * another jar. When several transformers handle the same type, the first one found is kept.
+ * The transformation applied to a LOCATABLE element (the general LOCATABLE transformation followed by the one
+ * specific to its type) is resolved once per type, when compiling a
+ * {@link com.coreconsulting.res.openehr.tdd2canonical.TDS} (see {@link #getDispatch(String)}), while the policy for
+ * types with no transformer (see {@link Properties#UNSUPPORTED_TYPE_POLICY}) is applied whenever an element of such
+ * type is transformed (see {@link #getUnsupportedDispatch(String)}).
  *
  * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
  */
 @Log4j2
 public class TransformerFactory {
 
+    /**
+     * This enumeration lists the policies for types with no transformer.
+     */
+    public enum UnsupportedTypePolicy {
+        /**
+         * Fails the transformation of TDDs holding an element of such type, with an {@link UnsupportedTypeException}.
+         */
+        FAIL,
+        /**
+         * Applies only the general LOCATABLE transformation to elements of such type, leaving the rest of the element
+         * as in the TDD.
+         */
+        PASS_THROUGH
+    }
+
     /**
      * {@link Map} used to catalog known transformers at runtime
      */
     protected static Map<String, AbstractTransformer> transformers = new HashMap<>();
+    /**
+     * Transformations resolved for each type (see {@link #getDispatch(String)}), indexed by type, or by the empty
+     * string for LOCATABLE elements with no type.
+     */
+    protected static final Map<String, AbstractTransformer> dispatches = new ConcurrentHashMap<>();
 
     /**
      * Populates {@link #transformers} at initialization
      */
     static {
-        transformers.put(ActionTransformer.type, new ActionTransformer());
-        transformers.put(ActivityTransformer.type, new ActivityTransformer());
-        transformers.put(AdminEntryTransformer.type, new AdminEntryTransformer());
-        transformers.put(ClusterTransformer.type, new ClusterTransformer());
-        transformers.put(CompositionTransformer.type, new CompositionTransformer());
-        transformers.put(ElementTransformer.type, new ElementTransformer());
-        transformers.put(EvaluationTransformer.type, new EvaluationTransformer());
-        transformers.put(InstructionTransformer.type, new InstructionTransformer());
-        transformers.put(IntervalEventTransformer.type, new IntervalEventTransformer());
-        transformers.put(ItemTreeTransformer.type, new ItemTreeTransformer());
-        transformers.put(LocatableTransformer.type, new LocatableTransformer());
-        transformers.put(ObservationTransformer.type, new ObservationTransformer());
-        transformers.put(PointEventTransformer.type, new PointEventTransformer());
-        transformers.put(SectionTransformer.type, new SectionTransformer());
+        for (AbstractTransformer transformer : ServiceLoader.load(AbstractTransformer.class,
+                TransformerFactory.class.getClassLoader())) {
+            AbstractTransformer registered = transformers.putIfAbsent(transformer.getType(), transformer);
+            if (registered == null)
+                log.debug("registered {} for type={}", () -> transformer.getClass().getName(), transformer::getType);
+            else
+                log.warn("ignoring {} for type={}, already handled by {}", () -> transformer.getClass().getName(),
+                        transformer::getType, () -> registered.getClass().getName());
+        }
+        if (transformers.containsKey(LocatableTransformer.type) == false)
+            throw new IllegalStateException("no transformer registered for type=" + LocatableTransformer.type);
     }
 
     /**
@@ -56,4 +85,84 @@ public class TransformerFactory {
         return transformer;
     }
 
+    /**
+     * Looks up an actual transformer by the type of element to be transformed, without failing for unsupported types.
+     * Used when compiling a {@link com.coreconsulting.res.openehr.tdd2canonical.TDS}, as not every type defined in it
+     * necessarily shows up in a TDD.
+     *
+     * @param type type of the element to be transformed
+     * @return actual transformer intended to transform the element, or null if the type hasn't been registered
+     */
+    public static AbstractTransformer findTransformer(String type) {
+        return transformers.get(type);
+    }
+
+    /**
+     * Returns the transformation to be applied to a LOCATABLE element of a type: the general LOCATABLE transformation
+     * followed by the one specific to the type (see {@link ChainedTransformer}), or only the former if the element
+     * has no type. Resolved once per supported type. Types with no transformer get no transformation here, so the
+     * policy for them is only applied when an element of such type is transformed (see
+     * {@link #getUnsupportedDispatch(String)}) and follows {@link Properties#reload()}.
+     *
+     * @param type type of the element, or null
+     * @return transformation to be applied to the element, or null if the type is unsupported
+     */
+    public static AbstractTransformer getDispatch(String type) {
+        AbstractTransformer dispatch = dispatches.get(type == null ? "" : type);
+        if (dispatch != null)
+            return dispatch;
+        AbstractTransformer locatable = transformers.get(LocatableTransformer.type);
+        if (type == null)
+            return dispatches.computeIfAbsent("", key -> locatable);
+        AbstractTransformer specific = transformers.get(type);
+        if (specific == null)
+            return null;
+        return dispatches.computeIfAbsent(type, key -> new ChainedTransformer(locatable, specific));
+    }
+
+    /**
+     * Returns the transformation to be applied to a LOCATABLE element of a type with no transformer, according to the
+     * current policy (see {@link #getUnsupportedTypePolicy()}): only the general LOCATABLE transformation when it is
+     * {@link UnsupportedTypePolicy#PASS_THROUGH}, or a failure when it is {@link UnsupportedTypePolicy#FAIL}.
+     *
+     * @param type type of the element
+     * @return general LOCATABLE transformer
+     * @throws UnsupportedTypeException when the policy is to fail
+     */
+    public static AbstractTransformer getUnsupportedDispatch(String type) throws UnsupportedTypeException {
+        if (getUnsupportedTypePolicy() == UnsupportedTypePolicy.FAIL) {
+            log.error("unsupported type={}", () -> type);
+            throw new UnsupportedTypeException(type);
+        }
+        log.debug("passing through unsupported type={}", () -> type);
+        return transformers.get(LocatableTransformer.type);
+    }
+
+    /**
+     * Returns the policy for types with no transformer, from {@link Properties#UNSUPPORTED_TYPE_POLICY}.
+     *
+     * @return policy for types with no transformer, {@link UnsupportedTypePolicy#FAIL} by default
+     */
+    public static UnsupportedTypePolicy getUnsupportedTypePolicy() {
+        String policy = Properties.getProperty(Properties.UNSUPPORTED_TYPE_POLICY);
+        if (policy == null)
+            return UnsupportedTypePolicy.FAIL;
+        try {
+            return UnsupportedTypePolicy.valueOf(policy.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            log.warn("unknown {}={}, failing unsupported types", () -> Properties.UNSUPPORTED_TYPE_POLICY,
+                    () -> policy);
+            return UnsupportedTypePolicy.FAIL;
+        }
+    }
+
+    /**
+     * Lists the types with a registered transformer.
+     *
+     * @return types with a registered transformer
+     */
+    public static Set<String> getTypes() {
+        return Collections.unmodifiableSet(transformers.keySet());
+    }
+
 }
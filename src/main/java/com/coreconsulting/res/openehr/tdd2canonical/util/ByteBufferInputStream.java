@@ -0,0 +1,73 @@
+package com.coreconsulting.res.openehr.tdd2canonical.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class implements an {@link InputStream} over the remaining bytes of a {@link ByteBuffer}, so parsers can read
+ * from memory-mapped files (see {@link XML#map(java.io.File)}) or message payloads without copying them into an array
+ * first. The stream reads from a duplicate of the buffer, leaving the position of the buffer given untouched, and
+ * supports {@link #mark(int)} and {@link #reset()}. Instances are not thread-safe.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    /**
+     * Duplicate of the buffer being read.
+     */
+    protected final ByteBuffer buffer;
+
+    /**
+     * Creates a stream over the remaining bytes of a buffer.
+     *
+     * @param buffer {@link ByteBuffer} to be read
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0)
+            return 0;
+        if (buffer.hasRemaining() == false)
+            return -1;
+        int read = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buffer.reset();
+    }
+
+}
@@ -4,11 +4,14 @@ import lombok.extern.log4j.Log4j2;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
 
 /**
  * This class reads properties from a XML file and serves them for resource introspection (i.e. resource paths).
  * The default properties file is "./src/main/resources/properties.xml", but it can be overridden through the system
- * property "properties".
+ * property "properties". Properties are read once, when first needed, and can be read again at runtime (see
+ * {@link #reload()}), e.g. to pick up new @template_id mappings.
  *
  * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
  */
@@ -23,11 +26,44 @@ public class Properties {
      * The folder where the TDS files shipped with the application are stored.
      */
     public static String TEMPLATE_FOLDER = "TEMPLATE_FOLDER";
+    /**
+     * The maximum number of TDS instances kept in memory by the registry.
+     */
+    public static String REGISTRY_MAX_SIZE = "REGISTRY_MAX_SIZE";
+    /**
+     * The maximum total weight (compiled element definitions) of the TDS instances kept in memory by the registry.
+     */
+    public static String REGISTRY_MAX_WEIGHT = "REGISTRY_MAX_WEIGHT";
+    /**
+     * The maximum number of compiled XPath expressions cached per thread.
+     */
+    public static String XPATH_CACHE_SIZE = "XPATH_CACHE_SIZE";
+    /**
+     * The number of threads compiling templates during the warm-up.
+     */
+    public static String WARMUP_THREADS = "WARMUP_THREADS";
+    /**
+     * The policy for types with no transformer, either FAIL or PASS_THROUGH.
+     */
+    public static String UNSUPPORTED_TYPE_POLICY = "UNSUPPORTED_TYPE_POLICY";
+    /**
+     * The timeout to connect to the template server, in milliseconds.
+     */
+    public static String FETCH_CONNECT_TIMEOUT = "FETCH_CONNECT_TIMEOUT";
+    /**
+     * The timeout to read from the template server, in milliseconds.
+     */
+    public static String FETCH_READ_TIMEOUT = "FETCH_READ_TIMEOUT";
+    /**
+     * The period a TDS retrieved from the template server is served from the mirror without being validated again, in
+     * milliseconds.
+     */
+    public static String FETCH_MAX_AGE = "FETCH_MAX_AGE";
 
     /**
      * Static reference to the properties object.
      */
-    private static java.util.Properties properties;
+    private static volatile java.util.Properties properties;
 
     /**
      * Retrieves a named property mapped from the property file (either default or overriden).
@@ -38,21 +74,90 @@ public class Properties {
     public static String getProperty(String key) {
         log.trace("getProperty({})", () -> key);
         // Initializes the properties object once, when needed
-        if (properties == null) {
-            properties = new java.util.Properties();
-            try {
-                // If a custom properties file has been assigned, use it
-                String path = System.getProperty("properties");
-                if (path == null) {
-                    // Otherwise use the default one
-                    path = "./src/main/resources/properties.xml";
-                }
-                properties.loadFromXML(new FileInputStream(path));
-            } catch (IOException e) {
-                log.error("failed to read properties file", e);
-            }
-        }
+        if (properties == null)
+            load();
         return properties.getProperty(key);
     }
 
+    /**
+     * Retrieves a named property mapped from the property file (either default or overriden), falling back to a
+     * default value if it isn't mapped.
+     *
+     * @param key name of the property which value is to be retrieved
+     * @param defaultValue value to be returned if the property isn't mapped
+     * @return value of the the property, or the default value
+     */
+    public static String getProperty(String key, String defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Lists the names of the properties mapped from the property file (either default or overriden), such as the
+     * {@literal @template_id} to file name mappings.
+     *
+     * @return names of the properties
+     */
+    public static Set<String> getPropertyNames() {
+        log.trace("getPropertyNames({})", () -> "");
+        if (properties == null)
+            load();
+        return properties.stringPropertyNames();
+    }
+
+    /**
+     * Returns the path of the properties file, either the one assigned through the system property "properties" or the
+     * default one.
+     *
+     * @return path of the properties file
+     */
+    public static String getPath() {
+        // If a custom properties file has been assigned, use it, otherwise use the default one
+        String path = System.getProperty("properties");
+        return path == null ? "./src/main/resources/properties.xml" : path;
+    }
+
+    /**
+     * Reads the properties file again and atomically replaces the properties being served, so callers observe either
+     * the previous or the new properties, never a mix of both. If the file can't be read (e.g. while it is being
+     * written), the previous properties are kept.
+     *
+     * @return true if the properties were replaced, false otherwise
+     */
+    public static synchronized boolean reload() {
+        log.trace("reload({})", () -> "");
+        java.util.Properties loaded = read();
+        if (loaded == null)
+            return false;
+        properties = loaded;
+        log.info("reloaded {} properties", loaded::size);
+        return true;
+    }
+
+    /**
+     * Reads the properties file. Synchronized so concurrent callers never observe a partially loaded object.
+     */
+    private static synchronized void load() {
+        if (properties != null)
+            return;
+        java.util.Properties loaded = read();
+        properties = loaded == null ? new java.util.Properties() : loaded;
+    }
+
+    /**
+     * Reads the properties file into a new object.
+     *
+     * @return the properties read, or null if the file can't be read
+     */
+    private static java.util.Properties read() {
+        java.util.Properties loaded = new java.util.Properties();
+        try (InputStream stream = new FileInputStream(getPath())) {
+            loaded.loadFromXML(stream);
+            return loaded;
+        } catch (IOException e) {
+            log.error("failed to read properties file", e);
+            return null;
+        }
+    }
+
 }
@@ -4,17 +4,47 @@ import lombok.extern.log4j.Log4j2;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * This class implements functionality related to regular expressions, including group capturing.
+ * Expressions are compiled once and cached (up to {@link #CACHE_SIZE} of them), as {@link Pattern} instances are safe
+ * for concurrent use. Callers with a fixed expression in a hot path should rather keep their own {@link Pattern}.
  *
  * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
  */
 @Log4j2
 public class RegEx {
 
+    /**
+     * Maximum number of compiled expressions cached. Once reached, further expressions are compiled on every call.
+     */
+    public static final int CACHE_SIZE = 256;
+
+    /**
+     * Cache of compiled expressions, indexed by expression.
+     */
+    protected static final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the compiled {@link Pattern} of a regular expression, compiling it once.
+     *
+     * @param regex regular expression
+     * @return compiled {@link Pattern}
+     */
+    public static Pattern getPattern(String regex) {
+        Pattern pattern = patterns.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            if (patterns.size() < CACHE_SIZE)
+                patterns.putIfAbsent(regex, pattern);
+        }
+        return pattern;
+    }
+
     /**
      * Returns the first captured group after matching a {@link String} against a regular expression.
      *
@@ -24,7 +54,18 @@ public class RegEx {
      */
     public static String getFirstMatch(String string, String regex) {
         log.trace("getFirstMatch({}, {})", () -> string, () -> regex);
-        Matcher matcher = Pattern.compile(regex).matcher(string);
+        return getFirstMatch(string, getPattern(regex));
+    }
+
+    /**
+     * Returns the first captured group after matching a {@link String} against a compiled regular expression.
+     *
+     * @param string text to match against the regular expression
+     * @param pattern compiled regular expression
+     * @return first captured group
+     */
+    public static String getFirstMatch(String string, Pattern pattern) {
+        Matcher matcher = pattern.matcher(string);
         if (matcher.matches()) {
             String firstMatch = matcher.group(1);
             return firstMatch;
@@ -45,7 +86,7 @@ public class RegEx {
 
         List<String> matches = new ArrayList<String>();
 
-        Matcher matcher = Pattern.compile(regex).matcher(string);
+        Matcher matcher = getPattern(regex).matcher(string);
         matcher.matches();
 
         int i = 0;
@@ -1,28 +1,27 @@
 package com.coreconsulting.res.openehr.tdd2canonical.util;
 
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.Metrics;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSSerializer;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,33 +36,22 @@ import java.util.List;
 public class XML {
 
     /**
-     * XPath static instance shared for expression evaluation.
-     */
-    @Getter
-    static protected XPath xpath = XPathFactory.newInstance().newXPath();
-    /**
-     * The {@link Document} instance.
+     * The {@link Document} instance. Methods access it through {@link #getXml()}, so subclasses may provide it
+     * lazily.
      */
     @Getter
     protected Document xml;
     /**
-     * The {@link DocumentBuilder} instance shared to build instances of {@link Document} from different sources.
-     * It is transient because it can't be serialized as a field, but it can also be refactored into the constructors.
+     * The {@link Exception} raised while parsing the XML document, if any. When set, {@link #xml} is null.
      */
-    transient DocumentBuilder builder;
+    @Getter
+    protected Exception error;
 
     /**
      * Default constructor. Not used, but kept fro serialization purposes.
      */
     public XML() {
         log.trace("XML({})", () -> "");
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(false);
-            builder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            log.error("error creating DOM builder", e);
-        }
     }
 
     /**
@@ -75,13 +63,17 @@ public class XML {
         this();
         log.trace("XML({})", () -> file.getAbsolutePath());
         try {
-            xml = builder.parse(file);
+            long start = System.nanoTime();
+            xml = XMLProvider.getBuilder().parse(file);
+            parsed(start);
             log.debug("{}", () -> "parsed the XML document from file");
         } catch (SAXException e) {
             log.error("error parsing the XML file", e);
+            error = e;
         } catch (IOException e) {
             log.error("error opening the XML file", e);
             e.printStackTrace();
+            error = e;
         }
     }
 
@@ -95,16 +87,56 @@ public class XML {
         this();
         log.trace("XML({})", () -> "...");
         try {
-            xml = builder.parse(new ByteArrayInputStream(string.getBytes(StandardCharsets.UTF_8)));
+            long start = System.nanoTime();
+            xml = XMLProvider.getBuilder().parse(new ByteArrayInputStream(string.getBytes(StandardCharsets.UTF_8)));
+            parsed(start);
             log.debug("{}", () -> "parsed the XML document from string");
         } catch (SAXException e) {
             log.error("error parsing the XML file", e);
+            error = e;
+        } catch (IOException e) {
+            log.error("error opening the XML file", e);
+            e.printStackTrace();
+            error = e;
+        }
+    }
+
+    /**
+     * Creates a XML from an {@link InputStream}, expected to provide the XML document. The stream is not closed.
+     *
+     * @param stream {@link InputStream} providing the XML document
+     */
+    public XML(InputStream stream) {
+        this();
+        log.trace("XML({})", () -> "...");
+        try {
+            long start = System.nanoTime();
+            xml = XMLProvider.getBuilder().parse(stream);
+            parsed(start);
+            log.debug("{}", () -> "parsed the XML document from stream");
+        } catch (SAXException e) {
+            log.error("error parsing the XML file", e);
+            error = e;
         } catch (IOException e) {
             log.error("error opening the XML file", e);
             e.printStackTrace();
+            error = e;
         }
     }
 
+    /**
+     * Creates a XML from the remaining bytes of a {@link ByteBuffer}, expected to hold the encoded XML document (e.g.
+     * a memory-mapped file, see {@link #map(File)}, or a message payload). The parser reads the buffer directly, so
+     * the document is neither copied into an array nor decoded into a {@link String} first. The position of the
+     * buffer is left untouched.
+     *
+     * @param buffer {@link ByteBuffer} holding the XML document
+     */
+    public XML(ByteBuffer buffer) {
+        this(new ByteBufferInputStream(buffer));
+        log.trace("XML({})", () -> buffer);
+    }
+
     /**
      * Creates a XML from a {@link URI}, expected to be a reachable remote instance of the XML document.
      *
@@ -114,18 +146,62 @@ public class XML {
         this();
         log.trace("XML({})", () -> uri);
         try {
-            xml = builder.parse(uri.toString());
+            long start = System.nanoTime();
+            xml = XMLProvider.getBuilder().parse(uri.toString());
+            parsed(start);
             log.debug("{}", () -> "parsed the XML document from URI");
         } catch (SAXException e) {
             log.error("error parsing the XML file", e);
+            error = e;
         } catch (IOException e) {
             log.error("error opening the XML file", e);
             e.printStackTrace();
+            error = e;
         }
     }
 
     /**
-     * Returns a {@link List} of children of an {@link Node} that are instances of {@link Element}.
+     * Notifies the {@link Metrics} listener, if any, that the XML document was parsed. The document is reported by
+     * the simple name of the class parsing it (e.g. "TDD", "TDS").
+     *
+     * @param start {@link System#nanoTime()} before parsing
+     */
+    protected void parsed(long start) {
+        if (Metrics.isEnabled())
+            Metrics.getListener().parsed(getClass().getSimpleName(), System.nanoTime() - start);
+    }
+
+    /**
+     * Maps a file into memory, read-only, to be parsed through {@link #XML(ByteBuffer)}. Pages are only read by the
+     * operating system as the parser reaches them, saving the copies and system calls of buffered stream I/O on large
+     * files. The mapping remains valid after this method returns, and is released when the buffer is garbage
+     * collected, so it doesn't pay off for small files.
+     *
+     * @param file file to be mapped
+     * @return read-only {@link MappedByteBuffer} over the whole file
+     * @throws IOException when the file can't be opened or mapped
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        log.trace("map({})", () -> file.getPath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Returns the {@link XPath} instance of the current thread (see {@link XMLProvider#getXPath()}), as instances
+     * can't be shared across threads.
+     *
+     * @return {@link XPath} instance of the current thread
+     */
+    public static XPath getXpath() {
+        return XMLProvider.getXPath();
+    }
+
+    /**
+     * Returns a {@link List} of children of an {@link Node} that are instances of {@link Element}. The traversal and
+     * the transformers navigate the children through {@link #getFirstChildElement(Node)},
+     * {@link #getNextElementSibling(Node)} and the like instead, which don't allocate.
      *
      * @param node {@link Node} which children are to be listed
      * @return {@link List} of children that are instances of {@link Element}
@@ -146,7 +222,104 @@ public class XML {
     }
 
     /**
-     * Returns a textual representation of a {@link Document}.
+     * Returns the first child of a {@link Node} that is an instance of {@link Element}. Like the other navigation
+     * helpers below, it walks the siblings without allocating (and without trace logging, as it is called for every
+     * node), and is safe to use while the children are being renamed in place.
+     *
+     * @param node {@link Node} which first child element is to be returned
+     * @return the first child element, or null if there is none
+     */
+    public static Element getFirstChildElement(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null && child.getNodeType() != Node.ELEMENT_NODE)
+            child = child.getNextSibling();
+        return (Element) child;
+    }
+
+    /**
+     * Returns the last child of a {@link Node} that is an instance of {@link Element}.
+     *
+     * @param node {@link Node} which last child element is to be returned
+     * @return the last child element, or null if there is none
+     */
+    public static Element getLastChildElement(Node node) {
+        Node child = node.getLastChild();
+        while (child != null && child.getNodeType() != Node.ELEMENT_NODE)
+            child = child.getPreviousSibling();
+        return (Element) child;
+    }
+
+    /**
+     * Returns the next sibling of a {@link Node} that is an instance of {@link Element}.
+     *
+     * @param node {@link Node} which next sibling element is to be returned
+     * @return the next sibling element, or null if there is none
+     */
+    public static Element getNextElementSibling(Node node) {
+        Node sibling = node.getNextSibling();
+        while (sibling != null && sibling.getNodeType() != Node.ELEMENT_NODE)
+            sibling = sibling.getNextSibling();
+        return (Element) sibling;
+    }
+
+    /**
+     * Returns the previous sibling of a {@link Node} that is an instance of {@link Element}.
+     *
+     * @param node {@link Node} which previous sibling element is to be returned
+     * @return the previous sibling element, or null if there is none
+     */
+    public static Element getPreviousElementSibling(Node node) {
+        Node sibling = node.getPreviousSibling();
+        while (sibling != null && sibling.getNodeType() != Node.ELEMENT_NODE)
+            sibling = sibling.getPreviousSibling();
+        return (Element) sibling;
+    }
+
+    /**
+     * Returns the first child of a {@link Node} that is an instance of {@link Element} with a given name.
+     *
+     * @param node {@link Node} which child element is to be returned
+     * @param name name of the child element (including the namespace prefix, if any)
+     * @return the first child element with such name, or null if there is none
+     */
+    public static Element getChildElement(Node node, String name) {
+        Element child = getFirstChildElement(node);
+        while (child != null && child.getNodeName().equals(name) == false)
+            child = getNextElementSibling(child);
+        return child;
+    }
+
+    /**
+     * Returns a child of a {@link Node} that is an instance of {@link Element} by its index among the child elements,
+     * equivalent to {@code getChildElements(node).get(index)}.
+     *
+     * @param node {@link Node} which child element is to be returned
+     * @param index index of the child element, starting at 0
+     * @return the child element, or null if there are not as many child elements
+     */
+    public static Element getChildElement(Node node, int index) {
+        Element child = getFirstChildElement(node);
+        for (int i = 0; i < index && child != null; i++)
+            child = getNextElementSibling(child);
+        return child;
+    }
+
+    /**
+     * Returns the number of children of a {@link Node} that are instances of {@link Element}.
+     *
+     * @param node {@link Node} which child elements are to be counted
+     * @return number of child elements
+     */
+    public static int getChildElementCount(Node node) {
+        int count = 0;
+        for (Element child = getFirstChildElement(node); child != null; child = getNextElementSibling(child))
+            count++;
+        return count;
+    }
+
+    /**
+     * Returns a textual representation of a {@link Document}, pretty-printed. See {@link XMLSerializer} to write it
+     * straight into a stream instead.
      *
      * @param document {@link Document} to be represented as text
      * @return textual representation of the {@link Document}
@@ -154,14 +327,10 @@ public class XML {
     public static String toString(Document document) {
         log.trace("toString({})", () -> document.getNodeName());
         try {
-            final DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
-            final DOMImplementationLS impl = (DOMImplementationLS) registry.getDOMImplementation("LS");
-            final LSSerializer writer = impl.createLSSerializer();
-
-            writer.getDomConfig().setParameter("format-pretty-print", Boolean.TRUE);
-            writer.getDomConfig().setParameter("xml-declaration", true);
-
-            String asString = writer.writeToString(document);
+            long start = System.nanoTime();
+            String asString = XMLProvider.getSerializer().writeToString(document);
+            if (Metrics.isEnabled())
+                Metrics.getListener().serialized(System.nanoTime() - start);
             return asString;
         } catch (Exception e) {
             log.error("error serializing the XML document", e);
@@ -195,7 +364,7 @@ public class XML {
     public NodeList getXPathAsNodeList(String xpath) {
         log.trace("getXPathAsNodeList({})", () -> xpath);
         try {
-            NodeList nodes = (NodeList) XML.xpath.compile(xpath).evaluate(xml, XPathConstants.NODESET);
+            NodeList nodes = (NodeList) XMLProvider.compile(xpath).evaluate(getXml(), XPathConstants.NODESET);
             return nodes;
         } catch (XPathExpressionException e) {
             log.error("malformed XPath expression", e);
@@ -210,7 +379,7 @@ public class XML {
      */
     @Override
     public String toString() {
-        return toString(xml);
+        return toString(getXml());
     }
 
 }
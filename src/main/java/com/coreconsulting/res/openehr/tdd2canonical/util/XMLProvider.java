@@ -0,0 +1,199 @@
+package com.coreconsulting.res.openehr.tdd2canonical.util;
+
+import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.bootstrap.DOMImplementationRegistry;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSSerializer;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements the provisioning of {@link DocumentBuilder} and {@link XPath} instances. The factories are
+ * looked up once (the lookup goes through service loading, which is expensive), and each thread gets its own
+ * {@link DocumentBuilder} and {@link XPath}, as neither is thread-safe. Instances are reset every time they are
+ * provided, so no state leaks from a previous use on the same thread.
+ * The same goes for the DOM Load and Save implementation, looked up once, and the {@link LSSerializer} of each thread,
+ * configured to pretty-print the documents with an XML declaration.
+ * Compiled {@link XPathExpression} instances are also kept per thread, in a bounded cache evicting the least recently
+ * used ones (see {@link Properties#XPATH_CACHE_SIZE}), so repeated expressions are compiled once per thread.
+ * Provided instances must not be shared with other threads nor kept beyond the current use, as the next request on
+ * the same thread gets (and resets) the same instance.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class XMLProvider {
+
+    /**
+     * Factory of the {@link DocumentBuilder} instances, without namespace awareness.
+     */
+    protected static final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+    /**
+     * Factory of the {@link XPath} instances.
+     */
+    protected static final XPathFactory xpathFactory = XPathFactory.newInstance();
+    /**
+     * DOM Load and Save implementation, looked up on first use.
+     */
+    protected static volatile DOMImplementationLS lsImplementation;
+    /**
+     * {@link DocumentBuilder} of each thread.
+     */
+    protected static final ThreadLocal<DocumentBuilder> builders = ThreadLocal.withInitial(XMLProvider::newBuilder);
+    /**
+     * {@link XPath} of each thread.
+     */
+    protected static final ThreadLocal<XPath> xpaths = ThreadLocal.withInitial(XMLProvider::newXPath);
+    /**
+     * Pretty-printing {@link LSSerializer} of each thread.
+     */
+    protected static final ThreadLocal<LSSerializer> serializers = ThreadLocal.withInitial(XMLProvider::newSerializer);
+    /**
+     * Compiled {@link XPathExpression} instances of each thread, indexed by expression, in access order.
+     */
+    protected static final ThreadLocal<Map<String, XPathExpression>> expressions =
+            ThreadLocal.withInitial(XMLProvider::newExpressionCache);
+
+    static {
+        builderFactory.setNamespaceAware(false);
+    }
+
+    /**
+     * Returns the {@link DocumentBuilder} of the current thread, reset to its initial state.
+     *
+     * @return {@link DocumentBuilder} of the current thread
+     */
+    public static DocumentBuilder getBuilder() {
+        DocumentBuilder builder = builders.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * Returns the {@link XPath} of the current thread, reset to its initial state.
+     *
+     * @return {@link XPath} of the current thread
+     */
+    public static XPath getXPath() {
+        XPath xpath = xpaths.get();
+        xpath.reset();
+        return xpath;
+    }
+
+    /**
+     * Returns the DOM Load and Save implementation, looking it up on the first call.
+     *
+     * @return the DOM Load and Save implementation
+     */
+    public static DOMImplementationLS getLSImplementation() {
+        DOMImplementationLS impl = lsImplementation;
+        if (impl == null) {
+            log.trace("getLSImplementation({})", () -> "");
+            try {
+                impl = (DOMImplementationLS) DOMImplementationRegistry.newInstance().getDOMImplementation("LS");
+            } catch (ReflectiveOperationException e) {
+                log.error("error looking up the DOM Load and Save implementation", e);
+                throw new IllegalStateException(e);
+            }
+            lsImplementation = impl;
+        }
+        return impl;
+    }
+
+    /**
+     * Returns the {@link LSSerializer} of the current thread, which pretty-prints the documents with an XML
+     * declaration.
+     *
+     * @return {@link LSSerializer} of the current thread
+     */
+    public static LSSerializer getSerializer() {
+        return serializers.get();
+    }
+
+    /**
+     * Returns the compiled {@link XPathExpression} of the current thread for an expression, compiling it if it isn't
+     * cached yet.
+     *
+     * @param xpath XPath expression to be compiled
+     * @return compiled {@link XPathExpression}
+     * @throws XPathExpressionException when the expression is malformed
+     */
+    public static XPathExpression compile(String xpath) throws XPathExpressionException {
+        Map<String, XPathExpression> cache = expressions.get();
+        XPathExpression expression = cache.get(xpath);
+        if (expression == null) {
+            log.trace("compile({})", () -> xpath);
+            expression = getXPath().compile(xpath);
+            cache.put(xpath, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Creates a {@link DocumentBuilder} for a thread. The factory isn't guaranteed to be thread-safe, so creation is
+     * serialized, which only happens once per thread.
+     *
+     * @return a new {@link DocumentBuilder}
+     */
+    protected static DocumentBuilder newBuilder() {
+        log.trace("newBuilder({})", () -> Thread.currentThread().getName());
+        synchronized (builderFactory) {
+            try {
+                return builderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                log.error("error creating DOM builder", e);
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates a {@link XPath} for a thread. The factory isn't thread-safe, so creation is serialized, which only
+     * happens once per thread.
+     *
+     * @return a new {@link XPath}
+     */
+    protected static XPath newXPath() {
+        log.trace("newXPath({})", () -> Thread.currentThread().getName());
+        synchronized (xpathFactory) {
+            return xpathFactory.newXPath();
+        }
+    }
+
+    /**
+     * Creates the pretty-printing {@link LSSerializer} for a thread.
+     *
+     * @return a new {@link LSSerializer}
+     */
+    protected static LSSerializer newSerializer() {
+        log.trace("newSerializer({})", () -> Thread.currentThread().getName());
+        LSSerializer serializer = getLSImplementation().createLSSerializer();
+        serializer.getDomConfig().setParameter("format-pretty-print", Boolean.TRUE);
+        serializer.getDomConfig().setParameter("xml-declaration", true);
+        return serializer;
+    }
+
+    /**
+     * Creates the bounded cache of compiled {@link XPathExpression} instances for a thread.
+     *
+     * @return a new, empty cache
+     */
+    protected static Map<String, XPathExpression> newExpressionCache() {
+        int maxSize = Integer.parseInt(Properties.getProperty(Properties.XPATH_CACHE_SIZE, "256"));
+        return new LinkedHashMap<String, XPathExpression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+}
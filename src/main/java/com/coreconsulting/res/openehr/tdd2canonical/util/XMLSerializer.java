@@ -0,0 +1,393 @@
+package com.coreconsulting.res.openehr.tdd2canonical.util;
+
+import com.coreconsulting.res.openehr.tdd2canonical.metrics.Metrics;
+import lombok.extern.log4j.Log4j2;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ls.LSOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class implements the serialization of DOM nodes straight into an {@link OutputStream} or a
+ * {@link WritableByteChannel} in UTF-8, without building an intermediate {@link String}.
+ * The compact mode (the default) writes the nodes as they are, with no indentation, walking the tree and encoding
+ * the markup through character and byte buffers that are allocated once per thread and reused for every document.
+ * The pretty-printed mode delegates to the {@link org.w3c.dom.ls.LSSerializer} of the current thread (see
+ * {@link XMLProvider#getSerializer()}), producing the same layout as {@link XML#toString(org.w3c.dom.Document)}.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class XMLSerializer {
+
+    /**
+     * XML declaration written before a document.
+     */
+    protected static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    /**
+     * Size of the character buffer, in chars.
+     */
+    protected static final int CHAR_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Size of the byte buffer, in bytes (enough for a full character buffer of 3-byte sequences).
+     */
+    protected static final int BYTE_BUFFER_SIZE = 3 * CHAR_BUFFER_SIZE;
+
+    /**
+     * {@link Encoder} of each thread.
+     */
+    protected static final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    /**
+     * Writes a node in compact mode into an {@link OutputStream}, which is neither flushed nor closed.
+     *
+     * @param node {@link Node} to be serialized, a document gets an XML declaration
+     * @param output {@link OutputStream} to write to
+     * @throws IOException when writing to the {@link OutputStream} fails
+     */
+    public static void write(Node node, OutputStream output) throws IOException {
+        write(node, output, false);
+    }
+
+    /**
+     * Writes a node into an {@link OutputStream}, which is neither flushed nor closed.
+     *
+     * @param node {@link Node} to be serialized, a document gets an XML declaration
+     * @param output {@link OutputStream} to write to
+     * @param prettyPrint whether to indent the output
+     * @throws IOException when writing to the {@link OutputStream} fails
+     */
+    public static void write(Node node, OutputStream output, boolean prettyPrint) throws IOException {
+        log.trace("write({}, {})", () -> node.getNodeName(), () -> prettyPrint);
+        long start = System.nanoTime();
+        if (prettyPrint) {
+            LSOutput target = XMLProvider.getLSImplementation().createLSOutput();
+            target.setByteStream(output);
+            target.setEncoding("UTF-8");
+            XMLProvider.getSerializer().write(node, target);
+        } else {
+            write(node, bytes -> output.write(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                    bytes.remaining()));
+        }
+        serialized(start);
+    }
+
+    /**
+     * Writes a node in compact mode into a {@link WritableByteChannel}, which is not closed.
+     *
+     * @param node {@link Node} to be serialized, a document gets an XML declaration
+     * @param channel {@link WritableByteChannel} to write to
+     * @throws IOException when writing to the {@link WritableByteChannel} fails
+     */
+    public static void write(Node node, WritableByteChannel channel) throws IOException {
+        log.trace("write({})", () -> node.getNodeName());
+        long start = System.nanoTime();
+        write(node, bytes -> {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        });
+        serialized(start);
+    }
+
+    /**
+     * Notifies the {@link Metrics} listener, if any, that a node was serialized.
+     *
+     * @param start {@link System#nanoTime()} before serializing
+     */
+    protected static void serialized(long start) {
+        if (Metrics.isEnabled())
+            Metrics.getListener().serialized(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes a node in compact mode into a {@link Sink}, using the {@link Encoder} of the current thread (or a new
+     * one, if the current thread is already serializing into a sink that serializes again).
+     *
+     * @param node {@link Node} to be serialized
+     * @param sink {@link Sink} receiving the encoded bytes
+     * @throws IOException when the {@link Sink} fails
+     */
+    protected static void write(Node node, Sink sink) throws IOException {
+        Encoder encoder = encoders.get();
+        if (encoder.sink != null)
+            encoder = new Encoder();
+        encoder.sink = sink;
+        try {
+            encoder.writeNode(node);
+            encoder.finish();
+        } finally {
+            encoder.reset();
+        }
+    }
+
+    /**
+     * This interface represents the destination of the encoded bytes.
+     */
+    protected interface Sink {
+
+        /**
+         * Consumes the bytes remaining in a buffer, which is cleared afterwards.
+         *
+         * @param bytes {@link ByteBuffer} ready to be read
+         * @throws IOException when writing the bytes fails
+         */
+        void write(ByteBuffer bytes) throws IOException;
+
+    }
+
+    /**
+     * This class implements the markup generation and encoding of a thread. Markup is appended to a character buffer,
+     * which is encoded into a byte buffer whenever it fills up, and the byte buffer is handed to the {@link Sink}
+     * whenever the encoder overflows it.
+     */
+    protected static class Encoder {
+
+        /**
+         * Buffer of the characters not encoded yet.
+         */
+        protected final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        /**
+         * Buffer of the bytes not written yet.
+         */
+        protected final ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        /**
+         * UTF-8 encoder, replacing unpaired surrogates instead of failing.
+         */
+        protected final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        /**
+         * Destination of the serialization in progress, null while idle.
+         */
+        protected Sink sink;
+
+        /**
+         * Writes a node and its descendants.
+         *
+         * @param node {@link Node} to be written
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void writeNode(Node node) throws IOException {
+            switch (node.getNodeType()) {
+                case Node.DOCUMENT_NODE:
+                    append(DECLARATION);
+                    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                        writeNode(child);
+                    break;
+                case Node.DOCUMENT_FRAGMENT_NODE:
+                    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                        writeNode(child);
+                    break;
+                case Node.ELEMENT_NODE:
+                    writeElement(node);
+                    break;
+                case Node.TEXT_NODE:
+                    appendEscaped(node.getNodeValue(), false);
+                    break;
+                case Node.CDATA_SECTION_NODE:
+                    append("<![CDATA[");
+                    append(node.getNodeValue());
+                    append("]]>");
+                    break;
+                case Node.COMMENT_NODE:
+                    append("<!--");
+                    append(node.getNodeValue());
+                    append("-->");
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    append("<?");
+                    append(node.getNodeName());
+                    if (node.getNodeValue() != null && node.getNodeValue().isEmpty() == false) {
+                        append(' ');
+                        append(node.getNodeValue());
+                    }
+                    append("?>");
+                    break;
+                case Node.ENTITY_REFERENCE_NODE:
+                    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                        writeNode(child);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Writes an element, its attributes and its descendants.
+         *
+         * @param element {@link Node} of the element to be written
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void writeElement(Node element) throws IOException {
+            String name = element.getNodeName();
+            append('<');
+            append(name);
+            NamedNodeMap attributes = element.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                append(' ');
+                append(attribute.getName());
+                append("=\"");
+                appendEscaped(attribute.getValue(), true);
+                append('"');
+            }
+            Node child = element.getFirstChild();
+            if (child == null) {
+                append("/>");
+                return;
+            }
+            append('>');
+            for (; child != null; child = child.getNextSibling())
+                writeNode(child);
+            append("</");
+            append(name);
+            append('>');
+        }
+
+        /**
+         * Appends character data, escaping the markup characters (and, within attributes, the quotes and whitespace
+         * that attribute normalization would otherwise change).
+         *
+         * @param text character data to be appended
+         * @param attribute whether the text is an attribute value
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void appendEscaped(String text, boolean attribute) throws IOException {
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                String escaped;
+                switch (text.charAt(i)) {
+                    case '&':
+                        escaped = "&amp;";
+                        break;
+                    case '<':
+                        escaped = "&lt;";
+                        break;
+                    case '>':
+                        escaped = "&gt;";
+                        break;
+                    case '\r':
+                        escaped = "&#13;";
+                        break;
+                    case '"':
+                        escaped = attribute ? "&quot;" : null;
+                        break;
+                    case '\n':
+                        escaped = attribute ? "&#10;" : null;
+                        break;
+                    case '\t':
+                        escaped = attribute ? "&#9;" : null;
+                        break;
+                    default:
+                        escaped = null;
+                }
+                if (escaped != null) {
+                    append(text, start, i);
+                    append(escaped);
+                    start = i + 1;
+                }
+            }
+            append(text, start, text.length());
+        }
+
+        /**
+         * Appends a character.
+         *
+         * @param c character to be appended
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void append(char c) throws IOException {
+            if (chars.hasRemaining() == false)
+                encode(false);
+            chars.put(c);
+        }
+
+        /**
+         * Appends a string.
+         *
+         * @param text string to be appended
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void append(String text) throws IOException {
+            append(text, 0, text.length());
+        }
+
+        /**
+         * Appends a range of a string, encoding the buffered characters as many times as needed to fit it.
+         *
+         * @param text string to be appended
+         * @param start index of the first character, inclusive
+         * @param end index of the last character, exclusive
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void append(String text, int start, int end) throws IOException {
+            while (start < end) {
+                if (chars.hasRemaining() == false)
+                    encode(false);
+                int length = Math.min(end - start, chars.remaining());
+                chars.put(text, start, start + length);
+                start += length;
+            }
+        }
+
+        /**
+         * Encodes the buffered characters into the byte buffer, writing it whenever it overflows. A trailing high
+         * surrogate is kept in the character buffer until its pair arrives, unless it is the end of the input.
+         *
+         * @param endOfInput whether no more characters follow
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void encode(boolean endOfInput) throws IOException {
+            chars.flip();
+            while (encoder.encode(chars, bytes, endOfInput) == CoderResult.OVERFLOW)
+                drain();
+            chars.compact();
+        }
+
+        /**
+         * Encodes whatever is still buffered and writes it, so the whole node reaches the {@link Sink}.
+         *
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void finish() throws IOException {
+            encode(true);
+            while (encoder.flush(bytes) == CoderResult.OVERFLOW)
+                drain();
+            drain();
+        }
+
+        /**
+         * Hands the encoded bytes to the {@link Sink} and clears the byte buffer.
+         *
+         * @throws IOException when the {@link Sink} fails
+         */
+        protected void drain() throws IOException {
+            bytes.flip();
+            if (bytes.hasRemaining())
+                sink.write(bytes);
+            bytes.clear();
+        }
+
+        /**
+         * Returns the encoder to its idle state, discarding anything buffered (e.g. after a failure).
+         */
+        protected void reset() {
+            chars.clear();
+            bytes.clear();
+            encoder.reset();
+            sink = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the parsing of archetype identifiers, and that the compiled descriptors expose them.
+ * See {@link ArchetypeId} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class ArchetypeIdTest {
+
+    /**
+     * Path to the TDS being tested.
+     */
+    static final String TDS_PATH = "./src/main/resources/templates/CN4-INTEROP.xsd";
+
+    /**
+     * Parses identifiers with and without specialisations and versions, and values that aren't identifiers.
+     */
+    @Test
+    void archetype_ids_are_parsed() {
+        log.trace("archetype_ids_are_parsed({})", () -> "");
+        ArchetypeId id = ArchetypeId.parse("openEHR-EHR-ADMIN_ENTRY.admission-ms_br.v02");
+        assertEquals("openEHR", id.getRmPublisher());
+        assertEquals("EHR", id.getRmPackage());
+        assertEquals("ADMIN_ENTRY", id.getRmClass());
+        assertEquals("admission-ms_br", id.getConcept());
+        assertEquals("02", id.getVersion());
+        assertEquals("openEHR-EHR-ADMIN_ENTRY.admission-ms_br.v02", id.toString());
+
+        ArchetypeId unversioned = ArchetypeId.parse("openEHR-EHR-CLUSTER.dosage");
+        assertEquals("dosage", unversioned.getConcept());
+        assertNull(unversioned.getVersion());
+
+        assertNull(ArchetypeId.parse("at0001"));
+        assertNull(ArchetypeId.parse("at0.136"));
+        assertNull(ArchetypeId.parse("openEHR-EHR.blood_pressure.v1"));
+        assertNull(ArchetypeId.parse("openEHR-EHR-OBSERVATION."));
+        assertNull(ArchetypeId.parse(null));
+    }
+
+    /**
+     * Compiles the TDS and checks the archetype roots expose their parsed identifier, matching their type.
+     */
+    @Test
+    void archetype_roots_are_compiled() {
+        log.trace("archetype_roots_are_compiled({})", () -> "");
+        try {
+            TDSNode root = new TDS(new File(TDS_PATH)).getRootNode();
+            assertTrue(root.isArchetypeRoot());
+            assertEquals("COMPOSITION", root.getArchetypeId().getRmClass());
+            assertEquals(root.getType(), root.getArchetypeId().getRmClass());
+            assertEquals("encounter", root.getArchetypeId().getConcept());
+            TDSNode language = root.getChildren().values().stream().filter(node -> node.isLocatable() == false)
+                    .findFirst().orElse(null);
+            assertFalse(language != null && language.isArchetypeRoot());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package com.coreconsulting.res.openehr.tdd2canonical;
 
 import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
 import com.coreconsulting.res.openehr.tdd2canonical.util.XML;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLSerializer;
 import lombok.extern.log4j.Log4j2;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
@@ -12,9 +13,14 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
@@ -28,6 +34,11 @@ import static org.junit.jupiter.api.Assertions.fail;
 @Log4j2
 public class TDDTest {
 
+    /**
+     * Origin of the HISTORY generated by the transformation, matched as serialized in compact mode.
+     */
+    static final String ORIGIN = "<origin><value>[^<]*</value></origin>";
+
     /**
      * This is a major test, currently performing the entire TDD to composition transformation flow.
      * It fails because the standard XSD validation from the JVM misinterprets the XSI abstractions (xsi:type,
@@ -78,4 +89,33 @@ public class TDDTest {
         }
     }
 
+    /**
+     * Transforms the same TDD in place and through a clone, and checks both compositions are serialized alike and
+     * that the TDD transformed in place can't be transformed again.
+     */
+    @Test
+    void in_place_transformation_matches_clone() {
+        log.trace("in_place_transformation_matches_clone({})", () -> "");
+        File file = new File("./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml");
+        try {
+            TDD cloned = new TDD(file);
+            Document expected = cloned.toCanonical();
+            assertNotSame(expected, cloned.getXml());
+            TDD inPlace = new TDD(file);
+            Document actual = inPlace.toCanonical(CanonicalOptions.builder().inPlace(true).build());
+            assertSame(actual, inPlace.getXml());
+
+            ByteArrayOutputStream expectedOutput = new ByteArrayOutputStream();
+            XMLSerializer.write(expected, expectedOutput);
+            ByteArrayOutputStream actualOutput = new ByteArrayOutputStream();
+            XMLSerializer.write(actual, actualOutput);
+            // The HISTORY origin is set to the time of the transformation, so it is left out of the comparison
+            assertEquals(expectedOutput.toString("UTF-8").replaceAll(ORIGIN, ""),
+                    actualOutput.toString("UTF-8").replaceAll(ORIGIN, ""));
+            assertThrows(IllegalStateException.class, inPlace::toCanonical);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
 }
@@ -0,0 +1,147 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the binary cache of compiled TDS instances, asserting the descriptors read back match the ones
+ * compiled from the XML Schema, that corrupted files are rejected and that concurrent writers don't corrupt the file.
+ * See {@link TDSCache} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSCacheTest {
+
+    /**
+     * Path to the TDS being tested.
+     */
+    static final String TDS_PATH = "./src/main/resources/templates/CN4-INTEROP.xsd";
+
+    /**
+     * Number of threads writing the same cache file at once.
+     */
+    static final int WRITERS = 8;
+
+    /**
+     * Writes the descriptors compiled from the TDS into a temporary file, reads them back and compares both trees.
+     */
+    @Test
+    void cached_descriptors_match_compiled() {
+        log.trace("cached_descriptors_match_compiled({})", () -> "");
+        File file = null;
+        try {
+            TDS compiled = new TDS(new File(TDS_PATH));
+            file = File.createTempFile("tds", ".cache");
+            TDSCache.write(compiled, file);
+            TDS cached = TDSCache.read(file);
+
+            assertNotNull(cached);
+            // The XML document is only parsed when a lookup misses the compiled descriptors
+            assertNull(cached.softXml);
+            assertEquals(compiled.getTemplateId(), cached.getTemplateId());
+            assertEquals(compiled.getSource(), cached.getSource());
+            assertEquals(compiled.getNodeCount(), cached.getNodeCount());
+            assertSameTree(compiled.getRootNode(), cached.getRootNode(), new IdentityHashMap<>());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (file != null)
+                file.delete();
+        }
+    }
+
+    /**
+     * Flips a byte in the body of a cache file and asserts it is rejected by the checksum.
+     */
+    @Test
+    void corrupted_cache_is_rejected() {
+        log.trace("corrupted_cache_is_rejected({})", () -> "");
+        File file = null;
+        try {
+            file = File.createTempFile("tds", ".cache");
+            TDSCache.write(new TDS(new File(TDS_PATH)), file);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            bytes[bytes.length / 2] ^= 0xFF;
+
+            assertNull(TDSCache.read(ByteBuffer.wrap(bytes)));
+            assertNull(TDSCache.read(ByteBuffer.wrap("not a cache file".getBytes())));
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (file != null)
+                file.delete();
+        }
+    }
+
+    /**
+     * Writes the same cache file from several threads at once and asserts the file left is valid and no temporary
+     * file is left behind.
+     */
+    @Test
+    void concurrent_writes_leave_a_valid_cache() {
+        log.trace("concurrent_writes_leave_a_valid_cache({})", () -> "");
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            TDS compiled = new TDS(new File(TDS_PATH));
+            compiled.getRootNode();
+            File folder = Files.createTempDirectory("cache").toFile();
+            File file = new File(folder, "tds");
+            List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < WRITERS * 4; i++) {
+                writes.add(executor.submit(() -> {
+                    TDSCache.write(compiled, file);
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes)
+                write.get();
+
+            assertNotNull(TDSCache.read(file));
+            assertEquals(1, folder.list().length);
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compares two descriptor trees, visiting each compiled descriptor once as they may be shared.
+     *
+     * @param expected descriptor compiled from the XML Schema
+     * @param actual descriptor read from the cache
+     * @param visited compiled descriptors already compared
+     */
+    static void assertSameTree(TDSNode expected, TDSNode actual, Map<TDSNode, TDSNode> visited) {
+        assertNotNull(actual);
+        if (visited.put(expected, actual) != null)
+            return;
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getNodeId(), actual.getNodeId());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getValueType(), actual.getValueType());
+        assertSame(expected.getTransformer(), actual.getTransformer());
+        assertEquals(expected.getChildren().keySet(), actual.getChildren().keySet());
+        for (Map.Entry<String, TDSNode> child : expected.getChildren().entrySet())
+            assertSameTree(child.getValue(), actual.getChild(child.getKey()), visited);
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * This class tests the retrieval of TDS files into the on-disk mirror against a local stub of a template server,
+ * asserting unchanged templates are validated through conditional requests and served from the mirror when the
+ * server is unavailable, and that the registry compiles a fetched TDS that changed since it was cached.
+ * See {@link TDSFetcher} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSFetcherTest {
+
+    /**
+     * Path to the TDS being served.
+     */
+    static final String TDS_PATH = "./src/main/resources/templates/CN4-INTEROP.xsd";
+
+    /**
+     * {@literal @template_id} of the TDS being served.
+     */
+    static final String TEMPLATE_ID = "Registro de Atendimento Clínico v1.0";
+
+    /**
+     * ETag of the TDS being served.
+     */
+    static final String ETAG = "\"v1\"";
+
+    /**
+     * Fetches a TDS three times from a stub server (a full response, then a 304 once its max age is over), and once
+     * more after stopping the server, asserting every fetch serves the same mirrored content.
+     */
+    @Test
+    void TDS_is_mirrored_and_revalidated() {
+        log.trace("TDS_is_mirrored_and_revalidated({})", () -> "");
+        HttpServer server = null;
+        try {
+            byte[] tds = Files.readAllBytes(Paths.get(TDS_PATH));
+            List<Integer> statuses = new ArrayList<>();
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/templates/CN4-INTEROP.xsd", exchange -> {
+                boolean current = ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                statuses.add(current ? 304 : 200);
+                exchange.sendResponseHeaders(current ? 304 : 200, current ? -1 : tds.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    if (current == false)
+                        output.write(tds);
+                }
+            });
+            server.start();
+            URI uri = new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/templates/CN4-INTEROP.xsd");
+            File mirror = Files.createTempDirectory("mirror").toFile();
+            TDSFetcher fresh = TDSFetcher.builder().mirror(mirror).maxAge(60000L).build();
+            TDSFetcher stale = TDSFetcher.builder().mirror(mirror).maxAge(0L).connectTimeout(1000).build();
+
+            File mirrored = fresh.fetch(uri);
+            assertArrayEquals(tds, Files.readAllBytes(mirrored.toPath()));
+            assertEquals(mirrored, fresh.fetch(uri));
+            assertEquals(mirrored, stale.fetch(uri));
+            assertEquals(Arrays.asList(200, 304), statuses);
+
+            server.stop(0);
+            server = null;
+            assertEquals(mirrored, stale.fetch(uri));
+            assertThrows(Exception.class, () -> stale.fetch(new URI(uri + "?missing")));
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (server != null)
+                server.stop(0);
+        }
+    }
+
+    /**
+     * Fetches through the registry a TDS that changed since the cached compilation of its @template_id, asserting the
+     * fetched content is compiled instead of serving the stale descriptors from the cache. Then fetches the same
+     * location again with no max age, asserting an unchanged TDS is served from memory after a 304 response and a
+     * changed one is compiled and replaces the instance in memory.
+     */
+    @Test
+    void changed_TDS_is_compiled_again() {
+        log.trace("changed_TDS_is_compiled_again({})", () -> "");
+        // The cache is named after the @template_id, which the platform may be unable to encode in file names
+        assumeTrue(Charset.forName(System.getProperty("sun.jnu.encoding")).newEncoder().canEncode(TEMPLATE_ID));
+        HttpServer server = null;
+        File mirror = new File(Properties.getProperty(Properties.CACHE_FOLDER), TDSFetcher.MIRROR_FOLDER);
+        boolean mirrored = mirror.exists();
+        Path cache = Paths.get(Properties.getProperty(Properties.CACHE_FOLDER), TEMPLATE_ID);
+        String path = System.getProperty("properties");
+        byte[] compiled = null;
+        try {
+            compiled = Files.readAllBytes(cache);
+            String original = new String(Files.readAllBytes(Paths.get(TDS_PATH)), StandardCharsets.UTF_8);
+            AtomicReference<byte[]> served = new AtomicReference<>(
+                    (original + "\n<!-- v2 -->\n").getBytes(StandardCharsets.UTF_8));
+            List<Integer> statuses = new ArrayList<>();
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/templates/CN4-INTEROP.xsd", exchange -> {
+                byte[] tds = served.get();
+                String etag = "\"" + TDSFetcher.sha256(tds) + "\"";
+                boolean current = etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+                exchange.getResponseHeaders().set("ETag", etag);
+                statuses.add(current ? 304 : 200);
+                exchange.sendResponseHeaders(current ? 304 : 200, current ? -1 : tds.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    if (current == false)
+                        output.write(tds);
+                }
+            });
+            server.start();
+            String location = "http://127.0.0.1:" + server.getAddress().getPort() + "/templates/CN4-INTEROP.xsd";
+            // Every request for the location is revalidated
+            java.util.Properties properties = new java.util.Properties();
+            try (InputStream stream = new FileInputStream(Properties.getPath())) {
+                properties.loadFromXML(stream);
+            }
+            properties.setProperty(Properties.FETCH_MAX_AGE, "0");
+            File file = File.createTempFile("properties", ".xml");
+            file.deleteOnExit();
+            try (OutputStream stream = new FileOutputStream(file)) {
+                properties.storeToXML(stream, null);
+            }
+            System.setProperty("properties", file.getPath());
+            assertTrue(Properties.reload());
+
+            TDS cached = TDSRegistry.fromCache(TEMPLATE_ID);
+            assertNotNull(cached);
+            TDSRegistry.invalidate(TEMPLATE_ID);
+            TDS fetched = TDSRegistry.fromTDSLocation(location);
+            assertNotNull(fetched);
+            assertNotSame(cached, fetched);
+            assertEquals(TDSFetcher.sha256(served.get()), fetched.getSourceHash());
+            assertNotEquals(cached.getSourceHash(), fetched.getSourceHash());
+
+            assertSame(fetched, TDSRegistry.fromTDSLocation(location));
+            assertEquals(Arrays.asList(200, 304), statuses);
+
+            served.set((original + "\n<!-- v3 -->\n").getBytes(StandardCharsets.UTF_8));
+            TDS changed = TDSRegistry.fromTDSLocation(location);
+            assertNotSame(fetched, changed);
+            assertEquals(TDSFetcher.sha256(served.get()), changed.getSourceHash());
+            assertSame(changed, TDSRegistry.fromTemplateId(TEMPLATE_ID));
+            assertEquals(Arrays.asList(200, 304, 200), statuses);
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (server != null)
+                server.stop(0);
+            if (path == null)
+                System.clearProperty("properties");
+            else
+                System.setProperty("properties", path);
+            Properties.reload();
+            // Restore the cached compilation of the original TDS, so the changed one isn't served afterwards
+            try {
+                if (compiled != null)
+                    Files.write(cache, compiled);
+            } catch (IOException e) {
+                fail(e);
+            }
+            TDSRegistry.invalidate(TEMPLATE_ID);
+            if (mirrored == false) {
+                File[] files = mirror.listFiles();
+                if (files != null)
+                    Arrays.stream(files).forEach(File::delete);
+                mirror.delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the TDS registry, asserting that concurrent requests for the same @template_id share a single
+ * load, that instances can be preloaded and invalidated, that the warm-up loads the templates ahead of requests and
+ * that the reloader publishes the templates added or changed at runtime.
+ * See {@link TDSRegistry}, {@link TDSWarmup} and {@link TDSReloader} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSRegistryTest {
+
+    /**
+     * {@literal @template_id} of the TDS shipped with the application.
+     */
+    static final String TEMPLATE_ID = "Registro de Atendimento Clínico v1.0";
+    /**
+     * Path to the TDS shipped with the application.
+     */
+    static final String TDS_PATH = "./src/main/resources/templates/CN4-INTEROP.xsd";
+    /**
+     * Path to a TDD complying to the TDS shipped with the application.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+    /**
+     * Maximum time to wait for the reloader to publish a template, in milliseconds.
+     */
+    static final long RELOAD_TIMEOUT = 30000;
+
+    /**
+     * Requests the same @template_id from 64 threads released at once and asserts every one of them gets the same
+     * TDS instance, i.e. it was loaded only once.
+     */
+    @Test
+    void concurrent_requests_share_a_single_load() {
+        log.trace("concurrent_requests_share_a_single_load({})", () -> "");
+        TDSRegistry.invalidate(TEMPLATE_ID);
+        int threads = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<TDS>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return TDSRegistry.fromTemplateId(TEMPLATE_ID);
+                }));
+            }
+            start.countDown();
+            TDS first = futures.get(0).get();
+            assertNotNull(first);
+            for (Future<TDS> future : futures)
+                assertSame(first, future.get());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Preloads a @template_id, asserts it is served from memory and that it is loaded again once invalidated.
+     */
+    @Test
+    void invalidated_template_is_loaded_again() {
+        log.trace("invalidated_template_is_loaded_again({})", () -> "");
+        assertTrue(TDSRegistry.preload(TEMPLATE_ID));
+        TDS preloaded = TDSRegistry.fromTemplateId(TEMPLATE_ID);
+        assertSame(preloaded, TDSRegistry.fromTemplateId(TEMPLATE_ID));
+        TDSRegistry.invalidate(TEMPLATE_ID);
+        assertNotSame(preloaded, TDSRegistry.fromTemplateId(TEMPLATE_ID));
+    }
+
+    /**
+     * Warms up the templates available locally and asserts requests are served the instance it loaded.
+     */
+    @Test
+    void warmed_up_template_is_served() {
+        log.trace("warmed_up_template_is_served({})", () -> "");
+        TDSRegistry.invalidate(TEMPLATE_ID);
+        try (TDSWarmup warmup = TDSWarmup.builder().build()) {
+            warmup.start().get(1, TimeUnit.MINUTES);
+            assertTrue(warmup.isDone());
+            TDS warmed = warmup.getStatus().get(TEMPLATE_ID).get();
+            assertNotNull(warmed);
+            assertSame(warmed, TDSRegistry.fromTemplateId(TEMPLATE_ID));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Asserts an unknown @template_id is reported as unavailable rather than cached.
+     */
+    @Test
+    void unknown_template_is_not_available() {
+        log.trace("unknown_template_is_not_available({})", () -> "");
+        assertNull(TDSRegistry.fromTemplateId("unknown template"));
+        assertTrue(TDSRegistry.templateCache.containsKey("unknown template") == false);
+    }
+
+    /**
+     * Resolves the TDS of a TDD with no @template_id, blocking and not, asserting its @xsi:schemaLocation is used.
+     */
+    @Test
+    void template_without_id_is_resolved_from_its_location() {
+        log.trace("template_without_id_is_resolved_from_its_location({})", () -> "");
+        try {
+            String tdd = new String(Files.readAllBytes(new File(TDD_PATH).toPath()), StandardCharsets.UTF_8)
+                    .replace(" template_id=\"" + TEMPLATE_ID + "\"", "")
+                    .replace("https://paste.ee/r/dMA12/0", new File(TDS_PATH).toURI().toString());
+            assertNull(new TDD(tdd).getTemplateId());
+            assertNull(TDSRegistry.fromTemplateId(null));
+            assertNull(TDSRegistry.fromTemplateIdAsync(null, Runnable::run).get());
+            assertEquals(TEMPLATE_ID, new TDD(tdd).getTDS().getTemplateId());
+            assertEquals(TEMPLATE_ID, new TDD(tdd).getTDSAsync(Runnable::run).get().getTemplateId());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Fails a load with an {@link Error} and asserts it is rethrown, the entry removed and its future completed, so
+     * callers waiting for it don't hang.
+     */
+    @Test
+    void failed_load_completes_its_entry() {
+        log.trace("failed_load_completes_its_entry({})", () -> "");
+        String templateId = "failing template";
+        TDSRegistry.Entry entry = new TDSRegistry.Entry();
+        TDSRegistry.templateCache.put(templateId, entry);
+        assertThrows(StackOverflowError.class, () -> TDSRegistry.complete(templateId, entry, () -> {
+            throw new StackOverflowError();
+        }));
+        assertTrue(entry.tds.isCompletedExceptionally());
+        assertTrue(TDSRegistry.templateCache.containsKey(templateId) == false);
+        assertThrows(StackOverflowError.class, () -> TDSRegistry.get(templateId, entry));
+    }
+
+    /**
+     * Watches a temporary template folder, adds a copy of the TDS with another @template_id to it and asserts it is
+     * published, and then that changing it publishes a new version.
+     */
+    @Test
+    void reloader_publishes_new_template() {
+        log.trace("reloader_publishes_new_template({})", () -> "");
+        String templateId = "Reloaded template";
+        File cache = new File(Properties.getProperty(Properties.CACHE_FOLDER) + "/" + templateId);
+        try {
+            Path folder = Files.createTempDirectory("templates");
+            Path xsd = folder.resolve("reloaded.xsd");
+            String content = new String(Files.readAllBytes(new File(TDS_PATH).toPath()), StandardCharsets.UTF_8)
+                    .replace("fixed=\"" + TEMPLATE_ID + "\"", "fixed=\"" + templateId + "\"");
+            try (TDSReloader reloader = TDSReloader.builder().templateFolder(folder.toFile()).build()) {
+                reloader.start();
+                Files.write(xsd, content.getBytes(StandardCharsets.UTF_8));
+                TDS published = await(templateId, null);
+                assertEquals(xsd.toString(), published.getSource());
+
+                Files.write(xsd, content.replaceFirst("fixed=\"DV_TEXT\"", "fixed=\"DV_CHANGED\"")
+                        .getBytes(StandardCharsets.UTF_8));
+                assertNotSame(published, await(templateId, published));
+            } finally {
+                Files.deleteIfExists(xsd);
+                Files.delete(folder);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            TDSRegistry.invalidate(templateId);
+            cache.delete();
+        }
+    }
+
+    /**
+     * Waits for the registry to hold a TDS instance other than the given one.
+     *
+     * @param templateId the @template_id of the TDS
+     * @param previous TDS instance expected to be replaced, or null
+     * @return the TDS instance published
+     * @throws InterruptedException when interrupted while waiting
+     */
+    static TDS await(String templateId, TDS previous) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            TDSRegistry.Entry entry = TDSRegistry.templateCache.get(templateId);
+            TDS tds = entry == null ? null : entry.tds.getNow(null);
+            if (tds != null && tds != previous)
+                return tds;
+            Thread.sleep(50);
+        }
+        return fail("the reloader didn't publish @template_id=" + templateId);
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.coreconsulting.res.openehr.tdd2canonical;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the lookup of XPath expressions from a TDS, asserting each expression is evaluated through XPath
+ * only once, the lazy loading of the XML document and the incremental compilation of changed templates.
+ * See {@link TDS#getCachedXPathAsString(String)}, {@link TDS#getXml()} and
+ * {@link TDS#compile(TDS)} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TDSTest {
+
+    /**
+     * Path to the TDS being tested.
+     */
+    static final String TDS_PATH = "./src/main/resources/templates/CN4-INTEROP.xsd";
+    /**
+     * Looks up the same XPath expression twice, checking only the first lookup misses the node cache and is
+     * evaluated through XPath.
+     */
+    @Test
+    void repeated_lookups_are_evaluated_once() {
+        log.trace("repeated_lookups_are_evaluated_once({})", () -> "");
+        try {
+            TDS tds = new TDS(new File(TDS_PATH));
+            String xpath = "/schema[1]/element[1]/complexType[1]/attribute[@name='template_id'][1]/@fixed";
+            long fallbacks = TDS.getFallbackCount();
+
+            assertEquals(tds.getXPathAsString(xpath), tds.getCachedXPathAsString(xpath));
+            assertEquals(fallbacks + 1, TDS.getFallbackCount());
+            assertEquals(tds.getXPathAsString(xpath), tds.getCachedXPathAsString(xpath));
+            assertEquals(fallbacks + 1, TDS.getFallbackCount());
+            assertTrue(tds.nodeCache.containsKey(xpath));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Reads the TDS from a cache file, which holds no XML document, and checks a lookup missing from the node cache
+     * parses it, and parses it again once reclaimed.
+     */
+    @Test
+    void released_XML_is_parsed_again() {
+        log.trace("released_XML_is_parsed_again({})", () -> "");
+        try {
+            // A cache file of its own, as the shipped one is named after the @template_id, which the platform may
+            // be unable to encode in file names
+            File cache = File.createTempFile("cache", ".tds");
+            cache.deleteOnExit();
+            TDS compiled = new TDS(new File(TDS_PATH));
+            compiled.getRootNode();
+            TDSCache.write(compiled, cache);
+            TDS tds = TDSCache.read(cache);
+            assertNull(tds.softXml);
+            long fallbacks = TDS.getFallbackCount();
+            long reloads = TDS.getReloadCount();
+
+            assertEquals("Registro de Atendimento Clínico v1.0", tds.getCachedXPathAsString(
+                    "/schema[1]/element[1]/complexType[1]/attribute[@name='template_id'][1]/@fixed"));
+            assertEquals(fallbacks + 1, TDS.getFallbackCount());
+            assertEquals(reloads + 1, TDS.getReloadCount());
+            assertNotNull(tds.getXml());
+            assertEquals(reloads + 1, TDS.getReloadCount());
+
+            // Simulates the garbage collector reclaiming the document
+            tds.softXml.clear();
+            assertNotNull(tds.getXml());
+            assertEquals(reloads + 2, TDS.getReloadCount());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Changes a single @valueType in a copy of the TDS and checks it is detected, and only the changed definition
+     * and its ancestors are compiled again.
+     */
+    @Test
+    void changed_definitions_are_recompiled() {
+        log.trace("changed_definitions_are_recompiled({})", () -> "");
+        try {
+            Path xsd = Files.createTempFile("tds", ".xsd");
+            try {
+                Files.copy(new File(TDS_PATH).toPath(), xsd, StandardCopyOption.REPLACE_EXISTING);
+                TDS previous = new TDS(xsd.toFile());
+                previous.getRootNode();
+                long modified = xsd.toFile().lastModified();
+
+                // Touching the file doesn't make it stale
+                xsd.toFile().setLastModified(modified - 2000);
+                assertFalse(previous.isStale());
+
+                String content = new String(Files.readAllBytes(xsd), StandardCharsets.UTF_8);
+                Files.write(xsd, content.replaceFirst("fixed=\"DV_TEXT\"", "fixed=\"DV_CHANGED\"")
+                        .getBytes(StandardCharsets.UTF_8));
+                xsd.toFile().setLastModified(modified + 2000);
+                assertTrue(previous.isStale());
+
+                TDS tds = new TDS(xsd.toFile());
+                TDSNode root = tds.compile(previous);
+                assertNotSame(previous.getRootNode(), root);
+
+                // Identical definitions may now share a descriptor, but every subtree compiled from scratch is there
+                List<TDSNode> nodes = new ArrayList<>();
+                TDSCache.index(root, new IdentityHashMap<>(), nodes);
+                List<TDSNode> compiledNodes = new ArrayList<>();
+                TDSCache.index(new TDS(xsd.toFile()).getRootNode(), new IdentityHashMap<>(), compiledNodes);
+                assertEquals(compiledNodes.stream().map(TDSNode::getHash).collect(Collectors.toSet()),
+                        nodes.stream().map(TDSNode::getHash).collect(Collectors.toSet()));
+                List<TDSNode> previousNodes = new ArrayList<>();
+                TDSCache.index(previous.getRootNode(), new IdentityHashMap<>(), previousNodes);
+                Map<TDSNode, Boolean> reused = new IdentityHashMap<>();
+                previousNodes.forEach(node -> reused.put(node, Boolean.TRUE));
+                long changed = nodes.stream().filter(node -> reused.containsKey(node) == false).count();
+                assertTrue(changed > 0 && changed < nodes.size() / 10, changed + " of " + nodes.size());
+                assertEquals(1, nodes.stream().filter(node -> "DV_CHANGED".equals(node.getValueType())).count());
+            } finally {
+                Files.delete(xsd);
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Compiles the TDS with a descriptor of a different definition indexed by the subtree hash of the COMPOSITION,
+     * simulating a hash collision, and checks it isn't reused.
+     */
+    @Test
+    void colliding_hashes_are_not_reused() {
+        log.trace("colliding_hashes_are_not_reused({})", () -> "");
+        try {
+            TDS tds = new TDS(new File(TDS_PATH));
+            Element composition = (Element) tds.getXPathAsNodeList("/schema[1]/element[1]").item(0);
+            long hash = TDS.hashSubtree(composition, new IdentityHashMap<>());
+            TDSNode colliding = new TDSNode("colliding", null, null, null, null, Collections.emptyMap(), hash);
+            Map<Long, TDSNode> reusable = new HashMap<>();
+            reusable.put(hash, colliding);
+
+            tds.compileRootNode(reusable);
+            TDSNode root = tds.getRootNode();
+            assertNotSame(colliding, root);
+            assertEquals(composition.getAttribute("name"), root.getName());
+            assertEquals(new TDS(new File(TDS_PATH)).getNodeCount(), tds.getNodeCount());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the asynchronous conversion of TDDs, asserting each stage runs on its own executor and failures
+ * are reported in the results rather than failing the futures.
+ * See {@link AsyncConverter} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class AsyncConverterTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Converts a TDD and a malformed document on single-thread executors, and asserts the composition is completed on
+     * the transformation thread while the malformed document is reported without ever reaching it.
+     */
+    @Test
+    void conversions_complete_on_separate_executors() {
+        log.trace("conversions_complete_on_separate_executors({})", () -> "");
+        ExecutorService io = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "io"));
+        ExecutorService resolve = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "resolve"));
+        ExecutorService transform = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "transform"));
+        try (AsyncConverter converter = AsyncConverter.builder().ioExecutor(io).resolveExecutor(resolve)
+                .transformExecutor(transform).build()) {
+            CompletableFuture<String> converted = converter.convertAsync(TDDSource.of(new File(TDD_PATH)))
+                    .thenApply(result -> {
+                        assertNotNull(result.getComposition(), () -> String.valueOf(result.getError()));
+                        return Thread.currentThread().getName();
+                    });
+            ConversionResult malformed = converter.convertAsync(TDDSource.of("malformed",
+                    "<Registro_de_Atendimento_Clínico>".getBytes(StandardCharsets.UTF_8))).get();
+
+            assertEquals("transform", converted.get());
+            assertEquals(1, malformed.getIndex());
+            assertNull(malformed.getComposition());
+            assertNotNull(malformed.getError());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            io.shutdown();
+            resolve.shutdown();
+            transform.shutdown();
+        }
+        assertTrue(io.isShutdown());
+    }
+
+}
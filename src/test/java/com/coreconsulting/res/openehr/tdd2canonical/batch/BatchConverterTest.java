@@ -0,0 +1,129 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the batch conversion of TDDs, asserting results are delivered in order when requested and that a
+ * malformed document (or an error) is reported without aborting the batch.
+ * See {@link BatchConverter} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class BatchConverterTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Number of documents in the batch.
+     */
+    static final int BATCH_SIZE = 24;
+
+    /**
+     * Converts a batch of copies of the same TDD with a malformed document in the middle, delivering in order.
+     */
+    @Test
+    void ordered_batch_reports_malformed_document() {
+        log.trace("ordered_batch_reports_malformed_document({})", () -> "");
+        try (BatchConverter converter = BatchConverter.builder().maxInFlight(4).build()) {
+            List<ConversionResult> results = new ArrayList<>();
+            long successful = converter.convert(batch(), results::add);
+
+            assertEquals(BATCH_SIZE - 1, successful);
+            assertEquals(BATCH_SIZE, results.size());
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                ConversionResult result = results.get(i);
+                assertEquals(i, result.getIndex());
+                if (i == BATCH_SIZE / 2) {
+                    assertNull(result.getComposition());
+                    assertNotNull(result.getError());
+                } else {
+                    assertNotNull(result.getComposition(), () -> String.valueOf(result.getError()));
+                }
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Converts a batch delivering results as soon as they complete and asserts every document is delivered once.
+     */
+    @Test
+    void unordered_batch_delivers_every_document() {
+        log.trace("unordered_batch_delivers_every_document({})", () -> "");
+        try (BatchConverter converter = BatchConverter.builder().maxInFlight(2).ordered(false).build()) {
+            Set<Long> indexes = new HashSet<>();
+            converter.convert(batch(), result -> indexes.add(result.getIndex()));
+
+            assertEquals(IntStream.range(0, BATCH_SIZE).mapToObj(Long::valueOf).collect(Collectors.toSet()), indexes);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Converts a source whose read throws an {@link Error} and asserts it is reported in its result instead of leaving
+     * the batch waiting for it.
+     */
+    @Test
+    void error_is_reported_in_result() {
+        log.trace("error_is_reported_in_result({})", () -> "");
+        TDDSource failing = new TDDSource() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public TDD read() {
+                throw new StackOverflowError();
+            }
+        };
+        try (BatchConverter converter = BatchConverter.builder().build()) {
+            List<ConversionResult> results = new ArrayList<>();
+            assertEquals(0, converter.convert(Stream.of(failing), results::add));
+
+            assertEquals(1, results.size());
+            assertTrue(results.get(0).getError().getCause() instanceof StackOverflowError);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Creates a batch of in-memory copies of the TDD, with a malformed document in the middle.
+     *
+     * @return {@link Stream} of sources
+     * @throws Exception when the TDD can't be read
+     */
+    static Stream<TDDSource> batch() throws Exception {
+        byte[] bytes = Files.readAllBytes(Paths.get(TDD_PATH));
+        byte[] malformed = "<composition".getBytes(StandardCharsets.UTF_8);
+        return IntStream.range(0, BATCH_SIZE).mapToObj(i ->
+                TDDSource.of("doc" + i, i == BATCH_SIZE / 2 ? malformed : bytes));
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.coreconsulting.res.openehr.tdd2canonical.batch;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.stream.JSONEventWriter;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the splitting of containers holding several TDDs and the writing of the converted compositions into
+ * matching containers.
+ * See {@link ContainerReader} and {@link ContainerWriter} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class ContainerReaderTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Number of TDDs in each container.
+     */
+    static final int CONTAINER_SIZE = 3;
+
+    /**
+     * Converts a wrapped container whose TDDs rely on a namespace declared by the wrapper, and reads the compositions
+     * back from the wrapped container written.
+     */
+    @Test
+    void wrapped_container_is_converted() {
+        log.trace("wrapped_container_is_converted({})", () -> "");
+        try (BatchConverter converter = BatchConverter.builder().build()) {
+            Path folder = Files.createTempDirectory("containers");
+            String oe = "xmlns:oe=\"http://schemas.openehr.org/v1\"";
+            String tdd = tdd().replace(oe, "");
+            StringBuilder container = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            container.append("<export ").append(oe).append(">\n");
+            for (int i = 0; i < CONTAINER_SIZE; i++)
+                container.append(tdd).append('\n');
+            container.append("</export>");
+            File input = folder.resolve("export.xml").toFile();
+            File output = folder.resolve("export-canonical.xml").toFile();
+            Files.write(input.toPath(), container.toString().getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(CONTAINER_SIZE, converter.convert(input, output));
+            try (ContainerReader reader = ContainerReader.open(output)) {
+                List<String> names = new ArrayList<>();
+                while (reader.hasNext()) {
+                    TDDSource source = reader.next();
+                    names.add(source.getName());
+                    TDD composition = source.read();
+                    assertNotNull(composition.getXml(), () -> String.valueOf(composition.getError()));
+                    assertEquals("composition", composition.getXml().getDocumentElement().getNodeName());
+                }
+                assertEquals("export", reader.getWrapper());
+                assertEquals(Arrays.asList(output.getPath() + "#1", output.getPath() + "#2",
+                        output.getPath() + "#3"), names);
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Splits ZIP and NDJSON containers, asserting entries that aren't TDDs and malformed lines are skipped, and
+     * converts the NDJSON container into another one.
+     */
+    @Test
+    void zip_and_ndjson_containers_are_split() {
+        log.trace("zip_and_ndjson_containers_are_split({})", () -> "");
+        try (BatchConverter converter = BatchConverter.builder().build()) {
+            Path folder = Files.createTempDirectory("containers");
+            String tdd = tdd();
+            File zip = folder.resolve("export.zip").toFile();
+            try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip))) {
+                for (String entry : new String[]{"a.xml", "README.txt", "b/c.xml"}) {
+                    output.putNextEntry(new ZipEntry(entry));
+                    output.write(tdd.getBytes(StandardCharsets.UTF_8));
+                    output.closeEntry();
+                }
+            }
+            assertEquals(Arrays.asList("a.xml", "b/c.xml"), read(zip));
+
+            Writer lines = new StringWriter();
+            JSONEventWriter.writeString(lines, tdd);
+            lines.write("\n\n{\"id\": [1, {\"x\": \"}\"}], \"name\": \"named\", \"xml\": ");
+            JSONEventWriter.writeString(lines, tdd);
+            lines.write("}\n{\"xml\": \"unterminated\n");
+            File ndjson = folder.resolve("export.ndjson").toFile();
+            Files.write(ndjson.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+            assertEquals(Arrays.asList(ndjson.getPath() + ":1", "named"), read(ndjson));
+
+            File output = folder.resolve("export-canonical.ndjson").toFile();
+            assertEquals(2, converter.convert(ndjson, output));
+            List<String> compositions = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+            assertEquals(2, compositions.size());
+            assertTrue(compositions.get(1).startsWith("{\"name\":\"named\",\"xml\":\"<?xml"));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Reads the TDD being tested, without its XML declaration.
+     *
+     * @return TDD being tested
+     * @throws Exception when the TDD can't be read
+     */
+    static String tdd() throws Exception {
+        String tdd = new String(Files.readAllBytes(Paths.get(TDD_PATH)), StandardCharsets.UTF_8);
+        return tdd.substring(tdd.indexOf("?>") + 2).trim();
+    }
+
+    /**
+     * Reads every TDD of a container, asserting they are parsed and carry a template id.
+     *
+     * @param container container file
+     * @return names of the TDDs read
+     * @throws Exception when the container can't be read
+     */
+    static List<String> read(File container) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (ContainerReader reader = ContainerReader.open(container)) {
+            while (reader.hasNext()) {
+                TDDSource source = reader.next();
+                TDD tdd = source.read();
+                assertNotNull(tdd.getTemplateId(), () -> String.valueOf(tdd.getError()));
+                names.add(source.getName());
+            }
+        }
+        return names;
+    }
+
+}
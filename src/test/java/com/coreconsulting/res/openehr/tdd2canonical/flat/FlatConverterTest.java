@@ -0,0 +1,84 @@
+package com.coreconsulting.res.openehr.tdd2canonical.flat;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the flattening of TDDs into paths and values, and their accumulation into columnar batches.
+ * See {@link FlatConverter} and {@link FlatBatch} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class FlatConverterTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+    /**
+     * Path of the ENTRY holding the blood pressure ELEMENTs.
+     */
+    static final String BLOOD_PRESSURE = "registro_de_atendimento_clinico/observacoes:0/sinais_vitais:0/" +
+            "pressao_arterial:0/qualquer_evento_as_point_event:0";
+
+    /**
+     * Flattens a TDD and checks the paths of coded texts, quantities and Reference Model attributes.
+     */
+    @Test
+    void RAC_doc1_is_flattened() {
+        log.trace("RAC_doc1_is_flattened({})", () -> "");
+        try {
+            Map<String, String> flat = FlatConverter.toFlat(new TDD(new File(TDD_PATH)));
+
+            assertEquals("pt", flat.get("registro_de_atendimento_clinico/language|code"));
+            assertEquals("433", flat.get("registro_de_atendimento_clinico/category|code"));
+            assertEquals("at0.136", flat.get("registro_de_atendimento_clinico/caracterizacao_do_atendimento:0/" +
+                    "admissao_do_paciente:0/modalidade_assistencial:0|code"));
+            assertEquals("144", flat.get(BLOOD_PRESSURE + "/sistolica:0|magnitude"));
+            assertEquals("mm[Hg]", flat.get(BLOOD_PRESSURE + "/sistolica:0|units"));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Accumulates rows with different paths and checks the columns are padded and written as CSV.
+     */
+    @Test
+    void batch_is_columnar() {
+        log.trace("batch_is_columnar({})", () -> "");
+        try {
+            Map<String, String> first = new LinkedHashMap<>();
+            first.put("a|value", "1");
+            Map<String, String> second = new LinkedHashMap<>();
+            second.put("b|value", "x, \"y\"");
+            second.put("a|value", "2");
+            FlatBatch batch = new FlatBatch();
+            batch.add(first);
+            batch.add(second);
+
+            assertEquals(2, batch.getRowCount());
+            assertEquals(Arrays.asList("1", "2"), batch.getColumn("a|value"));
+            assertEquals(Arrays.asList(null, "x, \"y\""), batch.getColumn("b|value"));
+            StringWriter csv = new StringWriter();
+            batch.writeCSV(csv);
+            assertEquals("a|value,b|value\r\n1,\r\n2,\"x, \"\"y\"\"\"\r\n", csv.toString());
+            assertTrue(batch.getColumnNames().contains("b|value"));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.coreconsulting.res.openehr.tdd2canonical.metrics;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.util.XMLSerializer;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the instrumentation of the transformation and the in-memory histograms recording it.
+ * See {@link Metrics} and {@link HistogramMetrics} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class HistogramMetricsTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Records values into a histogram and checks its statistics and estimated percentiles.
+     */
+    @Test
+    void histogram_is_recorded() {
+        log.trace("histogram_is_recorded({})", () -> "");
+        HistogramMetrics.Histogram histogram = new HistogramMetrics.Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (long value = 1; value <= 100; value++)
+            histogram.record(value);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean());
+        // 50 falls within [32, 63] and 99 within [64, 127], capped by the maximum
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+    }
+
+    /**
+     * Transforms and serializes a TDD with the histograms installed, and checks every stage was recorded.
+     */
+    @Test
+    void RAC_doc1_stages_are_recorded() {
+        log.trace("RAC_doc1_stages_are_recorded({})", () -> "");
+        HistogramMetrics metrics = new HistogramMetrics();
+        Metrics.setListener(metrics);
+        try {
+            TDD tdd = new TDD(new File(TDD_PATH));
+            Document rm = tdd.toCanonical();
+            XMLSerializer.write(rm, new ByteArrayOutputStream());
+            String templateId = tdd.getTemplateId();
+            log.debug("recorded histograms={}", metrics::getHistograms);
+
+            assertEquals(1, metrics.getHistogram("parse.TDD").getCount());
+            long resolutions = metrics.getHistograms().entrySet().stream()
+                    .filter(entry -> entry.getKey().matches("resolve\\.(memory|cache|compile)"))
+                    .mapToLong(entry -> entry.getValue().getCount()).sum();
+            assertEquals(1, resolutions);
+            assertEquals(1, metrics.getHistogram("convert." + templateId).getCount());
+            long nodes = metrics.getHistogram("nodes." + templateId).getMax();
+            assertTrue(nodes > 0);
+            long invocations = metrics.getHistograms().entrySet().stream()
+                    .filter(entry -> entry.getKey().startsWith("transformer."))
+                    .mapToLong(entry -> entry.getValue().getCount()).sum();
+            assertEquals(nodes, invocations);
+            assertNotNull(metrics.getHistogram("transformer.ELEMENT"));
+            assertEquals(1, metrics.getHistogram("serialize").getCount());
+            assertEquals(0, metrics.getCounter("fallback"));
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            Metrics.setListener(null);
+        }
+        assertTrue(Metrics.isEnabled() == false);
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.coreconsulting.res.openehr.tdd2canonical.pipeline;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.batch.TDDSource;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the pipelined conversion engine, asserting every TDD published is handed to the listener either
+ * serialized or with the error that prevented its conversion, even when stages or the listener throw errors.
+ * See {@link ConversionPipeline} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class ConversionPipelineTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+    /**
+     * Number of TDDs published, more than the ring buffer holds so publishing has to wait for free slots.
+     */
+    static final int DOCUMENTS = 20;
+
+    /**
+     * Publishes copies of the same TDD with a malformed document in the middle and checks every result.
+     */
+    @Test
+    void published_documents_are_converted() {
+        log.trace("published_documents_are_converted({})", () -> "");
+        Map<Object, byte[]> converted = new ConcurrentHashMap<>();
+        Map<Object, Exception> failed = new ConcurrentHashMap<>();
+        try {
+            byte[] bytes = Files.readAllBytes(Paths.get(TDD_PATH));
+            byte[] malformed = "<composition".getBytes(StandardCharsets.UTF_8);
+            try (ConversionPipeline pipeline = ConversionPipeline.builder().bufferSize(4).listener(event -> {
+                if (event.isSuccessful())
+                    converted.put(event.getAttachment(), event.getOutput().toByteArray());
+                else
+                    failed.put(event.getAttachment(), event.getError());
+            }).build()) {
+                for (int i = 0; i < DOCUMENTS; i++)
+                    pipeline.publish(TDDSource.of("doc" + i, i == DOCUMENTS / 2 ? malformed : bytes), i);
+            }
+
+            assertEquals(DOCUMENTS - 1, converted.size());
+            assertTrue(failed.containsKey(DOCUMENTS / 2));
+            Document composition = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(converted.get(0)));
+            assertEquals("composition", composition.getDocumentElement().getNodeName());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Publishes sources whose read throws an {@link Error}, with a listener throwing another one, more than the ring
+     * buffer holds, and asserts every event is still delivered and the pipeline closes.
+     */
+    @Test
+    void errors_do_not_stop_the_stages() {
+        log.trace("errors_do_not_stop_the_stages({})", () -> "");
+        Map<Object, Exception> failed = new ConcurrentHashMap<>();
+        TDDSource failing = new TDDSource() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public TDD read() {
+                throw new StackOverflowError();
+            }
+        };
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+            try (ConversionPipeline pipeline = ConversionPipeline.builder().bufferSize(4).listener(event -> {
+                failed.put(event.getAttachment(), event.getError());
+                throw new AssertionError("listener failure");
+            }).build()) {
+                for (int i = 0; i < DOCUMENTS; i++)
+                    pipeline.publish(failing, i);
+            }
+        });
+        assertEquals(DOCUMENTS, failed.size());
+        assertTrue(failed.get(0).getCause() instanceof StackOverflowError);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.coreconsulting.res.openehr.tdd2canonical.stream;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the canonical JSON output, asserting the mapping of types, arrays and scalars.
+ * See {@link JSONEventWriter} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class JSONEventWriterTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Writes a small canonical XML fragment and compares it to the expected JSON.
+     */
+    @Test
+    void canonical_XML_is_mapped_to_JSON() {
+        log.trace("canonical_XML_is_mapped_to_JSON({})", () -> "");
+        String xml = "<composition xmlns=\"http://schemas.openehr.org/v1\" " +
+                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"COMPOSITION\">\n" +
+                "  <name><value>a \"b\"</value></name>\n" +
+                "  <content xsi:type=\"ELEMENT\" archetype_node_id=\"at0001\">\n" +
+                "    <value xsi:type=\"DV_QUANTITY\"><magnitude>37.1</magnitude><units>°C</units></value>\n" +
+                "  </content>\n" +
+                "  <content xsi:type=\"ELEMENT\" archetype_node_id=\"at0002\">\n" +
+                "    <value xsi:type=\"DV_BOOLEAN\"><value>true</value></value>\n" +
+                "  </content>\n" +
+                "</composition>";
+        String json = "{\"_type\":\"COMPOSITION\",\"name\":{\"value\":\"a \\\"b\\\"\"},\"content\":[" +
+                "{\"_type\":\"ELEMENT\",\"archetype_node_id\":\"at0001\"," +
+                "\"value\":{\"_type\":\"DV_QUANTITY\",\"magnitude\":37.1,\"units\":\"°C\"}}," +
+                "{\"_type\":\"ELEMENT\",\"archetype_node_id\":\"at0002\"," +
+                "\"value\":{\"_type\":\"DV_BOOLEAN\",\"value\":true}}]}";
+        try {
+            XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(new StringReader(xml));
+            StringWriter output = new StringWriter();
+            JSONEventWriter writer = new JSONEventWriter(output);
+            writer.add(reader);
+            writer.close();
+
+            assertEquals(json, output.toString());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Transforms a TDD straight into canonical JSON.
+     */
+    @Test
+    void streamed_RAC_doc1_as_JSON() {
+        log.trace("streamed_RAC_doc1_as_JSON({})", () -> "");
+        try (InputStream stream = new FileInputStream(TDD_PATH)) {
+            ByteArrayOutputStream composition = new ByteArrayOutputStream();
+            StreamingTransformer.toCanonicalJSON(stream, composition);
+            String json = new String(composition.toByteArray(), StandardCharsets.UTF_8);
+
+            assertTrue(json.startsWith("{\"_type\":\"COMPOSITION\""));
+            assertTrue(json.contains("\"content\":[{\"_type\":\"SECTION\""));
+            assertTrue(json.endsWith("}"));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+}
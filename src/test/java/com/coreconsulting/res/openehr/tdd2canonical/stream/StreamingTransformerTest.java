@@ -0,0 +1,178 @@
+package com.coreconsulting.res.openehr.tdd2canonical.stream;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import com.coreconsulting.res.openehr.tdd2canonical.TDSNode;
+import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.AbstractTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.ChainedTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.LocatableTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.SectionTransformer;
+import com.coreconsulting.res.openehr.tdd2canonical.transformer.TransformerFactory;
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the streaming TDD transformation, asserting it produces the same composition as the DOM
+ * transformation (see {@link TDD#toCanonical()}).
+ * See {@link StreamingTransformer} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class StreamingTransformerTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Transforms the same TDD through the DOM and the streaming transformations and compares the resulting
+     * compositions, ignoring whitespace, attribute order and the "origin" generated from the current date/time.
+     */
+    @Test
+    void streamed_RAC_doc1_matches_DOM() {
+        log.trace("streamed_RAC_doc1_matches_DOM({})", () -> "");
+        try (InputStream stream = new FileInputStream(TDD_PATH)) {
+            Document expected = new TDD(new File(TDD_PATH)).toCanonical();
+
+            ByteArrayOutputStream composition = new ByteArrayOutputStream();
+            StreamingTransformer.toCanonical(stream, composition);
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            Document actual = factory.newDocumentBuilder().parse(new ByteArrayInputStream(composition.toByteArray()));
+
+            assertEquals(normalize(expected.getDocumentElement(), ""), normalize(actual.getDocumentElement(), ""));
+        } catch (Exception e) {
+            // Covers unsupported types, parsing and I/O failures alike
+            fail(e);
+        }
+    }
+
+    /**
+     * Transforms a TDD with neither @template_id nor @xsi:schemaLocation through the DOM and the streaming
+     * transformations, asserting both report that no TDS is available.
+     */
+    @Test
+    void TDD_without_TDS_is_reported() {
+        log.trace("TDD_without_TDS_is_reported({})", () -> "");
+        try {
+            String xml = new String(Files.readAllBytes(Paths.get(TDD_PATH)), StandardCharsets.UTF_8)
+                    .replaceFirst(" template_id=\"[^\"]*\"", "")
+                    .replaceFirst(" xsi:schemaLocation=\"[^\"]*\"", "");
+            byte[] tdd = xml.getBytes(StandardCharsets.UTF_8);
+
+            IllegalStateException dom = assertThrows(IllegalStateException.class,
+                    () -> new TDD(new ByteArrayInputStream(tdd)).toCanonical());
+            IllegalStateException streamed = assertThrows(IllegalStateException.class,
+                    () -> StreamingTransformer.toCanonical(new ByteArrayInputStream(tdd), new ByteArrayOutputStream()));
+            assertEquals(dom.getMessage(), streamed.getMessage());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Represents an element as text, with sorted attributes and no whitespace-only text.
+     *
+     * @param node node to be represented
+     * @param path path of the parent element, used to ignore the generated "origin"
+     * @return textual representation of the node
+     */
+    static String normalize(Node node, String path) {
+        StringBuilder text = new StringBuilder();
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            Element element = (Element) node;
+            Map<String, String> attributes = new TreeMap<>();
+            NamedNodeMap map = element.getAttributes();
+            for (int i = 0; i < map.getLength(); i++)
+                attributes.put(map.item(i).getNodeName(), map.item(i).getNodeValue());
+            text.append('<').append(element.getNodeName()).append(attributes).append(">\n");
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                text.append(normalize(child, path + "/" + element.getNodeName()));
+            text.append("</").append(element.getNodeName()).append(">\n");
+        } else if (node.getNodeType() == Node.TEXT_NODE && node.getNodeValue().trim().isEmpty() == false) {
+            text.append(path.endsWith("/origin/value") ? "now()" : node.getNodeValue().trim()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Checks only the transformations made of transformers shipped with the application are replayed on the events,
+     * so a transformer registered from another jar fails the streaming transformation, unless the properties are
+     * reloaded with {@link TransformerFactory.UnsupportedTypePolicy#PASS_THROUGH}, in which case it is copied through.
+     */
+    @Test
+    void only_shipped_transformers_are_replayed() {
+        log.trace("only_shipped_transformers_are_replayed({})", () -> "");
+        AbstractTransformer locatable = TransformerFactory.findTransformer(LocatableTransformer.type);
+        AbstractTransformer history = new AbstractTransformer() {
+            @Override
+            public String getType() {
+                return "HISTORY";
+            }
+
+            @Override
+            public void transformElement(TDD tdd, Element element, String nodeId, String type, TDSNode tdsNode) {
+            }
+        };
+        AbstractTransformer chained = new ChainedTransformer(locatable, history);
+        assertTrue(StreamingTransformer.isReplayed(locatable));
+        assertTrue(StreamingTransformer.isReplayed(TransformerFactory.getDispatch(SectionTransformer.type)));
+        assertFalse(StreamingTransformer.isReplayed(chained));
+
+        String path = System.getProperty("properties");
+        try {
+            assertThrows(UnsupportedTypeException.class, () -> StreamingTransformer.canReplay(chained, "HISTORY"));
+
+            java.util.Properties properties = new java.util.Properties();
+            try (InputStream stream = new FileInputStream(Properties.getPath())) {
+                properties.loadFromXML(stream);
+            }
+            properties.setProperty(Properties.UNSUPPORTED_TYPE_POLICY, "pass-through");
+            File file = File.createTempFile("properties", ".xml");
+            file.deleteOnExit();
+            try (OutputStream stream = new FileOutputStream(file)) {
+                properties.storeToXML(stream, null);
+            }
+            System.setProperty("properties", file.getPath());
+            assertTrue(Properties.reload());
+
+            assertTrue(StreamingTransformer.canReplay(locatable, LocatableTransformer.type));
+            assertFalse(StreamingTransformer.canReplay(chained, "HISTORY"));
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (path == null)
+                System.clearProperty("properties");
+            else
+                System.setProperty("properties", path);
+            Properties.reload();
+        }
+    }
+
+}
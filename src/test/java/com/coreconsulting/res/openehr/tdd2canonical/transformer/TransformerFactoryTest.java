@@ -0,0 +1,99 @@
+package com.coreconsulting.res.openehr.tdd2canonical.transformer;
+
+import com.coreconsulting.res.openehr.tdd2canonical.exceptions.UnsupportedTypeException;
+import com.coreconsulting.res.openehr.tdd2canonical.util.Properties;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the discovery of the transformers as service providers and the dispatch resolved for each type.
+ * See {@link TransformerFactory} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class TransformerFactoryTest {
+
+    /**
+     * Checks every transformer shipped with the application is discovered and registered for its type.
+     */
+    @Test
+    void shipped_transformers_are_discovered() {
+        log.trace("shipped_transformers_are_discovered({})", () -> "");
+        try {
+            assertEquals(14, TransformerFactory.getTypes().size());
+            for (String type : TransformerFactory.getTypes())
+                assertEquals(type, TransformerFactory.getTransformer(type).getType());
+            assertTrue(TransformerFactory.getTransformer(SectionTransformer.type) instanceof SectionTransformer);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Checks the dispatch of a type chains the LOCATABLE transformation with the specific one and is resolved once,
+     * and that unsupported types fail by default.
+     */
+    @Test
+    void dispatch_is_resolved_once_per_type() {
+        log.trace("dispatch_is_resolved_once_per_type({})", () -> "");
+        AbstractTransformer dispatch = TransformerFactory.getDispatch(SectionTransformer.type);
+        assertTrue(dispatch instanceof ChainedTransformer);
+        ChainedTransformer chained = (ChainedTransformer) dispatch;
+        assertSame(TransformerFactory.findTransformer(LocatableTransformer.type), chained.locatable);
+        assertSame(TransformerFactory.findTransformer(SectionTransformer.type), chained.specific);
+        assertSame(dispatch, TransformerFactory.getDispatch(SectionTransformer.type));
+        assertSame(TransformerFactory.findTransformer(LocatableTransformer.type), TransformerFactory.getDispatch(null));
+        assertNull(TransformerFactory.getDispatch("UNKNOWN_TYPE"));
+    }
+
+    /**
+     * Checks unsupported types follow the policy in force when they are transformed, failing by default and passing
+     * through once the properties are reloaded with {@link TransformerFactory.UnsupportedTypePolicy#PASS_THROUGH}.
+     */
+    @Test
+    void unsupported_types_follow_the_current_policy() {
+        log.trace("unsupported_types_follow_the_current_policy({})", () -> "");
+        String path = System.getProperty("properties");
+        try {
+            assertThrows(UnsupportedTypeException.class, () -> TransformerFactory.getUnsupportedDispatch("UNKNOWN"));
+
+            java.util.Properties properties = new java.util.Properties();
+            try (InputStream stream = new FileInputStream(Properties.getPath())) {
+                properties.loadFromXML(stream);
+            }
+            properties.setProperty(Properties.UNSUPPORTED_TYPE_POLICY, "pass-through");
+            File file = File.createTempFile("properties", ".xml");
+            file.deleteOnExit();
+            try (OutputStream stream = new FileOutputStream(file)) {
+                properties.storeToXML(stream, null);
+            }
+            System.setProperty("properties", file.getPath());
+            assertTrue(Properties.reload());
+            assertSame(TransformerFactory.findTransformer(LocatableTransformer.type),
+                    TransformerFactory.getUnsupportedDispatch("UNKNOWN"));
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (path == null)
+                System.clearProperty("properties");
+            else
+                System.setProperty("properties", path);
+            Properties.reload();
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.coreconsulting.res.openehr.tdd2canonical.util;
+
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.xpath.XPath;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the provisioning of parsers and XPath instances, asserting they are reused within a thread and
+ * never shared across threads.
+ * See {@link XMLProvider} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class XMLProviderTest {
+
+    /**
+     * Asserts the same thread gets the same instances while another thread gets its own.
+     */
+    @Test
+    void instances_are_confined_to_threads() {
+        log.trace("instances_are_confined_to_threads({})", () -> "");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DocumentBuilder builder = XMLProvider.getBuilder();
+            XPath xpath = XMLProvider.getXPath();
+            assertSame(builder, XMLProvider.getBuilder());
+            assertSame(xpath, XMLProvider.getXPath());
+
+            assertNotSame(builder, executor.submit(XMLProvider::getBuilder).get());
+            assertNotSame(xpath, executor.submit(XMLProvider::getXPath).get());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
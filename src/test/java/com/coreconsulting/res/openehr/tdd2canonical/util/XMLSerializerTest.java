@@ -0,0 +1,82 @@
+package com.coreconsulting.res.openehr.tdd2canonical.util;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the serialization of DOM nodes into streams, asserting the compact output parses back into the
+ * same tree.
+ * See {@link XMLSerializer} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class XMLSerializerTest {
+
+    /**
+     * Path to the TDD being converted.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Serializes a composition (larger than the buffers) in compact mode and parses it back.
+     */
+    @Test
+    void compact_composition_round_trips() {
+        log.trace("compact_composition_round_trips({})", () -> "");
+        try {
+            Document composition = new TDD(new File(TDD_PATH)).toCanonical();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            XMLSerializer.write(composition, stream);
+            ByteArrayOutputStream channel = new ByteArrayOutputStream();
+            XMLSerializer.write(composition, Channels.newChannel(channel));
+
+            assertArrayEquals(stream.toByteArray(), channel.toByteArray());
+            Document parsed = XMLProvider.getBuilder().parse(new ByteArrayInputStream(stream.toByteArray()));
+            // the transformation may leave adjacent text nodes, which are merged when parsing
+            composition.normalize();
+            assertTrue(composition.getDocumentElement().isEqualNode(parsed.getDocumentElement()));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Serializes markup characters and characters outside the BMP and parses them back.
+     */
+    @Test
+    void special_characters_round_trip() {
+        log.trace("special_characters_round_trip({})", () -> "");
+        try {
+            String text = "a < b && c > \"d\"\tclínico 😀";
+            Document document = XMLProvider.getBuilder().newDocument();
+            Element element = document.createElement("value");
+            element.setAttribute("text", text);
+            element.setTextContent(text);
+            document.appendChild(element);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            XMLSerializer.write(document, output);
+
+            Element parsed = XMLProvider.getBuilder().parse(new ByteArrayInputStream(output.toByteArray()))
+                    .getDocumentElement();
+            assertEquals(text, parsed.getAttribute("text"));
+            assertEquals(text, parsed.getTextContent());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.coreconsulting.res.openehr.tdd2canonical.util;
+
+import com.coreconsulting.res.openehr.tdd2canonical.TDD;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * This class tests the navigation of child elements, asserting it skips the other nodes and matches the
+ * {@link XML#getChildElements(org.w3c.dom.Node)} list, and the parsing of documents held by {@link ByteBuffer}s.
+ * See {@link XML} for details on the implementation.
+ *
+ * @author Ricardo Gonçalves {@literal <ricardo.goncalves@coreconsulting.com.br>}
+ */
+@Log4j2
+public class XMLTest {
+
+    /**
+     * Path to the TDD being tested.
+     */
+    static final String TDD_PATH = "./src/test/resources/TDD/reg-atendimento-clinico_doc1.xml";
+
+    /**
+     * Navigates the child elements of an element with text and comments among them.
+     */
+    @Test
+    void child_elements_are_navigated() {
+        log.trace("child_elements_are_navigated({})", () -> "");
+        try {
+            XML xml = new XML("<root> text <a/><!-- comment --><b><c/></b> text <a/> </root>");
+            Element root = xml.getXml().getDocumentElement();
+            Element first = XML.getFirstChildElement(root);
+            Element last = XML.getLastChildElement(root);
+
+            assertEquals("a", first.getNodeName());
+            assertEquals(3, XML.getChildElementCount(root));
+            assertSame(XML.getChildElements(root).get(1), XML.getNextElementSibling(first));
+            assertSame(XML.getChildElements(root).get(2), last);
+            assertSame(XML.getNextElementSibling(first), XML.getPreviousElementSibling(last));
+            assertSame(XML.getNextElementSibling(first), XML.getChildElement(root, "b"));
+            assertSame(last, XML.getChildElement(root, 2));
+            assertNull(XML.getChildElement(root, 3));
+            assertNull(XML.getChildElement(root, "c"));
+            assertNull(XML.getNextElementSibling(last));
+            assertNull(XML.getFirstChildElement(first));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Parses a TDD from a memory-mapped file and from the middle of a heap buffer, asserting both match the TDD parsed
+     * from the file and the position of the buffer is left untouched.
+     */
+    @Test
+    void byte_buffers_are_parsed() {
+        log.trace("byte_buffers_are_parsed({})", () -> "");
+        try {
+            File file = new File(TDD_PATH);
+            String expected = new TDD(file).toString();
+            assertEquals(expected, new TDD(XML.map(file)).toString());
+
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            byte[] padded = new byte[bytes.length + 8];
+            System.arraycopy(bytes, 0, padded, 4, bytes.length);
+            ByteBuffer buffer = ByteBuffer.wrap(padded, 4, bytes.length);
+            TDD tdd = new TDD(buffer);
+            assertNotNull(tdd.getXml(), () -> String.valueOf(tdd.getError()));
+            assertEquals(expected, tdd.toString());
+            assertEquals(4, buffer.position());
+
+            XML malformed = new XML(ByteBuffer.wrap("<root>".getBytes(StandardCharsets.UTF_8)));
+            assertNull(malformed.getXml());
+            assertNotNull(malformed.getError());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+}